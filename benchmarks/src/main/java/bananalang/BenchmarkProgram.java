@@ -0,0 +1,110 @@
+package bananalang;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A benchmarked program with its scripted input, prepared up to every phase
+ * so each benchmark measures only its own phase.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkProgram {
+
+    /** How many times the shipped programs are repeated in "large". */
+    static final int LARGE_COPIES = 200;
+
+    /**
+     * The shipped programs, plus "large": all of them concatenated
+     * {@link #LARGE_COPIES} times with their inputs.
+     */
+    @Param({"hello", "hello_golf", "calc", "fitness", "large"})
+    public String program;
+
+    String source;
+    String input;
+    File file;
+    String preprocessed;
+    List<String> commands;
+    BananaSourceMap sourceMap;
+    BananaProgram compiled;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        if (program.equals("large")) {
+            StringBuilder text = new StringBuilder();
+            StringBuilder lines = new StringBuilder();
+            for (int i = 0; i < LARGE_COPIES; i++) {
+                for (String name : new String[] {"hello", "hello_golf", "calc", "fitness"}) {
+                    text.append(resource(name)).append('\n');
+                    lines.append(inputFor(name));
+                }
+            }
+            source = text.toString();
+            input = lines.toString();
+        } else {
+            source = resource(program);
+            input = inputFor(program);
+        }
+
+        Path path = Files.createTempFile("benchmark", ".nana");
+        Files.write(path, source.getBytes(StandardCharsets.UTF_8));
+        file = path.toFile();
+
+        preprocessed = BananaPreprocessor.processString(source);
+        BananaParser parser = new BananaParser();
+        commands = parser.parse(preprocessed);
+        sourceMap = parser.getSourceMap();
+        compiled = new BananaCompiler().compile(commands, sourceMap);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    /**
+     * Creates an interpreter that reads the scripted input and discards its
+     * output.
+     */
+    BananaInterpreter newInterpreter() {
+        return new BananaInterpreter(new ReaderInput(new StringReader(input)),
+            new BufferedOutput(OutputStream.nullOutputStream()));
+    }
+
+    private static String resource(String name) throws IOException {
+        try (InputStream in = BenchmarkProgram.class.getResourceAsStream("/" + name + ".nana")) {
+            if (in == null) {
+                throw new IOException("Missing program: " + name + ".nana");
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Returns the scripted input: calc adds 3 and 2, fitness gets two counts.
+     */
+    private static String inputFor(String name) {
+        switch (name) {
+            case "calc":
+                return "🍌🍌🍌\n🍌🍌\n🍌\n";
+            case "fitness":
+                return "🍌🍌🍌\n🍌🍌🍌🍌🍌🍌🍌🍌🍌🍌\n";
+            default:
+                return "";
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package bananalang;
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures compiling parsed commands into a program, with and without the
+ * peephole optimizer.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompileBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Settings {
+        @Param({"true", "false"})
+        public boolean optimize;
+    }
+
+    @Benchmark
+    public BananaProgram compile(BenchmarkProgram state, Settings settings) {
+        BananaCompiler compiler = new BananaCompiler(settings.optimize ? new BananaOptimizer() : null);
+        return compiler.compile(state.commands, state.sourceMap);
+    }
+}
@@ -0,0 +1,790 @@
+package bananalang;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Seeded differential fuzzer: generates random Banana programs and input,
+ * runs each through every front end and every execution mode, and checks
+ * that they all agree with the reference, which is the unoptimized program
+ * on the plain interpreter.
+ *
+ * <p>Front ends are compared on the compiled program (code, constants,
+ * strings and source positions), the compile error and the warnings. Modes
+ * are compared on what a run prints, including runtime errors, the final
+ * stack and why the run stopped. Programs are mostly valid, with unknown
+ * tokens, malformed literals and unbalanced blocks mixed in, and input has
+ * empty, invalid and missing lines.
+ *
+ * <p>Since the reference itself is one of the engines, it is also checked
+ * against {@link ReferenceInterpreter}, the original string-command parser
+ * and interpreter with only the intended language changes applied: whether
+ * the code is rejected, the warnings and the whole run must agree.
+ *
+ * <p>A mismatch is shrunk to a minimal reproducer by removing tokens and
+ * input lines for as long as the same check still fails. The same seed
+ * always generates the same cases.
+ */
+public final class DifferentialFuzzer {
+
+    /**
+     * What is compared against the reference: a front end or an execution mode.
+     */
+    public enum Check {
+        /** {@link BananaParser#parse(String)} and {@link BananaCompiler#compile(List, BananaSourceMap)}. */
+        COMMANDS("commands"),
+        /** {@link BananaCompiler#compile(File)}. */
+        FILE("file"),
+        /** {@link BananaSourceLines}, lexed from the whole text. */
+        LINES("lines"),
+        /** {@link BananaSourceLines} after one line was edited back to the original. */
+        LINES_EDIT("lines-edit"),
+        /** The optimized program. */
+        OPTIMIZED("optimized"),
+        /** Closures instead of the interpreter loop. */
+        CLOSURES("closures"),
+        /** Bytecode from the first instruction on. */
+        JIT("jit"),
+        /** Tier-up at a random point, over several runs of one program. */
+        TIER("tier"),
+        /** The counting loop behind --stats. */
+        STATS("stats"),
+        /** The counting loop behind --profile. */
+        PROFILER("profiler"),
+        /** A budget too large to be reached. */
+        BUDGET("budget"),
+        /** An off-heap list, preloaded so older values are spilled. */
+        OFF_HEAP("off-heap"),
+        /** {@link BananaBufferedInput} instead of {@link ReaderInput}. */
+        BUFFERED("buffered"),
+        /** {@link BananaBufferedInput} with prefetch. */
+        PREFETCH("prefetch"),
+        /** The original parser and interpreter, {@link ReferenceInterpreter}, on the code and the run. */
+        BASELINE("baseline");
+
+        private final String name;
+
+        Check(String name) {
+            this.name = name;
+        }
+
+        boolean isFrontEnd() {
+            return ordinal() <= LINES_EDIT.ordinal();
+        }
+
+        static Check of(String name) {
+            for (Check check : values()) {
+                if (check.name.equals(name)) {
+                    return check;
+                }
+            }
+            throw new IllegalArgumentException("Unknown check: " + name);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static final String[] INSTRUCTIONS = {
+        "🍌🍌", "🍌🍂", "🍌🌴", "🍌🪾", "🍌❄️", "🍌🙈", "🍌🙉", "🍌🍌🍌🍌🍌"
+    };
+    private static final String[] SEPARATORS = { " ", " ", " ", " ", "\n", "  ", "\t", "\r\n", "" };
+    // Tokens the language does not know, and text the preprocessor drops
+    private static final String[] GARBAGE = {
+        "🐒🐒", "🍌❄", "🍌🌙", "❓", "🙈", "🌴🍌", "x", "#", "😀", "🍌\uFE0F", "🌙", "🍌🙉🙉"
+    };
+    // Literals the parser rejects
+    private static final String[] MALFORMED = { "🌙🌙🍌🍌🐒🍌🐒🍌", "🙉", "🙉🐒", "🙉🍌🍌🍌🍌🍌🍌🍌🍌🍌🍌🍌🍌🍌🍌🍌🍌🍌🍌🍌🍌🍌🍌🍌🍌🍌🍌🍌🍌🍌🍌🍌🍌🍌" };
+
+    // Values under every off-heap run, enough to spill
+    private static final int PRELOAD = BananaStack.WINDOW + 1000;
+
+    private final long seed;
+    private int maxTokens = 60;
+    private Set<Check> checks = EnumSet.allOf(Check.class);
+
+    // Reused between cases; preloading is cheaper than new storage every time
+    private final BananaStack heapStack = new BananaStack(PRELOAD);
+    private final BananaStack offHeapStack = BananaStack.offHeap();
+
+    /**
+     * Creates a fuzzer.
+     *
+     * @param seed the seed the cases are generated from
+     */
+    public DifferentialFuzzer(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Sets the most tokens a generated program has. The default is 60.
+     *
+     * @param maxTokens the maximum, at least 1
+     */
+    public void setMaxTokens(int maxTokens) {
+        if (maxTokens < 1) {
+            throw new IllegalArgumentException("The maximum number of tokens must be at least 1: " + maxTokens);
+        }
+        this.maxTokens = maxTokens;
+    }
+
+    /**
+     * Limits the checks that are run. By default all of them are.
+     *
+     * @param checks the checks to run
+     */
+    public void setChecks(Set<Check> checks) {
+        if (checks.isEmpty()) {
+            throw new IllegalArgumentException("At least one check is needed");
+        }
+        this.checks = EnumSet.copyOf(checks);
+    }
+
+    /**
+     * One generated program with its input and the random choices the modes
+     * make for it, so that a shrunk copy runs the same way.
+     */
+    public static final class Case {
+        private final int number;
+        private final List<String> program;
+        private final List<String> input;
+        private final String lineBreak;
+        private final boolean optimize;
+        private final long tierUpThreshold;
+        private final int editedLine;
+
+        Case(int number, List<String> program, List<String> input, String lineBreak,
+                boolean optimize, long tierUpThreshold, int editedLine) {
+            this.number = number;
+            this.program = program;
+            this.input = input;
+            this.lineBreak = lineBreak;
+            this.optimize = optimize;
+            this.tierUpThreshold = tierUpThreshold;
+            this.editedLine = editedLine;
+        }
+
+        Case with(List<String> program, List<String> input) {
+            return new Case(number, program, input, lineBreak, optimize, tierUpThreshold, editedLine);
+        }
+
+        /**
+         * Returns the case's number within its run.
+         *
+         * @return the number, from 0
+         */
+        public int getNumber() {
+            return number;
+        }
+
+        /**
+         * Returns the program's code.
+         *
+         * @return the code
+         */
+        public String getSource() {
+            return String.join("", program);
+        }
+
+        /**
+         * Returns the program's input.
+         *
+         * @return the input lines, each ended by a line break
+         */
+        public String getInput() {
+            StringBuilder sb = new StringBuilder();
+            for (String line : input) {
+                sb.append(line).append(lineBreak);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * A check that disagreed with the reference.
+     */
+    public static final class Mismatch {
+        private final Check check;
+        private final Case failing;
+        private final String expected;
+        private final String actual;
+
+        Mismatch(Check check, Case failing, String expected, String actual) {
+            this.check = check;
+            this.failing = failing;
+            this.expected = expected;
+            this.actual = actual;
+        }
+
+        /**
+         * Returns the check that disagreed.
+         *
+         * @return the check
+         */
+        public Check getCheck() {
+            return check;
+        }
+
+        /**
+         * Returns the case it disagreed on.
+         *
+         * @return the case
+         */
+        public Case getCase() {
+            return failing;
+        }
+
+        @Override
+        public String toString() {
+            return "Mismatch in " + check + " (case " + failing.number + ")" + System.lineSeparator()
+                + "Program: " + quote(failing.getSource()) + System.lineSeparator()
+                + "Input: " + quote(failing.getInput()) + System.lineSeparator()
+                + "Expected: " + expected.replace("\n", System.lineSeparator() + "          ") + System.lineSeparator()
+                + "Actual:   " + actual.replace("\n", System.lineSeparator() + "          ");
+        }
+    }
+
+    /**
+     * What a run left behind. Equal results mean the modes agree.
+     */
+    private static final class Result {
+        private final String output;
+        private final double[] stack;
+        private final BananaBudget.Reason stopReason;
+
+        Result(String output, double[] stack, BananaBudget.Reason stopReason) {
+            this.output = output;
+            this.stack = stack;
+            this.stopReason = stopReason;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Result)) {
+                return false;
+            }
+            Result other = (Result) o;
+            return output.equals(other.output) && Arrays.equals(stack, other.stack)
+                && stopReason == other.stopReason;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(output, Arrays.hashCode(stack), stopReason);
+        }
+
+        @Override
+        public String toString() {
+            // Only the top of a preloaded stack is worth showing
+            int from = Math.max(0, stack.length - 16);
+            String top = Arrays.toString(Arrays.copyOfRange(stack, from, stack.length));
+            return "output " + quote(output) + "\nstack (" + stack.length + " values) "
+                + (from > 0 ? "..." : "") + top + (stopReason != null ? "\nstopped: " + stopReason : "");
+        }
+    }
+
+    /**
+     * Generates and checks cases, shrinking the first mismatch.
+     *
+     * @param cases the number of cases
+     * @return the shrunk mismatch, or null if every check agreed on every case
+     */
+    public Mismatch run(int cases) {
+        Random random = new Random(seed);
+        for (int i = 0; i < cases; i++) {
+            Case c = generate(random, i);
+            Mismatch mismatch = check(c, checks);
+            if (mismatch != null) {
+                return shrink(mismatch);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Generates a case: a program as a list of tokens, each with the
+     * whitespace after it, and input lines.
+     */
+    private Case generate(Random random, int number) {
+        List<String> program = new ArrayList<>();
+        int tokens = 1 + random.nextInt(maxTokens);
+        int open = 0;
+        // Rough stack depth, so most binary instructions have operands
+        int depth = 0;
+        for (int i = 0; i < tokens; i++) {
+            String token;
+            int pick = random.nextInt(100);
+            if (pick < 30 || (pick < 60 && depth < 2 && random.nextInt(4) > 0)) {
+                token = "🍌" + separator(random) + literal(random);
+                depth++;
+            } else if (pick < 36) {
+                token = "🍌 " + "🙉" + digits(random, 1 + random.nextInt(3));
+                depth++;
+            } else if (pick < 40) {
+                token = "🍌 🍌🍌🍌";
+                depth++;
+            } else if (pick < 48) {
+                token = "🍌❓";
+                open++;
+                depth--;
+            } else if (pick < 56 && open > 0) {
+                token = "︶";
+                open--;
+            } else if (pick < 96) {
+                token = INSTRUCTIONS[random.nextInt(INSTRUCTIONS.length)];
+                depth = token.equals("🍌🍌🍌🍌🍌") ? 0 : depth - 1;
+            } else if (pick < 98) {
+                token = GARBAGE[random.nextInt(GARBAGE.length)];
+            } else if (pick < 99) {
+                token = "🍌 " + MALFORMED[random.nextInt(MALFORMED.length)];
+            } else {
+                token = "︶";
+            }
+            program.add(token + separator(random));
+        }
+        // Now and then leave a block open
+        if (random.nextInt(20) > 0) {
+            for (; open > 0; open--) {
+                program.add("︶" + separator(random));
+            }
+        }
+
+        List<String> input = new ArrayList<>();
+        int lines = random.nextInt(8);
+        for (int i = 0; i < lines; i++) {
+            int pick = random.nextInt(10);
+            input.add(pick == 0 ? "" : pick == 1 ? "x🍌" : pick == 2 ? "🍌 🍌" : "🍌".repeat(1 + random.nextInt(5)));
+        }
+        String lineBreak = random.nextInt(4) == 0 ? "\r\n" : "\n";
+        return new Case(number, program, input, lineBreak, random.nextBoolean(),
+            random.nextInt(2 * tokens + 2), random.nextInt(tokens));
+    }
+
+    private static String separator(Random random) {
+        return SEPARATORS[random.nextInt(SEPARATORS.length)];
+    }
+
+    /**
+     * Returns a number literal: an int, a double, or no literal at all, in
+     * which case the 🍌 pushes 1.
+     */
+    private static String literal(Random random) {
+        int pick = random.nextInt(10);
+        if (pick < 6) {
+            return "🌙" + (random.nextBoolean() ? "🐒" : "🍌") + digits(random, 1 + random.nextInt(7));
+        }
+        if (pick < 9) {
+            String sign = new String[] { "🐒", "🍌", "🌙" }[random.nextInt(3)];
+            return "🌙🌙" + sign + digits(random, 1 + random.nextInt(4)) + "🐒"
+                + "🌙".repeat(random.nextInt(3)) + digits(random, 1 + random.nextInt(4));
+        }
+        return "";
+    }
+
+    private static String digits(Random random, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(random.nextBoolean() ? "🍌" : "🌙");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Runs the given checks on a case.
+     *
+     * @return the first that disagrees with the reference, or null
+     */
+    private Mismatch check(Case c, Set<Check> checks) {
+        String source = c.getSource();
+        // Without setWarnings, warnings are printed, as in list mode
+        String reference = describeCompile(() -> new BananaCompiler(null).compile(source));
+        for (Check check : checks) {
+            if (!check.isFrontEnd()) {
+                continue;
+            }
+            String expected = check == Check.COMMANDS ? reference
+                : describeCompile(() -> new BananaCompiler(null).compile(BananaPreprocessor.processString(source)));
+            String actual = describeCompile(() -> compileWith(check, c));
+            // List mode finds malformed literals before unbalanced blocks, so
+            // with both in the code it may name the other one
+            boolean bothFailed = check == Check.COMMANDS && expected.startsWith("error ") && actual.startsWith("error ");
+            if (!expected.equals(actual) && !bothFailed) {
+                return new Mismatch(check, c, expected, actual);
+            }
+        }
+
+        if (checks.contains(Check.BASELINE)) {
+            String expected = runBaseline(c);
+            String actual = runReference(c);
+            if (!expected.equals(actual)) {
+                return new Mismatch(Check.BASELINE, c, expected, actual);
+            }
+        }
+
+        BananaProgram program;
+        try {
+            program = compile(source, false);
+        } catch (BananaCompileException e) {
+            // Nothing to run; the front ends agreed on the error
+            return null;
+        }
+        Result expected = run(program, c, new BananaStack(), Check.OPTIMIZED, false);
+        for (Check check : checks) {
+            if (check.isFrontEnd() || check == Check.BASELINE) {
+                continue;
+            }
+            if (check == Check.OFF_HEAP) {
+                Result preloaded = run(program, c, preload(heapStack), check, false);
+                Result actual = run(compile(source, c.optimize), c, preload(offHeapStack), check, true);
+                if (!preloaded.equals(actual)) {
+                    return new Mismatch(check, c, preloaded.toString(), actual.toString());
+                }
+                continue;
+            }
+            // Tier-up runs a fresh program several times, so later runs start compiled
+            BananaProgram optimized = compile(source, check == Check.OPTIMIZED || c.optimize);
+            int runs = check == Check.TIER ? 3 : 1;
+            for (int i = 0; i < runs; i++) {
+                Result actual = run(optimized, c, new BananaStack(), check, true);
+                if (!expected.equals(actual)) {
+                    return new Mismatch(check, c, expected.toString(), actual.toString());
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses and runs a case on {@link ReferenceInterpreter}.
+     *
+     * @return the warnings and the run, or only that the code was rejected
+     */
+    private static String runBaseline(Case c) {
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        BufferedOutput output = new BufferedOutput(printed, 7);
+        ReferenceInterpreter interpreter = new ReferenceInterpreter(new ReaderInput(new StringReader(c.getInput())), output);
+        List<String> commands;
+        try {
+            commands = interpreter.parse(c.getSource());
+        } catch (ReferenceInterpreter.Rejected e) {
+            return "rejected";
+        }
+        output.flush();
+        String warnings = new String(printed.toByteArray(), StandardCharsets.UTF_8);
+        printed.reset();
+        String crash = "";
+        try {
+            interpreter.run(commands);
+        } catch (RuntimeException e) {
+            crash = "\ncrashed " + e;
+        }
+        output.flush();
+        Result result = new Result(new String(printed.toByteArray(), StandardCharsets.UTF_8) + crash,
+            interpreter.getList(), null);
+        return "warnings " + quote(warnings) + "\n" + result;
+    }
+
+    /**
+     * Compiles a case's code and runs it in the reference mode.
+     *
+     * @return the warnings and the run, or only that the code was rejected
+     */
+    private static String runReference(Case c) {
+        StringBuilder warnings = new StringBuilder();
+        BananaCompiler compiler = new BananaCompiler(null);
+        compiler.setWarnings(warnings::append);
+        BananaProgram program;
+        try {
+            program = compiler.compile(c.getSource());
+        } catch (BananaCompileException e) {
+            return "rejected";
+        }
+        return "warnings " + quote(warnings.toString()) + "\n"
+            + run(program, c, new BananaStack(), Check.OPTIMIZED, false);
+    }
+
+    private static BananaStack preload(BananaStack stack) {
+        stack.clear();
+        for (int i = 0; i < PRELOAD; i++) {
+            stack.push(i % 97 - 48);
+        }
+        return stack;
+    }
+
+    /**
+     * Compiles code with or without the optimizer. Warnings are dropped; the
+     * front end checks compare them.
+     */
+    private static BananaProgram compile(String source, boolean optimize) {
+        BananaCompiler compiler = new BananaCompiler(optimize ? new BananaOptimizer() : null);
+        compiler.setWarnings(text -> { });
+        return compiler.compile(source);
+    }
+
+    /**
+     * Compiles a case's code through one of the other front ends, none of
+     * which optimizes.
+     */
+    private static BananaProgram compileWith(Check check, Case c) throws IOException {
+        String source = c.getSource();
+        BananaCompiler compiler = new BananaCompiler(null);
+        switch (check) {
+            case COMMANDS: {
+                BananaParser parser = new BananaParser();
+                return compiler.compile(parser.parse(source), parser.getSourceMap());
+            }
+            case FILE: {
+                Path file = Files.createTempFile("fuzz", ".nana");
+                try {
+                    Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+                    return compiler.compile(file.toFile());
+                } finally {
+                    Files.delete(file);
+                }
+            }
+            case LINES: {
+                BananaSourceLines lines = new BananaSourceLines();
+                lines.setText(source);
+                return lines.compile(compiler);
+            }
+            case LINES_EDIT: {
+                // Start from the code with one line replaced, then type it back
+                String[] text = source.split("\n", -1);
+                int edited = c.editedLine % text.length;
+                String original = text[edited];
+                text[edited] = "🍌🍌 ︶ 🍌❓";
+                BananaSourceLines lines = new BananaSourceLines();
+                lines.setText(String.join("\n", text));
+                lines.setLine(edited, original);
+                return lines.compile(compiler);
+            }
+            default:
+                throw new IllegalArgumentException("Not a front end: " + check);
+        }
+    }
+
+    private interface Compilation {
+        BananaProgram compile() throws IOException;
+    }
+
+    /**
+     * Describes everything a front end produced: the program and the
+     * warnings, wherever they were printed, or the error. Warnings are left
+     * out after an error, since list mode warns about the whole code before
+     * compiling while the others stop at the error.
+     */
+    private static String describeCompile(Compilation compilation) {
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        PrintStream out = System.out;
+        StringBuilder sb = new StringBuilder();
+        try (PrintStream capture = new PrintStream(printed, true, "UTF-8")) {
+            // BananaParser.parse(String) prints its warnings
+            System.setOut(capture);
+            BananaProgram program = compilation.compile();
+            sb.append("code ").append(Arrays.toString(program.getCode()));
+            sb.append("\nconstants ").append(Arrays.toString(program.getConstants()));
+            sb.append("\nstrings ").append(quote(Arrays.toString(program.getStrings())));
+            BananaSourceMap positions = program.getSourceMap();
+            sb.append("\npositions");
+            for (int i = 0; i < positions.size(); i++) {
+                sb.append(' ').append(positions.line(i)).append(':').append(positions.column(i));
+            }
+        } catch (BananaCompileException e) {
+            return "error " + e.getMessage();
+        } catch (IOException | RuntimeException e) {
+            sb.append("crashed ").append(e);
+        } finally {
+            System.setOut(out);
+        }
+        return sb.append("\nwarnings ").append(quote(new String(printed.toByteArray(), StandardCharsets.UTF_8)))
+            .toString();
+    }
+
+    /**
+     * Runs a program in the reference mode or in the given one.
+     *
+     * @param mode the mode, ignored for the reference
+     * @param optimized false for the reference
+     */
+    private static Result run(BananaProgram program, Case c, BananaStack stack, Check mode, boolean optimized) {
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        byte[] inputBytes = c.getInput().getBytes(StandardCharsets.UTF_8);
+        BananaInput input = optimized && (mode == Check.BUFFERED || mode == Check.PREFETCH)
+            ? new BananaBufferedInput(new ByteArrayInputStream(inputBytes), mode == Check.PREFETCH)
+            : new ReaderInput(new StringReader(c.getInput()));
+        // A small threshold so output is flushed in the middle of runs too
+        BananaInterpreter interpreter = new BananaInterpreter(input, new BufferedOutput(printed, 7), stack);
+        interpreter.setTierUpThreshold(BananaInterpreter.NEVER_TIER_UP);
+        if (optimized) {
+            switch (mode) {
+                case CLOSURES:
+                    interpreter.setCompileToClosures(true);
+                    break;
+                case JIT:
+                    interpreter.setTierUpThreshold(0);
+                    break;
+                case TIER:
+                    interpreter.setTierUpThreshold(c.tierUpThreshold);
+                    break;
+                case STATS:
+                    interpreter.setStats(new BananaStats());
+                    break;
+                case PROFILER:
+                    interpreter.setProfiler(new BananaProfiler(program, "fuzz"));
+                    break;
+                case BUDGET: {
+                    BananaBudget budget = new BananaBudget();
+                    budget.setMaxInstructions(Long.MAX_VALUE - 1);
+                    budget.setMaxStackSize(Integer.MAX_VALUE);
+                    budget.setMaxOutputBytes(Long.MAX_VALUE - 1);
+                    interpreter.setBudget(budget);
+                    break;
+                }
+                default:
+                    break;
+            }
+        }
+        String crash = "";
+        try {
+            interpreter.run(program);
+        } catch (RuntimeException e) {
+            crash = "\ncrashed " + e;
+        }
+        return new Result(new String(printed.toByteArray(), StandardCharsets.UTF_8) + crash,
+            stack.toArray(), interpreter.getStopReason());
+    }
+
+    /**
+     * Shrinks a mismatch: first whole runs of tokens, then single ones, then
+     * input lines, as long as the same check still fails.
+     */
+    private Mismatch shrink(Mismatch mismatch) {
+        Set<Check> only = EnumSet.of(mismatch.check);
+        Mismatch[] smallest = { mismatch };
+        Predicate<Case> fails = c -> {
+            Mismatch m = check(c, only);
+            if (m != null) {
+                smallest[0] = m;
+            }
+            return m != null;
+        };
+        Case c = mismatch.failing;
+        Case shrunk = c.with(shrinkList(c.program, p -> fails.test(c.with(p, c.input))), c.input);
+        shrinkList(shrunk.input, in -> fails.test(shrunk.with(shrunk.program, in)));
+        return smallest[0];
+    }
+
+    private static List<String> shrinkList(List<String> items, Predicate<List<String>> fails) {
+        int chunk = Math.max(1, items.size() / 2);
+        while (true) {
+            boolean removed = false;
+            for (int start = 0; start < items.size(); ) {
+                List<String> candidate = new ArrayList<>(items.subList(0, start));
+                candidate.addAll(items.subList(Math.min(start + chunk, items.size()), items.size()));
+                if (fails.test(candidate)) {
+                    items = candidate;
+                    removed = true;
+                } else {
+                    start += chunk;
+                }
+            }
+            if (!removed) {
+                if (chunk == 1) {
+                    return items;
+                }
+                chunk /= 2;
+            }
+        }
+    }
+
+    private static String quote(String text) {
+        return "\"" + text.replace("\\", "\\\\").replace("\r", "\\r").replace("\n", "\\n").replace("\t", "\\t") + "\"";
+    }
+
+    /**
+     * Fuzzes from the command line:
+     * {@code [--seed n] [--cases n] [--max-tokens n] [--checks a,b,...] [--out dir]}.
+     * With --out, a mismatch is also written there as a program and its input.
+     * Exits with status 1 on a mismatch.
+     *
+     * @param args the options
+     * @throws IOException if the reproducer cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        long seed = 1;
+        int cases = 1000;
+        String out = null;
+        DifferentialFuzzer fuzzer;
+        try {
+            int maxTokens = -1;
+            Set<Check> checks = null;
+            for (int i = 0; i < args.length; i++) {
+                boolean hasValue = i + 1 < args.length;
+                if (args[i].equals("--seed") && hasValue) {
+                    seed = Long.parseLong(args[++i]);
+                } else if (args[i].equals("--cases") && hasValue) {
+                    cases = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--max-tokens") && hasValue) {
+                    maxTokens = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--checks") && hasValue) {
+                    checks = EnumSet.noneOf(Check.class);
+                    for (String name : args[++i].split(",")) {
+                        checks.add(Check.of(name.trim()));
+                    }
+                } else if (args[i].equals("--out") && hasValue) {
+                    out = args[++i];
+                } else {
+                    System.out.println("🍌 Usage: java bananalang.DifferentialFuzzer [--seed n] [--cases n]");
+                    System.out.println("          [--max-tokens n] [--checks a,b,...] [--out dir]");
+                    System.out.println("   Checks: " + Arrays.toString(Check.values()));
+                    return;
+                }
+            }
+            fuzzer = new DifferentialFuzzer(seed);
+            if (maxTokens >= 0) {
+                fuzzer.setMaxTokens(maxTokens);
+            }
+            if (checks != null) {
+                fuzzer.setChecks(checks);
+            }
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException included
+            System.err.println("🚫 Error: " + e.getMessage());
+            return;
+        }
+
+        Mismatch mismatch = fuzzer.run(cases);
+        if (mismatch == null) {
+            System.out.println("🍌 " + cases + " cases, no mismatches (seed " + seed + ")");
+            return;
+        }
+        System.out.println("🚫 " + mismatch + System.lineSeparator() + "Seed: " + seed);
+        if (out != null) {
+            Path directory = Paths.get(out);
+            Files.createDirectories(directory);
+            String name = "mismatch-" + seed + "-" + mismatch.failing.number;
+            Files.write(directory.resolve(name + ".nana"), mismatch.failing.getSource().getBytes(StandardCharsets.UTF_8));
+            Files.write(directory.resolve(name + ".in"), mismatch.failing.getInput().getBytes(StandardCharsets.UTF_8));
+            System.out.println("🍌 Wrote " + directory.resolve(name + ".nana"));
+        }
+        System.exit(1);
+    }
+}
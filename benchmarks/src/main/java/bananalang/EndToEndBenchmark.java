@@ -0,0 +1,32 @@
+package bananalang;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures what the command line does for an uncached program: stream the
+ * file through the preprocessor, parser and compiler, then run it.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EndToEndBenchmark {
+
+    @Benchmark
+    public BananaStack endToEnd(BenchmarkProgram state) throws IOException {
+        BananaProgram program = new BananaCompiler().compile(state.file);
+        BananaInterpreter interpreter = state.newInterpreter();
+        interpreter.run(program);
+        return interpreter.getStack();
+    }
+}
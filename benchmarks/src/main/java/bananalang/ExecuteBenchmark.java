@@ -0,0 +1,46 @@
+package bananalang;
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures running a compiled program on each execution tier, with a fresh
+ * interpreter and scripted input every time.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecuteBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Settings {
+        /**
+         * "interpreter" never compiles, "closures" runs linked nodes and
+         * "bytecode" compiles before the first run and reuses the class.
+         */
+        @Param({"interpreter", "closures", "bytecode"})
+        public String tier;
+    }
+
+    @Benchmark
+    public BananaStack execute(BenchmarkProgram state, Settings settings) {
+        BananaInterpreter interpreter = state.newInterpreter();
+        interpreter.setCompileToClosures(settings.tier.equals("closures"));
+        interpreter.setTierUpThreshold(settings.tier.equals("bytecode") ? 0 : BananaInterpreter.NEVER_TIER_UP);
+        interpreter.run(state.compiled);
+        return interpreter.getStack();
+    }
+}
@@ -0,0 +1,394 @@
+package bananalang;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The original string-command parser and interpreter, kept as an oracle for
+ * {@link DifferentialFuzzer}: code is split on whitespace, literals are
+ * decoded through strings and {@link Integer#parseInt(String, int)}, and
+ * commands are interpreted on an {@code ArrayList<Double>}, as before any of
+ * the engines existed.
+ *
+ * <p>Only the language changes made on purpose since then are applied, each
+ * marked where it happens:
+ * <ul>
+ * <li>Malformed index and double literals, a ︶ without an EQUALS and an
+ *     EQUALS without a ︶ are rejected before running instead of crashing
+ *     or being ignored.</li>
+ * <li>EQUALS with fewer than two values reports an error and skips its
+ *     block instead of throwing.</li>
+ * <li>A failed EQUALS skips to its own ︶, counting nested blocks from the
+ *     first command of the block. The original took the first command
+ *     without looking at it, so a block starting with EQUALS ended at the
+ *     inner block's ︶.</li>
+ * <li>An invalid input line reports an error and the next line is read; at
+ *     the end of input the run ends with an error.</li>
+ * <li>PRINTC prints a code point, and '?' for invalid ones, instead of the
+ *     value cut to a 16-bit char.</li>
+ * </ul>
+ */
+final class ReferenceInterpreter {
+
+    /**
+     * Thrown by {@link #parse(String)} for code the compiler rejects.
+     */
+    static final class Rejected extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Rejected(String message) {
+            super(message);
+        }
+    }
+
+    private final BananaInput input;
+    private final BananaOutput output;
+    private final List<Double> list = new ArrayList<>();
+
+    /**
+     * Creates an interpreter.
+     *
+     * @param input where PUSH_INPUT reads lines from
+     * @param output where output, errors and warnings go
+     */
+    ReferenceInterpreter(BananaInput input, BananaOutput output) {
+        this.input = input;
+        this.output = output;
+    }
+
+    /**
+     * Returns the list as the last run left it.
+     */
+    double[] getList() {
+        double[] values = new double[list.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = list.get(i);
+        }
+        return values;
+    }
+
+    /**
+     * Parses code into commands, printing a warning for each unknown token.
+     *
+     * @throws Rejected if the code has a malformed literal or an unbalanced block
+     */
+    List<String> parse(String code) {
+        List<String> commands = new ArrayList<String>();
+        String[] tokens = code.split("\\s+");
+
+        for (int i = 0; i < tokens.length; i++) {
+            String token = tokens[i];
+            if (token.trim().isEmpty()) {
+                continue;
+            }
+            switch (token) {
+                case "🍌":
+                    if (i + 1 < tokens.length) {
+                        String nextToken = tokens[i + 1];
+
+                        if (nextToken.equals("🍌🍌🍌")) {
+                            commands.add("PUSH_INPUT");
+                            i++;
+                            break;
+                        }
+
+                        if (nextToken.startsWith("🙉")) {
+                            StringBuilder binaryString = new StringBuilder();
+                            for (int j = 1; j < nextToken.length(); ) {
+                                int codePoint = nextToken.codePointAt(j);
+                                String emoji = new String(Character.toChars(codePoint));
+                                if (emoji.equals("🍌")) {
+                                    binaryString.append('1');
+                                } else if (emoji.equals("🌙")) {
+                                    binaryString.append('0');
+                                }
+                                j += Character.charCount(codePoint);
+                            }
+                            int index;
+                            try {
+                                index = Integer.parseInt(binaryString.toString(), 2);
+                            } catch (NumberFormatException e) {
+                                // Was an uncaught exception
+                                throw new Rejected("Malformed index literal " + nextToken);
+                            }
+                            i++;
+                            commands.add("PUSH_FROM_INDEX");
+                            commands.add(String.valueOf(index));
+                            break;
+                        }
+
+                        double number = 1;
+                        int j = 6;
+                        boolean negative = false;
+                        try {
+                            if (nextToken.startsWith("🌙🌙")) {
+                                if (nextToken.startsWith("🌙🌙🍌")) {
+                                    negative = true;
+                                }
+                                int x = 0;
+                                StringBuilder binaryString = new StringBuilder();
+                                String[] numberHalves = { "", "" };
+                                while (j < nextToken.length()) {
+                                    int codePoint = nextToken.codePointAt(j);
+                                    String emoji = new String(Character.toChars(codePoint));
+                                    if (emoji.equals("🍌")) {
+                                        binaryString.append('1');
+                                    } else if (emoji.equals("🌙")) {
+                                        binaryString.append('0');
+                                    } else if (emoji.equals("🐒")) {
+                                        if (x == 1) {
+                                            // Was an uncaught ArrayIndexOutOfBoundsException
+                                            throw new Rejected("Malformed number literal " + nextToken);
+                                        }
+                                        numberHalves[x] += binaryString.toString();
+                                        binaryString = new StringBuilder();
+                                        x++;
+                                    }
+                                    j += Character.charCount(codePoint);
+                                }
+                                numberHalves[x] += binaryString.toString();
+                                StringBuilder doubleString = new StringBuilder(Integer.parseInt(numberHalves[0], 2) + ".");
+                                while (numberHalves[1].startsWith("0")) {
+                                    doubleString.append("0");
+                                    numberHalves[1] = numberHalves[1].substring(1);
+                                }
+                                doubleString.append(Integer.parseInt(numberHalves[1], 2));
+                                number = Double.parseDouble(doubleString.toString());
+                                if (negative) {
+                                    number *= -1;
+                                }
+                                i++;
+                            } else if (nextToken.startsWith("🌙")) {
+                                if (nextToken.startsWith("🌙🍌")) {
+                                    negative = true;
+                                }
+                                StringBuilder binaryString = new StringBuilder();
+                                for (j = 2; j < nextToken.length(); ) {
+                                    int codePoint = nextToken.codePointAt(j);
+                                    String emoji = new String(Character.toChars(codePoint));
+                                    if (emoji.equals("🍌")) {
+                                        binaryString.append('1');
+                                    } else if (emoji.equals("🌙")) {
+                                        binaryString.append('0');
+                                    }
+                                    j += Character.charCount(codePoint);
+                                }
+                                number = Integer.parseInt(binaryString.toString(), 2);
+                                if (negative) {
+                                    number *= -1;
+                                }
+                                i++;
+                            }
+                            commands.add("PUSH_ONE");
+                            commands.add(String.valueOf((double) number));
+                            break;
+                        } catch (NumberFormatException e) {
+                            // Not a number, push 1 as default
+                            commands.add("PUSH_ONE");
+                            commands.add("1");
+                            break;
+                        }
+                    } else {
+                        commands.add("PUSH_ONE");
+                        commands.add("1");
+                    }
+                    break;
+                case "🍌🍌":
+                    commands.add("ADD");
+                    break;
+                case "🍌🍂":
+                    commands.add("SUBTRACT");
+                    break;
+                case "🍌🌴":
+                    commands.add("MULTIPLY");
+                    break;
+                case "🍌🪾":
+                    commands.add("DIVIDE");
+                    break;
+                case "🍌❄️":
+                    commands.add("MODULUS");
+                    break;
+                case "🍌🙈":
+                    commands.add("PRINT");
+                    break;
+                case "🍌🙉":
+                    commands.add("PRINTC");
+                    break;
+                case "🍌🍌🍌🍌🍌":
+                    commands.add("CLEAR");
+                    break;
+                case "🍌❓":
+                    commands.add("EQUALS");
+                    break;
+                case "︶":
+                    commands.add("︶");
+                    break;
+                default:
+                    output.print("⚠️ Unknown token: " + token + System.lineSeparator());
+            }
+        }
+
+        // Unbalanced blocks were only noticed if a skip ran into them
+        int open = 0;
+        for (String command : commands) {
+            if (command.equals("EQUALS")) {
+                open++;
+            } else if (command.equals("︶") && --open < 0) {
+                throw new Rejected("︶ without a matching EQUALS");
+            }
+        }
+        if (open > 0) {
+            throw new Rejected("EQUALS without a matching ︶");
+        }
+        return commands;
+    }
+
+    /**
+     * Runs parsed commands.
+     */
+    void run(List<String> commands) {
+        Iterator<String> iterator = commands.iterator();
+        while (iterator.hasNext()) {
+            String cmd = iterator.next();
+
+            if (cmd.equals("PUSH_ONE")) {
+                list.add(Double.parseDouble(iterator.next()));
+                continue;
+            }
+
+            if (cmd.equals("PUSH_INPUT")) {
+                Double count = readInput();
+                if (count == null) {
+                    // Was a NoSuchElementException out of Scanner.nextLine()
+                    output.error("PUSH_INPUT: no more input");
+                    return;
+                }
+                list.add(count);
+                continue;
+            }
+
+            if (cmd.equals("PUSH_FROM_INDEX")) {
+                int index = Integer.parseInt(iterator.next());
+                if (index < 0 || index >= list.size()) {
+                    output.error("PUSH_FROM_INDEX: Index " + index
+                        + " is out of bounds (list size: " + list.size() + ")");
+                } else {
+                    list.add(list.get(index));
+                }
+                continue;
+            }
+
+            switch (cmd) {
+                case "ADD":
+                case "SUBTRACT":
+                case "MULTIPLY":
+                case "DIVIDE":
+                case "MODULUS": {
+                    if (list.size() < 2) {
+                        output.error(cmd + " needs 2 values!");
+                        break;
+                    }
+                    double b = list.remove(list.size() - 1);
+                    double a = list.remove(list.size() - 1);
+                    list.add(cmd.equals("ADD") ? a + b : cmd.equals("SUBTRACT") ? a - b
+                        : cmd.equals("MULTIPLY") ? a * b : cmd.equals("DIVIDE") ? a / b : a % b);
+                    break;
+                }
+
+                case "PRINT": {
+                    if (list.isEmpty()) {
+                        output.error("PRINT needs 1 value!");
+                        break;
+                    }
+                    if ((list.get(list.size() - 1) - Math.floor(list.get(list.size() - 1))) < 0.000000001) {
+                        output.print(String.valueOf(list.remove(list.size() - 1).intValue()));
+                    } else {
+                        output.print(String.valueOf(list.remove(list.size() - 1)));
+                    }
+                    break;
+                }
+
+                case "PRINTC": {
+                    if (list.isEmpty()) {
+                        output.error("PRINT needs 1 value!");
+                        break;
+                    }
+                    // Was (char) value: cut to 16 bits
+                    int codePoint = list.remove(list.size() - 1).intValue();
+                    output.print(Character.isValidCodePoint(codePoint)
+                        ? new String(Character.toChars(codePoint)) : "?");
+                    break;
+                }
+
+                case "CLEAR":
+                    list.clear();
+                    break;
+
+                case "EQUALS": {
+                    if (list.size() < 2) {
+                        // Was an IndexOutOfBoundsException
+                        output.error("EQUALS needs 2 values!");
+                        skipBlock(iterator);
+                        break;
+                    }
+                    double b = list.remove(list.size() - 1);
+                    double a = list.remove(list.size() - 1);
+                    if (a == b) {
+                        list.add(1.0);
+                    } else {
+                        list.add(b);
+                        skipBlock(iterator);
+                    }
+                    break;
+                }
+
+                case "︶":
+                    break;
+
+                default:
+                    throw new IllegalStateException("Unknown command: " + cmd);
+            }
+        }
+    }
+
+    /**
+     * Skips to just after the ︶ that closes the block just entered. The
+     * original started counting at the block's second command.
+     */
+    private static void skipBlock(Iterator<String> iterator) {
+        int depth = 1;
+        while (depth > 0) {
+            String cmd = iterator.next();
+            if (cmd.equals("EQUALS")) {
+                depth++;
+            } else if (cmd.equals("︶")) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Reads lines until one holds only 🍌 and returns how many it held, or
+     * null at the end of input.
+     */
+    private Double readInput() {
+        while (true) {
+            String line = input.readLine();
+            if (line == null) {
+                return null;
+            }
+            String processed = BananaPreprocessor.processInputString(line);
+            if (!processed.contains(" ")) {
+                double count = 0;
+                for (int i = 0; i < processed.length(); ) {
+                    count++;
+                    i += Character.charCount(processed.codePointAt(i));
+                }
+                return count;
+            }
+            // Was skipped without a word
+            output.error("Invalid input! Only 🍌 emojis are allowed.");
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package bananalang;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures parsing and running generated programs of growing size. Time per
+ * operation should grow in step with the size; where it grows faster, the
+ * parser or the interpreter stops scaling linearly.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class ScalingBenchmark {
+
+    /** Program size in UTF-8 bytes. */
+    @Param({"16384", "262144", "4194304", "67108864"})
+    public long size;
+
+    @Param({"1"})
+    public long seed;
+
+    private Path file;
+    private String preprocessed;
+    private BananaProgram program;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("scaling", ".nana");
+        new WorkloadGenerator(seed).generate(file, size);
+        preprocessed = BananaPreprocessor.processString(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        program = new BananaCompiler(null).compile(file.toFile());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public List<String> parse() {
+        return new BananaParser().parse(preprocessed);
+    }
+
+    @Benchmark
+    public BananaProgram compileFile() throws IOException {
+        return new BananaCompiler(null).compile(file.toFile());
+    }
+
+    @Benchmark
+    public BananaStack run() {
+        BananaInterpreter interpreter = new BananaInterpreter(new ReaderInput(new StringReader("")),
+            new BufferedOutput(OutputStream.nullOutputStream()));
+        interpreter.setTierUpThreshold(BananaInterpreter.NEVER_TIER_UP);
+        interpreter.run(program);
+        return interpreter.getStack();
+    }
+}
@@ -0,0 +1,437 @@
+package bananalang;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Generates valid Banana programs of a chosen size and instruction mix, for
+ * scale testing the parser and the execution tiers. The same seed and
+ * settings always produce the same program.
+ *
+ * <p>Programs are written as they are generated. Only the depth of each open
+ * EQUALS block is kept, so the size is limited by the disk, not the heap.
+ *
+ * <p>The generator tracks the list depth. Every instruction has the values
+ * it needs, and PUSH_FROM_INDEX indexes stay in bounds. Every EQUALS block
+ * ends at the depth it started with, so depths are the same whether a
+ * block runs or is skipped. Programs never read input and never report
+ * errors, so runs measure the engine and not the error path.
+ */
+public final class WorkloadGenerator {
+
+    private static final String BANANA = "🍌";
+    private static final String MOON = "🌙";
+    private static final String MONKEY = "🐒";
+    private static final String HEAR_NO_EVIL = "🙉";
+    private static final String[] ARITHMETIC = {"🍌🍌", "🍌🍂", "🍌🌴", "🍌🪾", "🍌❄️"};
+    private static final String PRINT = "🍌🙈";
+    private static final String PRINTC = "🍌🙉";
+    private static final String CLEAR = "🍌🍌🍌🍌🍌";
+    private static final String EQUALS = "🍌❓";
+    private static final String CLOSE = "︶";
+
+    /** Deepest the list grows before the generator starts taking values off. */
+    private static final int MAX_DEPTH = 64;
+    /** Most steps an EQUALS block runs for before it is closed. */
+    private static final int MAX_BLOCK_STEPS = 16;
+
+    private final long seed;
+    private double literalDensity = 0.4;
+    private double doubleRatio = 0.2;
+    private int maxNesting = 4;
+    private int indexSpread = 8;
+    private double printcRatio = 0.5;
+
+    // State of the program being generated
+    private Random random;
+    private Writer out;
+    private long bytes;
+    private long instructions;
+    private int depth;
+    // Depth at the start of each open block, and steps left before it closes
+    private int[] blockDepths;
+    private int[] blockSteps;
+    private int nesting;
+
+    /**
+     * Creates a generator.
+     *
+     * @param seed the seed every choice is drawn from
+     */
+    public WorkloadGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Sets the share of instructions that push a number literal.
+     *
+     * @param literalDensity a share from 0 to 1; defaults to 0.4
+     */
+    public void setLiteralDensity(double literalDensity) {
+        this.literalDensity = share(literalDensity, "literal density");
+    }
+
+    /**
+     * Sets the share of number literals written as doubles instead of ints.
+     *
+     * @param doubleRatio a share from 0 to 1; defaults to 0.2
+     */
+    public void setDoubleRatio(double doubleRatio) {
+        this.doubleRatio = share(doubleRatio, "double ratio");
+    }
+
+    /**
+     * Sets how deeply EQUALS blocks may nest; 0 writes no EQUALS.
+     *
+     * @param maxNesting the nesting depth; defaults to 4
+     */
+    public void setMaxNesting(int maxNesting) {
+        if (maxNesting < 0) {
+            throw new IllegalArgumentException("Max nesting must not be negative: " + maxNesting);
+        }
+        this.maxNesting = maxNesting;
+    }
+
+    /**
+     * Sets how far below the top of the list PUSH_FROM_INDEX reaches.
+     *
+     * @param indexSpread the number of top elements indexed; 0 writes no
+     *     PUSH_FROM_INDEX; defaults to 8
+     */
+    public void setIndexSpread(int indexSpread) {
+        if (indexSpread < 0) {
+            throw new IllegalArgumentException("Index spread must not be negative: " + indexSpread);
+        }
+        this.indexSpread = indexSpread;
+    }
+
+    /**
+     * Sets the share of prints that print a character rather than a number.
+     *
+     * @param printcRatio a share from 0 to 1; defaults to 0.5
+     */
+    public void setPrintcRatio(double printcRatio) {
+        this.printcRatio = share(printcRatio, "PRINTC ratio");
+    }
+
+    /**
+     * Writes a program to a file.
+     *
+     * @param file the file to write
+     * @param size the size to reach in UTF-8 bytes; the program ends a little
+     *     past it, once its open blocks are closed
+     * @return the number of instructions written
+     * @throws IOException if the file cannot be written
+     */
+    public long generate(Path file, long size) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            return generate(writer, size);
+        }
+    }
+
+    /**
+     * Writes a program.
+     *
+     * @param writer where the program goes
+     * @param size the size to reach in UTF-8 bytes; the program ends a little
+     *     past it, once its open blocks are closed
+     * @return the number of instructions written
+     * @throws IOException if the program cannot be written
+     */
+    public long generate(Writer writer, long size) throws IOException {
+        random = new Random(seed);
+        out = writer;
+        bytes = 0;
+        instructions = 0;
+        depth = 0;
+        blockDepths = new int[maxNesting];
+        blockSteps = new int[maxNesting];
+        nesting = 0;
+        try {
+            while (bytes < size) {
+                step();
+            }
+            while (nesting > 0) {
+                closeBlock();
+            }
+            return instructions;
+        } finally {
+            random = null;
+            out = null;
+            blockDepths = null;
+            blockSteps = null;
+        }
+    }
+
+    /**
+     * Writes one instruction, or a short group that keeps the list valid.
+     */
+    private void step() throws IOException {
+        if (nesting > 0 && --blockSteps[nesting - 1] < 0) {
+            closeBlock();
+            return;
+        }
+        if (random.nextDouble() < literalDensity || depth == 0) {
+            pushLiteral();
+            return;
+        }
+        int choice = random.nextInt(100);
+        if (depth > MAX_DEPTH) {
+            if (nesting == 0 && choice < 10) {
+                instruction(CLEAR);
+                depth = 0;
+            } else {
+                arithmetic();
+            }
+        } else if (choice < 15 && indexSpread > 0) {
+            pushFromIndex(depth - 1 - random.nextInt(Math.min(indexSpread, depth)));
+        } else if (choice < 55) {
+            if (depth >= 2) {
+                arithmetic();
+            } else {
+                pushLiteral();
+            }
+        } else if (choice < 80) {
+            print();
+        } else if (choice < 90 && nesting < maxNesting && depth >= 2) {
+            openBlock();
+        } else {
+            pushLiteral();
+        }
+    }
+
+    private void pushLiteral() throws IOException {
+        if (random.nextDouble() < doubleRatio) {
+            pushDouble(random.nextBoolean(), random.nextInt(1 << 12), random.nextInt(3), 1 + random.nextInt(1 << 10));
+        } else {
+            pushInt(random.nextInt(1 << 16) - (1 << 15));
+        }
+    }
+
+    private void arithmetic() throws IOException {
+        instruction(ARITHMETIC[random.nextInt(ARITHMETIC.length)]);
+        depth--;
+    }
+
+    private void print() throws IOException {
+        if (random.nextDouble() < printcRatio) {
+            // A printable ASCII character, pushed and printed right away
+            pushInt(' ' + random.nextInt(95));
+            instruction(PRINTC);
+        } else {
+            instruction(PRINT);
+        }
+        depth--;
+    }
+
+    private void openBlock() throws IOException {
+        if (random.nextBoolean()) {
+            // Duplicate the top so the values are equal and the block runs
+            pushFromIndex(depth - 1);
+        }
+        instruction(EQUALS);
+        // Equal or not, EQUALS leaves one value where there were two
+        depth--;
+        blockDepths[nesting] = depth;
+        blockSteps[nesting++] = 1 + random.nextInt(MAX_BLOCK_STEPS);
+    }
+
+    private void closeBlock() throws IOException {
+        int blockDepth = blockDepths[nesting - 1];
+        while (depth > blockDepth) {
+            if (depth - 1 > blockDepth) {
+                arithmetic();
+            } else {
+                instruction(PRINT);
+                depth--;
+            }
+        }
+        while (depth < blockDepth) {
+            pushLiteral();
+        }
+        nesting--;
+        instruction(CLOSE);
+    }
+
+    private void pushInt(int value) throws IOException {
+        StringBuilder token = new StringBuilder(BANANA).append(' ').append(MOON);
+        if (value >= 0) {
+            // 🐒 marks a positive number
+            token.append(MONKEY);
+        }
+        // Otherwise the leading 🍌 of the digits doubles as the minus sign
+        binary(token, Math.abs(value));
+        instruction(token.toString());
+        depth++;
+    }
+
+    private void pushDouble(boolean negative, int whole, int zeros, int fraction) throws IOException {
+        StringBuilder token = new StringBuilder(BANANA).append(' ').append(MOON).append(MOON)
+            .append(negative ? BANANA : MONKEY);
+        binary(token, whole).append(MONKEY);
+        for (int i = 0; i < zeros; i++) {
+            token.append(MOON);
+        }
+        binary(token, fraction);
+        instruction(token.toString());
+        depth++;
+    }
+
+    private void pushFromIndex(int index) throws IOException {
+        StringBuilder token = new StringBuilder(BANANA).append(' ').append(HEAR_NO_EVIL);
+        binary(token, index);
+        instruction(token.toString());
+        depth++;
+    }
+
+    private static StringBuilder binary(StringBuilder token, int value) {
+        if (value == 0) {
+            return token.append(MOON);
+        }
+        for (int bit = 31 - Integer.numberOfLeadingZeros(value); bit >= 0; bit--) {
+            token.append((value >> bit & 1) == 1 ? BANANA : MOON);
+        }
+        return token;
+    }
+
+    /**
+     * Writes one instruction on its own line, indented by block nesting.
+     */
+    private void instruction(String text) throws IOException {
+        for (int i = 0; i < nesting; i++) {
+            out.write("  ");
+        }
+        out.write(text);
+        out.write('\n');
+        bytes += 2L * nesting + utf8Length(text) + 1;
+        instructions++;
+    }
+
+    private static int utf8Length(String text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static double share(double value, String name) {
+        if (!(value >= 0 && value <= 1)) {
+            throw new IllegalArgumentException("The " + name + " must be between 0 and 1: " + value);
+        }
+        return value;
+    }
+
+    /**
+     * Writes a program from the command line:
+     * {@code [--seed n] [--size n[k|m|g]] [--literal-density x] [--double-ratio x]
+     * [--max-nesting n] [--index-spread n] [--printc-ratio x] <file | ->}.
+     *
+     * @param args the options and the output file, or - for standard output
+     * @throws IOException if the program cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        long seed = 1;
+        long size = 1 << 20;
+        String file = null;
+        WorkloadGenerator generator;
+        double literalDensity = -1;
+        double doubleRatio = -1;
+        int maxNesting = -1;
+        int indexSpread = -1;
+        double printcRatio = -1;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                boolean hasValue = i + 1 < args.length;
+                if (args[i].equals("--seed") && hasValue) {
+                    seed = Long.parseLong(args[++i]);
+                } else if (args[i].equals("--size") && hasValue) {
+                    size = parseSize(args[++i]);
+                } else if (args[i].equals("--literal-density") && hasValue) {
+                    literalDensity = Double.parseDouble(args[++i]);
+                } else if (args[i].equals("--double-ratio") && hasValue) {
+                    doubleRatio = Double.parseDouble(args[++i]);
+                } else if (args[i].equals("--max-nesting") && hasValue) {
+                    maxNesting = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--index-spread") && hasValue) {
+                    indexSpread = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--printc-ratio") && hasValue) {
+                    printcRatio = Double.parseDouble(args[++i]);
+                } else if (file == null && !args[i].startsWith("--")) {
+                    file = args[i];
+                } else {
+                    // An unknown option, one without its value or a second file
+                    file = null;
+                    break;
+                }
+            }
+            generator = new WorkloadGenerator(seed);
+            if (literalDensity >= 0) {
+                generator.setLiteralDensity(literalDensity);
+            }
+            if (doubleRatio >= 0) {
+                generator.setDoubleRatio(doubleRatio);
+            }
+            if (maxNesting >= 0) {
+                generator.setMaxNesting(maxNesting);
+            }
+            if (indexSpread >= 0) {
+                generator.setIndexSpread(indexSpread);
+            }
+            if (printcRatio >= 0) {
+                generator.setPrintcRatio(printcRatio);
+            }
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException included
+            System.err.println("🚫 Error: " + e.getMessage());
+            return;
+        }
+        if (file == null) {
+            System.out.println("🍌 Usage: java bananalang.WorkloadGenerator [--seed n] [--size n[k|m|g]]");
+            System.out.println("          [--literal-density x] [--double-ratio x] [--max-nesting n]");
+            System.out.println("          [--index-spread n] [--printc-ratio x] <file.nana | ->");
+            return;
+        }
+
+        long count;
+        if (file.equals("-")) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+            count = generator.generate(writer, size);
+            writer.flush();
+        } else {
+            count = generator.generate(Paths.get(file), size);
+            System.err.println("🍌 Wrote " + count + " instructions to " + file);
+        }
+    }
+
+    private static long parseSize(String text) {
+        String lower = text.toLowerCase();
+        long unit = 1;
+        if (lower.endsWith("k")) {
+            unit = 1L << 10;
+        } else if (lower.endsWith("m")) {
+            unit = 1L << 20;
+        } else if (lower.endsWith("g")) {
+            unit = 1L << 30;
+        }
+        String digits = unit == 1 ? lower : lower.substring(0, lower.length() - 1);
+        return Long.parseLong(digits) * unit;
+    }
+}
@@ -0,0 +1,93 @@
+package bananalang;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Line splitting of buffered input: LF, CR and CRLF each end one line, with
+ * and without prefetch, however the bytes arrive.
+ */
+public class BananaBufferedInputTest {
+
+    private static final double INVALID = BananaInput.INVALID_LINE;
+    private static final double END = BananaInput.END_OF_INPUT;
+
+    /**
+     * Hands out one byte per read, so a CRLF is split over two reads.
+     */
+    private static final class Trickle extends FilterInputStream {
+        Trickle(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, 1));
+        }
+    }
+
+    private static InputStream stream(String text, boolean trickle) {
+        InputStream in = new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+        return trickle ? new Trickle(in) : in;
+    }
+
+    private static void assertCounts(String text, double... expected) throws IOException {
+        for (boolean prefetch : new boolean[] { false, true }) {
+            for (boolean trickle : new boolean[] { false, true }) {
+                try (BananaBufferedInput input = new BananaBufferedInput(stream(text, trickle), prefetch)) {
+                    for (double count : expected) {
+                        assertEquals(count, input.readBananas(), 0);
+                    }
+                    assertEquals(END, input.readBananas(), 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void splitsOnEveryLineTerminator() throws IOException {
+        assertCounts("🍌\n🍌🍌\n", 1, 2);
+        assertCounts("🍌\r\n🍌🍌\r\n", 1, 2);
+        assertCounts("🍌\r🍌🍌\r", 1, 2);
+        assertCounts("🍌\r🍌🍌\n🍌🍌🍌\r\n", 1, 2, 3);
+    }
+
+    @Test
+    public void keepsEmptyLines() throws IOException {
+        assertCounts("\r\n\n\r\r🍌", 0, 0, 0, 0, 1);
+        assertCounts("\n\r\n", 0, 0);
+        assertCounts("\r\r\n", 0, 0);
+    }
+
+    @Test
+    public void endsTheLastLineWithoutATerminator() throws IOException {
+        assertCounts("🍌🍌", 2);
+        assertCounts("");
+    }
+
+    @Test
+    public void reportsInvalidLines() throws IOException {
+        assertCounts("🍌 🍌\r\nx\r🍌", INVALID, INVALID, 1);
+        // Half a 🍌, then a line terminator
+        assertCounts("\uD83C\n🍌", INVALID, 1);
+    }
+
+    @Test
+    public void readsLinesWithoutTheirTerminators() throws IOException {
+        try (BananaBufferedInput input = new BananaBufferedInput(stream("a\r\nb\rc\n\r\n", true), false)) {
+            assertEquals("a", input.readLine());
+            assertEquals("b", input.readLine());
+            assertEquals("c", input.readLine());
+            assertEquals("", input.readLine());
+            assertNull(input.readLine());
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package bananalang;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Literal decoding: every literal must push what the original string-based
+ * parser pushed, including its quirks.
+ */
+public class BananaCompilerTest {
+
+    private final StringBuilder warnings = new StringBuilder();
+
+    private BananaProgram compile(String code) {
+        BananaCompiler compiler = new BananaCompiler(null);
+        compiler.setWarnings(warnings::append);
+        return compiler.compile(code);
+    }
+
+    private double[] constants(String code) {
+        return compile(code).getConstants();
+    }
+
+    private void assertRejected(String code) {
+        try {
+            compile(code);
+            fail("Expected a compile error for " + code);
+        } catch (BananaCompileException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void decodesIntegers() {
+        assertArrayEquals(new double[] { 2 }, constants("🍌 🌙🐒🍌🌙"), 0);
+        assertArrayEquals(new double[] { 0 }, constants("🍌 🌙🐒🌙🌙"), 0);
+        assertArrayEquals(new double[] { Integer.MAX_VALUE }, constants("🍌 🌙🐒" + "🍌".repeat(31)), 0);
+    }
+
+    @Test
+    public void readsTheSignOfANegativeIntegerAsADigit() {
+        // Digits start right after 🌙, so the 🍌 sign is also a leading 1
+        assertArrayEquals(new double[] { -6 }, constants("🍌 🌙🍌🍌🌙"), 0);
+        assertArrayEquals(new double[] { -1 }, constants("🍌 🌙🍌"), 0);
+    }
+
+    @Test
+    public void decodesDoubles() {
+        // Each half is a binary number written out in decimal: 1011 and 1010
+        assertArrayEquals(new double[] { 11.10 }, constants("🍌 🌙🌙🐒🍌🌙🍌🍌🐒🍌🌙🍌🌙"), 0);
+        assertArrayEquals(new double[] { -1.1 }, constants("🍌 🌙🌙🍌🍌🐒🍌"), 0);
+        // Leading zeros of the fraction are kept
+        assertArrayEquals(new double[] { 1.001 }, constants("🍌 🌙🌙🐒🍌🐒🌙🌙🍌"), 0);
+        // A 🌙 sign is positive, like 🐒
+        assertArrayEquals(new double[] { 3.5 }, constants("🍌 🌙🌙🌙🍌🍌🐒🍌🌙🍌"), 0);
+    }
+
+    @Test
+    public void roundsLongDoublesLikeParseDouble() {
+        String ones = "🍌".repeat(31);
+        assertArrayEquals(new double[] { Double.parseDouble("2147483647.002147483647") },
+            constants("🍌 🌙🌙🐒" + ones + "🐒🌙🌙" + ones), 0);
+    }
+
+    @Test
+    public void pushesOneForLiteralsThatAreNotNumbers() {
+        // The literal is not consumed, so it is warned about as a token
+        assertArrayEquals(new double[] { 1 }, constants("🍌 🌙🌙🐒🍌🐒"), 0);
+        assertEquals("⚠️ Unknown token: 🌙🌙🐒🍌🐒" + System.lineSeparator(), warnings.toString());
+
+        warnings.setLength(0);
+        assertArrayEquals(new double[] { 1 }, constants("🍌 🌙🐒" + "🍌".repeat(32)), 0);
+        assertEquals("⚠️ Unknown token: 🌙🐒" + "🍌".repeat(32) + System.lineSeparator(), warnings.toString());
+
+        warnings.setLength(0);
+        int push = BananaOpcodes.PUSH;
+        assertArrayEquals(new int[] { push, 0, BananaOpcodes.PRINT, push, 0 }, compile("🍌 🍌🙈 🍌").getCode());
+        assertEquals("", warnings.toString());
+    }
+
+    @Test
+    public void decodesIndexesAndInput() {
+        assertArrayEquals(new int[] { BananaOpcodes.PUSH_FROM_INDEX, 2 }, compile("🍌 🙉🍌🌙").getCode());
+        assertArrayEquals(new int[] { BananaOpcodes.PUSH_INPUT }, compile("🍌 🍌🍌🍌").getCode());
+    }
+
+    @Test
+    public void rejectsMalformedLiterals() {
+        assertRejected("🍌 🙉");
+        assertRejected("🍌 🙉🐒");
+        assertRejected("🍌 🙉" + "🍌".repeat(32));
+        assertRejected("🍌 🌙🌙🐒🍌🐒🍌🐒🍌");
+    }
+}
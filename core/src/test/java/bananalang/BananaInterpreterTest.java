@@ -0,0 +1,87 @@
+package bananalang;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * EQUALS blocks: a failed comparison skips to the ︶ that closes its own
+ * block, in every engine.
+ */
+public class BananaInterpreterTest {
+
+    private static final String ONE = "🍌 🌙🐒🍌 ";
+    private static final String TWO = "🍌 🌙🐒🍌🌙 ";
+    private static final String NEEDS_2 = "🚫 Error: EQUALS needs 2 values!" + System.lineSeparator();
+
+    /**
+     * Runs code on the interpreter, on closures and as bytecode, checks that
+     * they agree and returns what they printed.
+     */
+    private static String run(String code) {
+        BananaProgram program = new BananaCompiler(null).compile(code);
+        String printed = null;
+        for (int engine = 0; engine < 3; engine++) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            BufferedOutput output = new BufferedOutput(bytes);
+            BananaInterpreter interpreter = new BananaInterpreter(new ReaderInput(new StringReader("")), output);
+            interpreter.setTierUpThreshold(engine == 2 ? 0 : BananaInterpreter.NEVER_TIER_UP);
+            interpreter.setCompileToClosures(engine == 1);
+            interpreter.run(program);
+            output.flush();
+            String text = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+            if (printed != null) {
+                assertEquals("Engine " + engine, printed, text);
+            }
+            printed = text;
+        }
+        return printed;
+    }
+
+    private static void assertRejected(String code) {
+        try {
+            new BananaCompiler(null).compile(code);
+            fail("Expected a compile error for " + code);
+        } catch (BananaCompileException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void failedEqualsSkipsNestedBlocks() {
+        // The 🍌 before 🍌❓ pushes 1. The outer block fails and is skipped
+        // whole; the original skip ended at the inner ︶ and ran the first PRINT.
+        assertEquals("1", run(TWO + "🍌\n🍌❓\n🍌❓\n︶\n🍌🙈\n︶\n🍌🙈"));
+    }
+
+    @Test
+    public void failedInnerEqualsResumesInTheOuterBlock() {
+        // Outer 1 == 1 pushes 1; inner 1 != 2 keeps the 2 and skips its PRINT
+        assertEquals("2", run(ONE + ONE + "🍌❓ " + TWO + "🍌❓ 🍌🙈 ︶ 🍌🙈 ︶"));
+        assertEquals("11", run(ONE + ONE + "🍌❓ " + ONE + ONE + "🍌❓ 🍌🙈 ︶ 🍌🙈 ︶"));
+    }
+
+    @Test
+    public void closeDoesNothingWhenReached() {
+        assertEquals("1", run(ONE + ONE + "🍌❓ ︶ 🍌🙈"));
+    }
+
+    @Test
+    public void equalsWithoutTwoValuesSkipsItsBlock() {
+        assertEquals(NEEDS_2 + "1", run(ONE + "🍌❓ 🍌🙈 🍌❓ ︶ 🍌🙈 ︶ 🍌🙈"));
+        assertEquals(NEEDS_2, run("🍌❓ " + ONE + "🍌🙈 ︶"));
+    }
+
+    @Test
+    public void rejectsUnbalancedBlocks() {
+        // The original ran this and ignored the stray ︶
+        assertRejected(ONE + ONE + "🍌❓ ︶ ︶ 🍌🙈");
+        assertRejected(ONE + ONE + "🍌❓ 🍌❓ ︶");
+        assertRejected("︶");
+    }
+}
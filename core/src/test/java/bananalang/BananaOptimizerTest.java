@@ -0,0 +1,106 @@
+package bananalang;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Optimizer windows around EQUALS targets: a rewrite may start at a target
+ * but never reach past one, and every program prints what it printed
+ * unoptimized.
+ */
+public class BananaOptimizerTest {
+
+    private static final String ONE = "🍌 🌙🐒🍌 ";
+    private static final String TWO = "🍌 🌙🐒🍌🌙 ";
+    private static final String THREE = "🍌 🌙🐒🍌🍌 ";
+    private static final String SEVEN = "🍌 🌙🐒🍌🍌🍌 ";
+
+    private static BananaProgram compile(String code, boolean optimize) {
+        return new BananaCompiler(optimize ? new BananaOptimizer() : null).compile(code);
+    }
+
+    private static String run(BananaProgram program) {
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        BufferedOutput output = new BufferedOutput(printed);
+        BananaInterpreter interpreter = new BananaInterpreter(new ReaderInput(new StringReader("")), output);
+        interpreter.setTierUpThreshold(BananaInterpreter.NEVER_TIER_UP);
+        interpreter.run(program);
+        output.flush();
+        return new String(printed.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Checks that the optimized program prints the expected output, as the
+     * original does, and returns it.
+     */
+    private static BananaProgram optimized(String code, String expected) {
+        assertEquals(expected, run(compile(code, false)));
+        BananaProgram program = compile(code, true);
+        assertEquals(expected, run(program));
+        return program;
+    }
+
+    @Test
+    public void foldsConstantArithmeticAndPrints() {
+        BananaProgram program = optimized(ONE + TWO + "🍌🍌 🍌🙈", "3");
+        assertArrayEquals(new int[] { BananaOpcodes.PRINT_STRING, 0 }, program.getCode());
+        assertArrayEquals(new String[] { "3" }, program.getStrings());
+    }
+
+    @Test
+    public void foldsAWindowThatStartsAtATarget() {
+        // The failed EQUALS jumps to the PUSH 3, which still folds with what follows
+        BananaProgram program = optimized(ONE + TWO + "🍌❓ 🍌🙈 ︶ " + THREE + SEVEN + "🍌🍌 🍌🙈", "10");
+        int[] code = program.getCode();
+        assertEquals(BananaOpcodes.EQUALS, code[4]);
+        assertEquals(BananaOpcodes.PRINT, code[6]);
+        assertEquals(7, code[5]);
+        assertArrayEquals(new int[] { BananaOpcodes.PRINT_STRING, 0 }, new int[] { code[7], code[8] });
+        assertEquals(9, code.length);
+    }
+
+    @Test
+    public void doesNotFoldAcrossATarget() {
+        // PUSH 3 is inside the block, PUSH 7 is where the failed EQUALS lands
+        String block = "🍌❓ " + THREE + "︶ " + SEVEN + "🍌🍌 🍌🙈";
+        BananaProgram program = optimized(ONE + TWO + block, "9");
+        optimized(TWO + TWO + block, "10");
+        assertEquals(BananaOpcodes.ADD, program.getCode()[program.getCode().length - 2]);
+    }
+
+    @Test
+    public void doesNotPrintAcrossATarget() {
+        // The PRINT is the target; what it prints depends on the branch taken
+        String block = "🍌❓ " + THREE + "︶ 🍌🙈";
+        BananaProgram program = optimized(ONE + TWO + block, "2");
+        optimized(TWO + TWO + block, "3");
+        assertEquals(BananaOpcodes.PRINT, program.getCode()[program.getCode().length - 1]);
+    }
+
+    @Test
+    public void clearDropsPushesBackToATarget() {
+        // PUSH 3 is the target: it is dropped and the CLEAR becomes the target
+        BananaProgram program = optimized(ONE + TWO + "🍌❓ ︶ " + THREE + "🍌🍌🍌🍌🍌 " + ONE + "🍌🙈", "1");
+        int[] code = program.getCode();
+        assertEquals(BananaOpcodes.EQUALS, code[4]);
+        assertEquals(6, code[5]);
+        assertEquals(BananaOpcodes.CLEAR, code[6]);
+    }
+
+    @Test
+    public void clearKeepsPushesInsideABlockItEnds() {
+        // The CLEAR is the target, so the PUSH 3 before it stays
+        BananaProgram program = optimized(ONE + TWO + "🍌❓ " + THREE + "︶ 🍌🍌🍌🍌🍌 " + ONE + "🍌🙈", "1");
+        int[] code = program.getCode();
+        assertEquals(BananaOpcodes.PUSH, code[6]);
+        assertEquals(3, program.getConstants()[code[7]], 0);
+        assertEquals(BananaOpcodes.CLEAR, code[8]);
+        assertEquals(8, code[5]);
+    }
+}
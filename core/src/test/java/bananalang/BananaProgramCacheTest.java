@@ -0,0 +1,54 @@
+package bananalang;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Validation of code read back from cache entries.
+ */
+public class BananaProgramCacheTest {
+
+    private static final int PUSH = BananaOpcodes.PUSH;
+    private static final int EQUALS = BananaOpcodes.EQUALS;
+
+    @Test
+    public void acceptsCompiledPrograms() {
+        BananaProgram program = new BananaCompiler(new BananaOptimizer())
+            .compile("🍌 🌙🐒🍌 🍌 🙉🌙 🍌❓ 🍌 🌙🐒🍌🍌 🍌🙉 🍌 🍌🍌🍌 🍌🙈 ︶ 🍌🙈");
+        assertTrue(BananaProgramCache.isValid(program.getCode(), program.getConstants().length,
+            program.getStrings().length));
+        assertTrue(BananaProgramCache.isValid(new int[0], 0, 0));
+    }
+
+    @Test
+    public void rejectsUnknownOpcodesAndCutOperands() {
+        assertFalse(BananaProgramCache.isValid(new int[] { 99 }, 0, 0));
+        assertFalse(BananaProgramCache.isValid(new int[] { -1 }, 0, 0));
+        assertFalse(BananaProgramCache.isValid(new int[] { PUSH }, 1, 0));
+        assertFalse(BananaProgramCache.isValid(new int[] { BananaOpcodes.ADD, EQUALS }, 0, 0));
+    }
+
+    @Test
+    public void rejectsPoolIndicesOutsideThePools() {
+        assertTrue(BananaProgramCache.isValid(new int[] { PUSH, 0 }, 1, 0));
+        assertFalse(BananaProgramCache.isValid(new int[] { PUSH, 1 }, 1, 0));
+        assertFalse(BananaProgramCache.isValid(new int[] { PUSH, -1 }, 1, 0));
+        assertTrue(BananaProgramCache.isValid(new int[] { BananaOpcodes.PRINT_STRING, 0 }, 0, 1));
+        assertFalse(BananaProgramCache.isValid(new int[] { BananaOpcodes.PRINT_STRING, 1 }, 0, 1));
+        assertTrue(BananaProgramCache.isValid(new int[] { BananaOpcodes.PUSH_FROM_INDEX, Integer.MAX_VALUE }, 0, 0));
+        assertFalse(BananaProgramCache.isValid(new int[] { BananaOpcodes.PUSH_FROM_INDEX, -1 }, 0, 0));
+    }
+
+    @Test
+    public void acceptsOnlyForwardJumpsToInstructions() {
+        // EQUALS at 0; PUSH at 2 with its operand at 3; the end is 4
+        assertTrue(BananaProgramCache.isValid(new int[] { EQUALS, 2, PUSH, 0 }, 1, 0));
+        assertTrue(BananaProgramCache.isValid(new int[] { EQUALS, 4, PUSH, 0 }, 1, 0));
+        assertFalse(BananaProgramCache.isValid(new int[] { EQUALS, 3, PUSH, 0 }, 1, 0));
+        assertFalse(BananaProgramCache.isValid(new int[] { EQUALS, 5, PUSH, 0 }, 1, 0));
+        assertFalse(BananaProgramCache.isValid(new int[] { EQUALS, 1, PUSH, 0 }, 1, 0));
+        assertFalse(BananaProgramCache.isValid(new int[] { PUSH, 0, EQUALS, 0 }, 1, 0));
+    }
+}
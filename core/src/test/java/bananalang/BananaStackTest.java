@@ -0,0 +1,85 @@
+package bananalang;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Off-heap lists: values spilled to storage and refilled from it must read
+ * back exactly as on a heap list.
+ */
+public class BananaStackTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static void assertSpillsAndRefills(BananaStack stack) {
+        int count = BananaStack.WINDOW * 3 + 17;
+        for (int i = 0; i < count; i++) {
+            stack.push(i * 0.5);
+        }
+        assertEquals(count, stack.size());
+        for (int i = 0; i < count; i += 997) {
+            assertEquals(i * 0.5, stack.get(i), 0);
+        }
+        for (int i = count - 1; i >= 0; i--) {
+            assertEquals(i * 0.5, stack.pop(), 0);
+        }
+        assertTrue(stack.isEmpty());
+    }
+
+    @Test
+    public void spillsToDirectMemoryAndRefills() {
+        try (BananaStack stack = BananaStack.offHeap()) {
+            assertSpillsAndRefills(stack);
+            // Storage is reused after the list shrank
+            assertSpillsAndRefills(stack);
+        }
+    }
+
+    @Test
+    public void spillsToAFileAndDeletesIt() throws IOException {
+        File directory = folder.newFolder();
+        try (BananaStack stack = BananaStack.spilling(directory.toPath())) {
+            assertSpillsAndRefills(stack);
+        }
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void behavesLikeAHeapList() {
+        Random random = new Random(42);
+        try (BananaStack offHeap = BananaStack.offHeap()) {
+            BananaStack heap = new BananaStack();
+            // Grows past several windows while popping and adding at the spill boundary
+            for (int step = 0; step < 1_000_000; step++) {
+                int pick = random.nextInt(10);
+                if (pick < 6 || heap.size() < 2) {
+                    double value = random.nextInt(1000) - 500;
+                    heap.push(value);
+                    offHeap.push(value);
+                } else if (pick < 8) {
+                    assertEquals(heap.pop(), offHeap.pop(), 0);
+                } else if (pick < 9) {
+                    heap.add();
+                    offHeap.add();
+                } else {
+                    int index = random.nextInt(heap.size());
+                    assertEquals(heap.get(index), offHeap.get(index), 0);
+                }
+            }
+            assertEquals(heap.size(), offHeap.size());
+            assertArrayEquals(heap.toArray(), offHeap.toArray(), 0);
+            offHeap.clear();
+            assertTrue(offHeap.isEmpty());
+        }
+    }
+}
@@ -0,0 +1,425 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.datatransfer.StringSelection;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Console view for program output that stays fast however much a program
+ * prints. Only the last lines are kept, in a ring buffer with a fixed number
+ * of slots, and only the rows inside the visible area are painted. Very long
+ * lines are split every {@link #MAX_LINE_CHARS} chars so a program that never
+ * prints a line break is bounded too.
+ *
+ * <p>The full output can also be written to a file while it arrives, see
+ * {@link #startSaving(Path)}. Whole lines can be selected with the mouse and
+ * copied with Ctrl+C. Must be used from the EDT only.
+ */
+public class BananaConsole extends JComponent implements Scrollable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Longest line kept in one row; longer lines continue on the next row. */
+    public static final int MAX_LINE_CHARS = 4096;
+
+    private static final int PADDING = 4;
+
+    // Ring buffer of finished lines, oldest at first
+    private String[] lines;
+    private int first;
+    private int count;
+    private long droppedLines;
+    // The last line, still waiting for its line break
+    private final StringBuilder partial = new StringBuilder();
+    // Width of the longest line in chars, measured only when a longer one comes
+    private int longest;
+    private int widest;
+
+    // Rows selected by dragging, as indexes into the rows shown; -1 if none
+    private int anchorRow = -1;
+    private int focusRow = -1;
+
+    private Writer saveFile;
+    private Path savePath;
+
+    /**
+     * Creates an empty console.
+     *
+     * @param maxLines how many lines to keep; older lines are dropped
+     */
+    public BananaConsole(int maxLines) {
+        if (maxLines < 1) {
+            throw new IllegalArgumentException("The console must keep at least one line: " + maxLines);
+        }
+        lines = new String[maxLines];
+        setOpaque(true);
+        setFocusable(true);
+        setAutoscrolls(true);
+        setCursor(Cursor.getPredefinedCursor(Cursor.TEXT_CURSOR));
+
+        MouseAdapter selection = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                requestFocusInWindow();
+                anchorRow = rowAt(e.getY());
+                focusRow = anchorRow;
+                repaint();
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                focusRow = rowAt(e.getY());
+                scrollRectToVisible(new Rectangle(e.getX(), e.getY(), 1, 1));
+                repaint();
+            }
+        };
+        addMouseListener(selection);
+        addMouseMotionListener(selection);
+        getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_C,
+            Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()), "copy");
+        getActionMap().put("copy", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                copySelection();
+            }
+        });
+    }
+
+    /**
+     * Changes how many lines are kept, dropping the oldest if there are more.
+     *
+     * @param maxLines how many lines to keep
+     */
+    public void setMaxLines(int maxLines) {
+        if (maxLines < 1) {
+            throw new IllegalArgumentException("The console must keep at least one line: " + maxLines);
+        }
+        String[] resized = new String[maxLines];
+        int kept = Math.min(count, maxLines);
+        for (int i = 0; i < kept; i++) {
+            resized[i] = line(count - kept + i);
+        }
+        droppedLines += count - kept;
+        lines = resized;
+        first = 0;
+        count = kept;
+        clearSelection();
+        contentChanged(false);
+    }
+
+    public int getMaxLines() {
+        return lines.length;
+    }
+
+    /**
+     * Returns how many lines were dropped to stay within the line limit
+     * since the console was last cleared.
+     */
+    public long getDroppedLines() {
+        return droppedLines;
+    }
+
+    /**
+     * Replaces everything shown with the given text. A file being saved to
+     * keeps what it already has and gets the new text appended.
+     *
+     * @param text the new text
+     */
+    public void setText(String text) {
+        first = 0;
+        count = 0;
+        droppedLines = 0;
+        partial.setLength(0);
+        Arrays.fill(lines, null);
+        longest = 0;
+        widest = 0;
+        clearSelection();
+        append(text);
+    }
+
+    /**
+     * Adds text at the end, scrolling along if the end was in view.
+     *
+     * @param text the text to add
+     */
+    public void append(String text) {
+        if (text.isEmpty()) {
+            return;
+        }
+        boolean following = isEndVisible();
+        save(text);
+        FontMetrics metrics = getFontMetrics(getFont());
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            int stop = end < 0 ? text.length() : end;
+            // Split lines that grow too long, without cutting a surrogate pair
+            while (partial.length() + stop - start > MAX_LINE_CHARS) {
+                int room = MAX_LINE_CHARS - partial.length();
+                if (room > 0 && Character.isHighSurrogate(text.charAt(start + room - 1))) {
+                    room--;
+                }
+                partial.append(text, start, start + room);
+                start += room;
+                addLine(metrics);
+            }
+            partial.append(text, start, stop);
+            if (end < 0) {
+                break;
+            }
+            addLine(metrics);
+            start = end + 1;
+        }
+        measure(metrics, partial);
+        contentChanged(following);
+    }
+
+    /**
+     * Starts writing everything the console receives to a file. The file
+     * begins with the lines the console still holds.
+     *
+     * @param path the file, replaced if it exists
+     * @throws IOException if the file cannot be created
+     */
+    public void startSaving(Path path) throws IOException {
+        stopSaving();
+        BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        for (int i = 0; i < count; i++) {
+            writer.write(line(i));
+            writer.write('\n');
+        }
+        writer.write(partial.toString());
+        saveFile = writer;
+        savePath = path;
+    }
+
+    /**
+     * Stops writing to the file given to {@link #startSaving(Path)} and
+     * closes it.
+     *
+     * @throws IOException if the rest of the file cannot be written
+     */
+    public void stopSaving() throws IOException {
+        if (saveFile != null) {
+            Writer writer = saveFile;
+            saveFile = null;
+            savePath = null;
+            writer.close();
+        }
+    }
+
+    /**
+     * Returns the file output is being saved to, or null.
+     */
+    public Path getSavePath() {
+        return savePath;
+    }
+
+    /**
+     * Writes whatever is buffered for the file being saved to, so it can be
+     * read while output keeps coming.
+     */
+    public void flushSaving() {
+        if (saveFile != null) {
+            try {
+                saveFile.flush();
+            } catch (IOException e) {
+                saveFailed(e);
+            }
+        }
+    }
+
+    private void save(String text) {
+        if (saveFile != null) {
+            try {
+                saveFile.write(text);
+            } catch (IOException e) {
+                saveFailed(e);
+            }
+        }
+    }
+
+    private void saveFailed(IOException e) {
+        Path path = savePath;
+        try {
+            stopSaving();
+        } catch (IOException ignored) {
+            // Already failing
+        }
+        firePropertyChange("savePath", path, null);
+        e.printStackTrace();
+    }
+
+    private void addLine(FontMetrics metrics) {
+        measure(metrics, partial);
+        String line = partial.toString();
+        partial.setLength(0);
+        if (count < lines.length) {
+            lines[(first + count++) % lines.length] = line;
+            return;
+        }
+        lines[first] = line;
+        first = (first + 1) % lines.length;
+        droppedLines++;
+        // Keep the selection on the same text while it scrolls up
+        if (anchorRow >= 0) {
+            anchorRow--;
+            focusRow--;
+            if (anchorRow < 0 || focusRow < 0) {
+                clearSelection();
+            }
+        }
+    }
+
+    /**
+     * Widens the console for a line longer than any before it. Measuring
+     * every line would cost more than keeping it.
+     */
+    private void measure(FontMetrics metrics, CharSequence line) {
+        if (line.length() > longest) {
+            longest = line.length();
+            widest = Math.max(widest, metrics.stringWidth(line.toString()));
+        }
+    }
+
+    /**
+     * Returns a kept line, 0 being the oldest.
+     */
+    private String line(int index) {
+        return lines[(first + index) % lines.length];
+    }
+
+    /**
+     * Returns the text of a row: the kept lines, then the unfinished line.
+     */
+    private String row(int row) {
+        return row < count ? line(row) : partial.toString();
+    }
+
+    private int rows() {
+        return count + 1;
+    }
+
+    private int rowHeight() {
+        return getFontMetrics(getFont()).getHeight();
+    }
+
+    private int rowAt(int y) {
+        return Math.max(0, Math.min(rows() - 1, (y - PADDING) / rowHeight()));
+    }
+
+    private void clearSelection() {
+        anchorRow = -1;
+        focusRow = -1;
+    }
+
+    private void copySelection() {
+        if (anchorRow < 0) {
+            return;
+        }
+        StringBuilder text = new StringBuilder();
+        int from = Math.min(anchorRow, focusRow);
+        int to = Math.max(anchorRow, focusRow);
+        for (int row = from; row <= to && row < rows(); row++) {
+            text.append(row(row));
+            if (row < to) {
+                text.append('\n');
+            }
+        }
+        Toolkit.getDefaultToolkit().getSystemClipboard().setContents(new StringSelection(text.toString()), null);
+    }
+
+    private boolean isEndVisible() {
+        Rectangle visible = getVisibleRect();
+        return visible.height == 0 || visible.y + visible.height >= getHeight() - rowHeight();
+    }
+
+    private void contentChanged(boolean scrollToEnd) {
+        revalidate();
+        repaint();
+        if (scrollToEnd) {
+            // Scroll once the new size is laid out
+            SwingUtilities.invokeLater(() -> scrollRectToVisible(new Rectangle(0, getHeight() - 1, 1, 1)));
+        }
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        if (isPreferredSizeSet()) {
+            return super.getPreferredSize();
+        }
+        return new Dimension(widest + 2 * PADDING, rows() * rowHeight() + 2 * PADDING);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Graphics2D g2 = (Graphics2D) g.create();
+        try {
+            Rectangle clip = g2.getClipBounds();
+            if (clip == null) {
+                clip = new Rectangle(0, 0, getWidth(), getHeight());
+            }
+            g2.setColor(getBackground());
+            g2.fillRect(clip.x, clip.y, clip.width, clip.height);
+            g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g2.setFont(getFont());
+            FontMetrics metrics = g2.getFontMetrics();
+            int height = metrics.getHeight();
+
+            // Only the rows that intersect the clip are painted
+            int firstRow = Math.max(0, (clip.y - PADDING) / height);
+            int lastRow = Math.min(rows() - 1, (clip.y + clip.height - PADDING) / height);
+            int from = anchorRow < 0 ? -1 : Math.min(anchorRow, focusRow);
+            int to = anchorRow < 0 ? -1 : Math.max(anchorRow, focusRow);
+            Color selection = UIManager.getColor("TextArea.selectionBackground");
+            for (int row = firstRow; row <= lastRow; row++) {
+                int top = PADDING + row * height;
+                if (row >= from && row <= to) {
+                    g2.setColor(selection != null ? selection : Color.LIGHT_GRAY);
+                    g2.fillRect(clip.x, top, clip.width, height);
+                }
+                g2.setColor(getForeground());
+                g2.drawString(row(row), PADDING, top + metrics.getAscent());
+            }
+        } finally {
+            g2.dispose();
+        }
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL ? rowHeight() : getFontMetrics(getFont()).charWidth('m');
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL ? visibleRect.height : visibleRect.width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        // Fill the viewport when the text is narrower than it
+        return getParent() instanceof JViewport && getParent().getWidth() > getPreferredSize().width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return getParent() instanceof JViewport && getParent().getHeight() > getPreferredSize().height;
+    }
+}
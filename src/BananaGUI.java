@@ -1,22 +1,38 @@
+import bananalang.BananaBudget;
+import bananalang.BananaCompileException;
+import bananalang.BananaCompiler;
+import bananalang.BananaDiagnostic;
+import bananalang.BananaInput;
 import bananalang.BananaInterpreter;
-import bananalang.BananaParser;
+import bananalang.BananaOutput;
 import bananalang.BananaPreprocessor;
+import bananalang.BananaProgram;
+import bananalang.BananaSourceLines;
 import javax.swing.*;
 import javax.swing.border.Border;
 import javax.swing.border.CompoundBorder;
 import javax.swing.border.EmptyBorder;
 import javax.swing.border.LineBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Highlighter;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileReader;
-import java.io.PrintStream;
-import java.util.Iterator;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 
 /**
@@ -32,20 +48,44 @@ public class BananaGUI extends JFrame {
     private static final Color DARK_BROWN = new Color(50, 30, 20); // Dark brown for text
     
     private JTextArea codeEditor;
-    private JTextArea consoleOutput;
+    private BananaConsole consoleOutput;
+    private JToggleButton saveOutputButton;
     private JTextField inputField;
     private JButton runButton;
+    private JButton stopButton;
     private JButton resetButton;
     private JButton submitButton;
-    private PrintStream originalOut;
-    private ByteArrayOutputStream outputStream;
-    private PrintStream printStream;
+    
+    // Program output waiting to be appended to the console by the flush timer
+    private static final int CONSOLE_FLUSH_MILLIS = 50;
+    private static final int MAX_PENDING_CHARS = 64 * 1024;
+    // Lines the console keeps; -Dbananalang.consoleLines=<n> to change
+    private static final int CONSOLE_MAX_LINES = Integer.getInteger("bananalang.consoleLines", 10_000);
+    private final StringBuilder pendingOutput = new StringBuilder();
+    private Timer consoleFlushTimer;
     private String currentFileName = "";
     
+    // Editor code lexed line by line as it is edited, checked in the background
+    private static final int DIAGNOSE_DELAY_MILLIS = 300;
+    private static final Color PROBLEM_HIGHLIGHT = new Color(255, 190, 180);
+    private final BananaSourceLines sourceLines = new BananaSourceLines();
+    private final ExecutorService diagnoser = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "banana-diagnostics");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Timer diagnoseTimer;
+    private int editGeneration;
+    private JLabel problemsLabel;
+    
     // Queue for input handling
     private BlockingQueue<String> inputQueue = new LinkedBlockingQueue<>();
     private boolean waitingForInput = false;
     
+    // Lets the Stop button end the current run
+    private volatile BananaBudget runBudget;
+    private volatile Thread runThread;
+    
     // Fonts that render properly
     private Font titleFont;
     private Font codeFont;
@@ -54,7 +94,7 @@ public class BananaGUI extends JFrame {
     public BananaGUI() {
         initializeFonts();
         initializeGUI();
-        setupOutputRedirection();
+        setupConsoleStreaming();
     }
     
     private void initializeFonts() {
@@ -322,9 +362,139 @@ public class BananaGUI extends JFrame {
         editorScroll.setViewportBorder(null);
         
         codePanel.add(editorScroll, BorderLayout.CENTER);
+        
+        // Problems found in the code while it is edited
+        problemsLabel = new JLabel("✅ No problems");
+        problemsLabel.setFont(uiFont);
+        problemsLabel.setForeground(DARK_BROWN);
+        problemsLabel.setBorder(new EmptyBorder(8, 15, 8, 15));
+        problemsLabel.putClientProperty("JComponent.aaTextInfoKey", true);
+        codePanel.add(problemsLabel, BorderLayout.SOUTH);
+        setupDiagnostics();
         return codePanel;
     }
     
+    private void setupDiagnostics() {
+        diagnoseTimer = new Timer(DIAGNOSE_DELAY_MILLIS, e -> diagnose());
+        diagnoseTimer.setRepeats(false);
+        codeEditor.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                relex(e);
+            }
+            
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                relex(e);
+            }
+            
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                // Attribute changes do not touch the code
+            }
+        });
+    }
+    
+    /**
+     * Lexes again only the lines an edit touched, then restarts the
+     * diagnostics delay. Runs on the EDT.
+     */
+    private void relex(DocumentEvent e) {
+        Element root = codeEditor.getDocument().getDefaultRootElement();
+        DocumentEvent.ElementChange change = e.getChange(root);
+        if (change == null) {
+            // The edit stayed within one line
+            int index = root.getElementIndex(e.getOffset());
+            sourceLines.setLine(index, lineText(root.getElement(index)));
+        } else {
+            List<String> texts = new ArrayList<>();
+            for (Element line : change.getChildrenAdded()) {
+                texts.add(lineText(line));
+            }
+            sourceLines.replaceLines(change.getIndex(), change.getChildrenRemoved().length, texts);
+        }
+        editGeneration++;
+        diagnoseTimer.restart();
+    }
+    
+    private String lineText(Element line) {
+        Document document = codeEditor.getDocument();
+        int start = line.getStartOffset();
+        int end = Math.min(line.getEndOffset(), document.getLength() + 1) - 1;
+        try {
+            return document.getText(start, end - start);
+        } catch (BadLocationException e) {
+            return "";
+        }
+    }
+    
+    /**
+     * Checks a snapshot of the code on the diagnostics thread and shows the
+     * problems, unless the code was edited again in the meantime.
+     */
+    private void diagnose() {
+        BananaSourceLines snapshot = sourceLines.snapshot();
+        int generation = editGeneration;
+        diagnoser.execute(() -> {
+            List<BananaDiagnostic> problems = snapshot.diagnose();
+            SwingUtilities.invokeLater(() -> {
+                if (generation == editGeneration) {
+                    showProblems(problems);
+                }
+            });
+        });
+    }
+    
+    private void showProblems(List<BananaDiagnostic> problems) {
+        Highlighter highlighter = codeEditor.getHighlighter();
+        highlighter.removeAllHighlights();
+        if (problems.isEmpty()) {
+            problemsLabel.setText("✅ No problems");
+            problemsLabel.setToolTipText(null);
+            return;
+        }
+        Highlighter.HighlightPainter painter = new DefaultHighlighter.DefaultHighlightPainter(PROBLEM_HIGHLIGHT);
+        StringBuilder tooltip = new StringBuilder("<html>");
+        for (BananaDiagnostic problem : problems) {
+            highlightToken(highlighter, painter, problem.getLine(), problem.getColumn());
+            tooltip.append(problem.getSeverity() == BananaDiagnostic.Severity.ERROR ? "🚫 " : "⚠️ ")
+                .append(escapeHtml(problem.toString())).append("<br>");
+        }
+        problemsLabel.setText((problems.size() == 1 ? "⚠️ 1 problem: " : "⚠️ " + problems.size() + " problems, first: ")
+            + problems.get(0));
+        problemsLabel.setToolTipText(tooltip.append("</html>").toString());
+    }
+    
+    /**
+     * Highlights the token starting at a line and code point column.
+     */
+    private void highlightToken(Highlighter highlighter, Highlighter.HighlightPainter painter, int line, int column) {
+        Element root = codeEditor.getDocument().getDefaultRootElement();
+        if (line < 1 || line > root.getElementCount()) {
+            return;
+        }
+        Element element = root.getElement(line - 1);
+        String text = lineText(element);
+        if (column - 1 > text.codePointCount(0, text.length())) {
+            return;
+        }
+        int start = text.offsetByCodePoints(0, column - 1);
+        int end = start;
+        while (end < text.length() && BananaPreprocessor.isAllowed(text.codePointAt(end))) {
+            end += Character.charCount(text.codePointAt(end));
+        }
+        try {
+            highlighter.addHighlight(element.getStartOffset() + start,
+                element.getStartOffset() + Math.max(end, Math.min(start + 1, text.length())), painter);
+        } catch (BadLocationException e) {
+            // The line changed since it was checked
+        }
+    }
+    
+    private static String escapeHtml(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+    
     private JPanel createRightColumn() {
         JPanel rightColumn = new JPanel(new BorderLayout(0, 15));
         rightColumn.setBackground(PASTEL_YELLOW);
@@ -355,23 +525,34 @@ public class BananaGUI extends JFrame {
             new LineBorder(DARK_BROWN, 0, false)
         ));
         outputTitle.putClientProperty("JComponent.aaTextInfoKey", true);
-        outputPanel.add(outputTitle, BorderLayout.NORTH);
         
-        // Output text area
-        consoleOutput = new JTextArea();
+        // Saves the full output to a file, however much the console keeps
+        saveOutputButton = new JToggleButton("💾 Save to file");
+        saveOutputButton.setFont(uiFont);
+        saveOutputButton.setBackground(WHITE);
+        saveOutputButton.setForeground(DARK_BROWN);
+        saveOutputButton.setFocusPainted(false);
+        saveOutputButton.setToolTipText("Write all program output to a file as it arrives");
+        saveOutputButton.addActionListener(e -> toggleSaveOutput());
+        
+        JPanel outputHeader = new JPanel(new BorderLayout());
+        outputHeader.setBackground(WHITE);
+        outputHeader.setBorder(new EmptyBorder(0, 0, 0, 15));
+        outputHeader.add(outputTitle, BorderLayout.CENTER);
+        outputHeader.add(saveOutputButton, BorderLayout.EAST);
+        outputPanel.add(outputHeader, BorderLayout.NORTH);
+        
+        // Output console: keeps the last lines and paints only the visible ones
+        consoleOutput = new BananaConsole(CONSOLE_MAX_LINES);
         consoleOutput.setFont(uiFont);
-        consoleOutput.setEditable(false);
         consoleOutput.setBackground(WHITE);
         consoleOutput.setForeground(DARK_BROWN);
         consoleOutput.setText("Run the program to see output...");
-        consoleOutput.setLineWrap(true);
-        consoleOutput.setWrapStyleWord(true);
-        // Enable better text rendering
-        consoleOutput.putClientProperty("JComponent.aaTextInfoKey", true);
+        consoleOutput.addPropertyChangeListener("savePath", e -> saveOutputButton.setSelected(false));
         
         JScrollPane outputScroll = new JScrollPane(consoleOutput);
         outputScroll.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
-        outputScroll.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
+        outputScroll.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
         outputScroll.setBorder(new EmptyBorder(0, 0, 0, 0));
         outputScroll.getViewport().setBackground(WHITE);
         outputScroll.setViewportBorder(null);
@@ -380,6 +561,33 @@ public class BananaGUI extends JFrame {
         return outputPanel;
     }
     
+    /**
+     * Starts or stops saving the console output to a file the user picks.
+     */
+    private void toggleSaveOutput() {
+        try {
+            if (!saveOutputButton.isSelected()) {
+                consoleOutput.stopSaving();
+                saveOutputButton.setToolTipText("Write all program output to a file as it arrives");
+                return;
+            }
+            JFileChooser chooser = new JFileChooser(new File(System.getProperty("user.dir")));
+            chooser.setSelectedFile(new File("output.txt"));
+            if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+                saveOutputButton.setSelected(false);
+                return;
+            }
+            consoleOutput.startSaving(chooser.getSelectedFile().toPath());
+            saveOutputButton.setToolTipText("Saving output to " + chooser.getSelectedFile() + "; click to stop");
+        } catch (IOException e) {
+            saveOutputButton.setSelected(false);
+            JOptionPane.showMessageDialog(this, 
+                "Error saving output: " + e.getMessage(), 
+                "Error", 
+                JOptionPane.ERROR_MESSAGE);
+        }
+    }
+    
     private JPanel createInputPanel() {
         JPanel inputPanel = new JPanel(new BorderLayout());
         inputPanel.setBackground(WHITE);
@@ -499,8 +707,21 @@ public class BananaGUI extends JFrame {
         runButton.putClientProperty("JComponent.aaTextInfoKey", true);
         runButton.addActionListener(new RunButtonListener());
         
+        // Stop button (white) - use system default button font
+        stopButton = new JButton("■ Stop");
+        stopButton.setFont(runButtonFont);
+        stopButton.setPreferredSize(new Dimension(120, 45));
+        stopButton.setBackground(WHITE);
+        stopButton.setForeground(DARK_BROWN);
+        stopButton.setBorder(createThickBorder());
+        stopButton.setFocusPainted(false);
+        stopButton.putClientProperty("JComponent.aaTextInfoKey", true);
+        stopButton.setEnabled(false);
+        stopButton.addActionListener(e -> stopCode());
+        
         leftButtonContainer.add(openFileButton);
         leftButtonContainer.add(runButton);
+        leftButtonContainer.add(stopButton);
         
         // Right side buttons
         JPanel rightContainer = new JPanel(new FlowLayout(FlowLayout.RIGHT, 0, 0));
@@ -523,14 +744,16 @@ public class BananaGUI extends JFrame {
         resetButton.putClientProperty("JComponent.aaTextInfoKey", true);
         resetButton.addActionListener(e -> {
             consoleOutput.setText("Run the program to see output...");
-            outputStream.reset();
+            synchronized (pendingOutput) {
+                pendingOutput.setLength(0);
+                pendingOutput.notifyAll();
+            }
             inputField.setText("Waiting for program to request input..");
             inputField.setEditable(false);
             inputField.setFocusable(false);
             submitButton.setEnabled(false);
             waitingForInput = false;
             inputQueue.clear(); // Clear any pending input
-            BananaInterpreter.list.clear();
         });
         
         rightContainer.add(resetButton);
@@ -568,10 +791,28 @@ public class BananaGUI extends JFrame {
         }
     }
     
-    private void setupOutputRedirection() {
-        originalOut = System.out;
-        outputStream = new ByteArrayOutputStream();
-        printStream = new PrintStream(outputStream, true);
+    private void setupConsoleStreaming() {
+        // Coalesce program output into one console append per tick
+        consoleFlushTimer = new Timer(CONSOLE_FLUSH_MILLIS, e -> drainPendingOutput());
+        consoleFlushTimer.start();
+    }
+    
+    /**
+     * Moves pending program output into the console. Runs on the EDT.
+     */
+    private void drainPendingOutput() {
+        String text;
+        synchronized (pendingOutput) {
+            if (pendingOutput.length() == 0) {
+                return;
+            }
+            text = pendingOutput.toString();
+            pendingOutput.setLength(0);
+            pendingOutput.notifyAll();
+        }
+        // The console drops its oldest lines itself, so this stays bounded
+        consoleOutput.append(text);
+        consoleOutput.flushSaving();
     }
     
     private class RunButtonListener implements ActionListener {
@@ -584,6 +825,7 @@ public class BananaGUI extends JFrame {
     
     private void runCode() {
         runButton.setEnabled(false);
+        stopButton.setEnabled(true);
         consoleOutput.setText("");
         consoleOutput.append(">>> Running code...\n");
         
@@ -591,9 +833,11 @@ public class BananaGUI extends JFrame {
         updateCodeTitle();
         
         // Run in a separate thread to prevent UI freezing
-        new Thread(() -> {
+        BananaSourceLines code = sourceLines.snapshot();
+        runBudget = new BananaBudget();
+        runThread = new Thread(() -> {
             try {
-                executeCode();
+                executeCode(code);
             } catch (Exception ex) {
                 SwingUtilities.invokeLater(() -> {
                     consoleOutput.append("🚫 Error: " + ex.getMessage() + "\n");
@@ -602,9 +846,26 @@ public class BananaGUI extends JFrame {
             } finally {
                 SwingUtilities.invokeLater(() -> {
                     runButton.setEnabled(true);
+                    stopButton.setEnabled(false);
                 });
             }
-        }).start();
+        });
+        runThread.start();
+    }
+    
+    /**
+     * Stops the running program at its next instruction, or while it waits
+     * for input.
+     */
+    private void stopCode() {
+        BananaBudget budget = runBudget;
+        Thread thread = runThread;
+        if (budget != null && thread != null) {
+            budget.cancel();
+            // Ends a wait for input or for console room
+            thread.interrupt();
+        }
+        stopButton.setEnabled(false);
     }
     
     private void updateCodeTitle() {
@@ -632,294 +893,140 @@ public class BananaGUI extends JFrame {
         }
     }
     
-    private void executeCode() {
-        // Redirect System.out to capture output
-        System.setOut(printStream);
-        
+    private void executeCode(BananaSourceLines code) {
         try {
-            // Get code from editor
-            String code = codeEditor.getText();
-            
-            // Process the code through preprocessor
-            String processedCode = BananaPreprocessor.processString(code);
-            
-            // Parse the code
-            BananaParser parser = new BananaParser();
-            List<String> commands = parser.parse(processedCode);
+            // Compile the code, already lexed while it was edited; warnings
+            // go to the console ahead of the run's output
+            ConsoleOutput output = new ConsoleOutput();
+            BananaCompiler compiler = new BananaCompiler();
+            compiler.setWarnings(output);
+            BananaProgram program = code.compile(compiler);
             
-            // Create a GUI-friendly interpreter
-            GUIInterpreter interpreter = new GUIInterpreter();
-            interpreter.run(commands);
-            
-            // Flush any remaining output
-            printStream.flush();
-            
-            // Get output and display it
-            final String output = outputStream.toString();
-            if (!output.isEmpty()) {
-                SwingUtilities.invokeLater(() -> {
-                    consoleOutput.setText(output);
-                });
-                outputStream.reset();
-            }
+            // Run it on the shared engine, streaming output to the console
+            BananaInterpreter interpreter = new BananaInterpreter(new GUIInput(), output);
+            interpreter.setBudget(runBudget);
+            interpreter.run(program);
             
+            String ending = interpreter.getStopReason() == null
+                ? ">>> Execution completed." : ">>> Execution stopped.";
             SwingUtilities.invokeLater(() -> {
-                consoleOutput.append("\n>>> Execution completed.\n");
+                consoleOutput.append("\n" + ending + "\n");
             });
             
+        } catch (BananaCompileException e) {
+            final String errorMsg = e.getMessage();
+            SwingUtilities.invokeLater(() -> {
+                consoleOutput.append("🚫 Compile error: " + errorMsg + "\n");
+            });
         } catch (Exception e) {
             final String errorMsg = e.getMessage();
             SwingUtilities.invokeLater(() -> {
                 consoleOutput.append("🚫 Error: " + errorMsg + "\n");
             });
             e.printStackTrace();
-        } finally {
-            // Restore original System.out
-            System.setOut(originalOut);
         }
     }
     
     /**
-     * GUI-friendly interpreter that handles input via the input field.
+     * Output that queues program text for the console flush timer. Writers
+     * wait while too much text is queued, so memory stays bounded even when
+     * a program prints faster than the console can keep up.
      */
-    private class GUIInterpreter {
-        private static boolean lookingForU = false;
-        private static int uCounter = 0;
-        
-        public void run(List<String> commands) {
-            Iterator<String> iterator = commands.iterator();
-            while (iterator.hasNext()) {
-                String cmd = iterator.next();
-                
-                while (lookingForU) {
-                    cmd = iterator.next();
-                    if (cmd.equals("EQUALS")) {
-                        uCounter++;
-                    } else if (cmd.equals("︶")) {
-                        uCounter--;
-                        if (uCounter == 0) {
-                            lookingForU = false;
-                            cmd = iterator.next();
-                        }
-                    }
-                }
-                
-                if (cmd.equals("PUSH_ONE")) {
-                    if (iterator.hasNext()) {
-                        String numberStr = iterator.next();
-                        try {
-                            double number = Double.parseDouble(numberStr);
-                            BananaInterpreter.list.add(number);
-                        } catch (NumberFormatException ex) {
-                            error("Invalid number after PUSH_ONE: " + numberStr);
-                        }
-                    } else {
-                        error("PUSH_ONE requires a number but none was provided");
-                    }
-                    continue;
-                }
-                
-                if (cmd.equals("PUSH_INPUT")) {
-                    // Handle input via GUI input field
-                    synchronized (BananaGUI.this) {
-                        waitingForInput = true;
-                    }
-                    
-                    // Clear any previous input from queue
-                    inputQueue.clear();
-                    
-                    // Update UI to request input
-                    try {
-                        SwingUtilities.invokeAndWait(() -> {
-                            inputField.setText("");
-                            inputField.setEditable(true);
-                            inputField.setFocusable(true);
-                            inputField.requestFocus();
-                            submitButton.setEnabled(true);
-                            consoleOutput.append(">>> Waiting for input...\n");
-                        });
-                    } catch (Exception ex) {
-                        ex.printStackTrace();
-                    }
-                    
-                    // Wait for input
-                    String input = null;
-                    try {
-                        input = inputQueue.take();
-                    } catch (InterruptedException ex) {
-                        Thread.currentThread().interrupt();
-                        synchronized (BananaGUI.this) {
-                            waitingForInput = false;
-                        }
-                        SwingUtilities.invokeLater(() -> {
-                            inputField.setText("Waiting for program to request input..");
-                            inputField.setEditable(false);
-                            inputField.setFocusable(false);
-                            submitButton.setEnabled(false);
-                        });
-                        return;
-                    }
-                    
-                    synchronized (BananaGUI.this) {
-                        waitingForInput = false;
-                    }
-                    
-                    // Reset UI
-                    SwingUtilities.invokeLater(() -> {
-                        inputField.setText("Waiting for program to request input..");
-                        inputField.setEditable(false);
-                        inputField.setFocusable(false);
-                        submitButton.setEnabled(false);
-                    });
-                    
-                    // Process input (allow empty input - it will just count as 0)
-                    String processed = BananaPreprocessor.processInputString(input != null ? input : "");
-                    boolean validInput = !processed.contains(" ");
-                    
-                    if (validInput) {
-                        double emojiCount = 0;
-                        for (int i = 0; i < processed.length();) {
-                            emojiCount++;
-                            i += Character.charCount(processed.codePointAt(i));
-                        }
-                        BananaInterpreter.list.add(emojiCount);
-                    } else {
-                        error("Invalid input! Only 🍌 emojis are allowed.");
-                    }
-                    continue;
-                }
-                
-                if (cmd.equals("PUSH_FROM_INDEX")) {
-                    if (iterator.hasNext()) {
-                        String indexStr = iterator.next();
-                        try {
-                            int index = Integer.parseInt(indexStr);
-                            
-                            if (index < 0 || index >= BananaInterpreter.list.size()) {
-                                error("PUSH_FROM_INDEX: Index " + index + 
-                                    " is out of bounds (list size: " + BananaInterpreter.list.size() + ")");
-                            } else {
-                                double value = BananaInterpreter.list.get(index);
-                                BananaInterpreter.list.add(value);
-                            }
-                        } catch (NumberFormatException ex) {
-                            error("Invalid index after PUSH_FROM_INDEX: " + indexStr);
-                        }
-                    } else {
-                        error("PUSH_FROM_INDEX requires an index but none was provided");
-                    }
-                    continue;
-                }
-                
-                switch (cmd) {
-                    case "ADD": {
-                        if (BananaInterpreter.list.size() < 2) {
-                            error("ADD needs 2 values!");
-                            break;
-                        }
-                        double b = BananaInterpreter.list.remove(BananaInterpreter.list.size() - 1);
-                        double a = BananaInterpreter.list.remove(BananaInterpreter.list.size() - 1);
-                        BananaInterpreter.list.add(a + b);
-                        break;
-                    }
-                    
-                    case "SUBTRACT": {
-                        if (BananaInterpreter.list.size() < 2) {
-                            error("SUBTRACT needs 2 values!");
-                            break;
-                        }
-                        double b = BananaInterpreter.list.remove(BananaInterpreter.list.size() - 1);
-                        double a = BananaInterpreter.list.remove(BananaInterpreter.list.size() - 1);
-                        BananaInterpreter.list.add(a - b);
-                        break;
-                    }
-                    
-                    case "MULTIPLY": {
-                        if (BananaInterpreter.list.size() < 2) {
-                            error("MULTIPLY needs 2 values!");
-                            break;
-                        }
-                        double b = BananaInterpreter.list.remove(BananaInterpreter.list.size() - 1);
-                        double a = BananaInterpreter.list.remove(BananaInterpreter.list.size() - 1);
-                        BananaInterpreter.list.add(a * b);
-                        break;
-                    }
-                    
-                    case "DIVIDE": {
-                        if (BananaInterpreter.list.size() < 2) {
-                            error("DIVIDE needs 2 values!");
-                            break;
-                        }
-                        double b = BananaInterpreter.list.remove(BananaInterpreter.list.size() - 1);
-                        double a = BananaInterpreter.list.remove(BananaInterpreter.list.size() - 1);
-                        BananaInterpreter.list.add(a / b);
-                        break;
-                    }
-                    
-                    case "MODULUS": {
-                        if (BananaInterpreter.list.size() < 2) {
-                            error("MODULUS needs 2 values!");
-                            break;
-                        }
-                        double b = BananaInterpreter.list.remove(BananaInterpreter.list.size() - 1);
-                        double a = BananaInterpreter.list.remove(BananaInterpreter.list.size() - 1);
-                        BananaInterpreter.list.add(a % b);
-                        break;
-                    }
-                    
-                    case "PRINT": {
-                        if (BananaInterpreter.list.isEmpty()) {
-                            error("PRINT needs 1 value!");
-                            break;
-                        }
-                        
-                        double value = BananaInterpreter.list.get(BananaInterpreter.list.size() - 1);
-                        if ((value - Math.floor(value)) < 0.000000001) {
-                            System.out.print(BananaInterpreter.list.remove(BananaInterpreter.list.size() - 1).intValue());
-                        } else {
-                            System.out.print(BananaInterpreter.list.remove(BananaInterpreter.list.size() - 1));
-                        }
-                        break;
-                    }
-                    
-                    case "PRINTC":
-                        if (BananaInterpreter.list.isEmpty()) {
-                            error("PRINT needs 1 value!");
-                            break;
-                        }
-                        System.out.print((char) BananaInterpreter.list.remove(BananaInterpreter.list.size() - 1).intValue());
-                        break;
-                    
-                    case "CLEAR": {
-                        BananaInterpreter.list.clear();
-                        break;
-                    }
-                    
-                    case "EQUALS": {
-                        double b = BananaInterpreter.list.remove(BananaInterpreter.list.size() - 1);
-                        double a = BananaInterpreter.list.remove(BananaInterpreter.list.size() - 1);
-                        if (a == b) {
-                            BananaInterpreter.list.add(1.0);
-                        } else {
-                            BananaInterpreter.list.add(b);
-                            lookingForU = true;
-                            uCounter = 1;
-                        }
-                        break;
-                    }
-                    
-                    case "︶":
-                        break;
-                    
-                    default:
-                        error("Unknown command: " + cmd);
-                        break;
+    private class ConsoleOutput implements BananaOutput {
+        @Override
+        public void print(String text) {
+            synchronized (pendingOutput) {
+                waitForRoom();
+                pendingOutput.append(text);
+            }
+        }
+        
+        @Override
+        public void printChar(int value) {
+            synchronized (pendingOutput) {
+                waitForRoom();
+                if (Character.isValidCodePoint(value)) {
+                    pendingOutput.appendCodePoint(value);
+                } else {
+                    pendingOutput.append('?');
                 }
             }
         }
         
-        private void error(String msg) {
-            System.out.println("🚫 Error: " + msg);
+        @Override
+        public void flush() {
+            // Queued behind this, so it lands before any later console message
+            SwingUtilities.invokeLater(BananaGUI.this::drainPendingOutput);
+        }
+        
+        private void waitForRoom() {
+            while (pendingOutput.length() >= MAX_PENDING_CHARS) {
+                try {
+                    pendingOutput.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Input for PUSH_INPUT that asks the user through the input field.
+     */
+    private class GUIInput implements BananaInput {
+        @Override
+        public String readLine() {
+            // Handle input via GUI input field
+            synchronized (BananaGUI.this) {
+                waitingForInput = true;
+            }
+            
+            // Clear any previous input from queue
+            inputQueue.clear();
+            
+            // Update UI to request input
+            boolean interrupted = false;
+            try {
+                SwingUtilities.invokeAndWait(() -> {
+                    inputField.setText("");
+                    inputField.setEditable(true);
+                    inputField.setFocusable(true);
+                    inputField.requestFocus();
+                    submitButton.setEnabled(true);
+                    consoleOutput.append(">>> Waiting for input...\n");
+                });
+            } catch (InterruptedException ex) {
+                // Stopped before asking; take() would only be interrupted again
+                Thread.currentThread().interrupt();
+                interrupted = true;
+            } catch (InvocationTargetException ex) {
+                ex.printStackTrace();
+            }
+            
+            // Wait for input
+            String input = null;
+            if (!interrupted) {
+                try {
+                    input = inputQueue.take();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            
+            synchronized (BananaGUI.this) {
+                waitingForInput = false;
+            }
+            
+            // Reset UI
+            SwingUtilities.invokeLater(() -> {
+                inputField.setText("Waiting for program to request input..");
+                inputField.setEditable(false);
+                inputField.setFocusable(false);
+                submitButton.setEnabled(false);
+            });
+            
+            return input;
         }
     }
     
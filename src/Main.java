@@ -1,10 +1,11 @@
+import bananalang.BananaCompiler;
 import bananalang.BananaInterpreter;
-import bananalang.BananaParser;
-import bananalang.BananaPreprocessor;
+import bananalang.BananaProgram;
+import bananalang.BufferedOutput;
+import bananalang.ReaderInput;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 //import java.util.ArrayList;
-import java.util.List;
 
 /**
  * Main class for testing the Banana language interpreter.
@@ -15,16 +16,15 @@ public class Main {
      * 
      * @param args command line arguments (not used)
      */
-    public static void main(String[] args) throws FileNotFoundException {
+    public static void main(String[] args) throws IOException {
         File file = new File("calc.nana");
         if (!file.exists()) {
             System.err.println("Error: File not found: " + file.getAbsolutePath());
             return;
         }
-        String code = BananaPreprocessor.process(file);
-        BananaParser parser = new BananaParser();
-        List<String> commands = parser.parse(code);
-        BananaInterpreter interpreter = new BananaInterpreter();
-        interpreter.run(commands);
+        BananaProgram program = new BananaCompiler().compile(file);
+        BananaInterpreter interpreter = new BananaInterpreter(
+                new ReaderInput(System.in), new BufferedOutput(System.out));
+        interpreter.run(program);
     }
 }
@@ -1,10 +1,11 @@
+import bananalang.BananaCompiler;
 import bananalang.BananaInterpreter;
-import bananalang.BananaParser;
-import bananalang.BananaPreprocessor;
+import bananalang.BananaProgram;
+import bananalang.BufferedOutput;
+import bananalang.ReaderInput;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.util.List;
+import java.io.IOException;
 
 import javax.swing.SwingUtilities;
 
@@ -17,7 +18,7 @@ public class MainGUI {
      * 
      * @param args command line arguments - if empty, launches GUI; otherwise runs file-based interpreter
      */
-    public static void main(String[] args) throws FileNotFoundException {
+    public static void main(String[] args) throws IOException {
         // If no arguments, launch GUI
         if (args.length == 0) {
             SwingUtilities.invokeLater(() -> {
@@ -30,12 +31,10 @@ public class MainGUI {
             });
         } else {
             // Run file-based interpreter (original behavior)
-            String code = BananaPreprocessor.process(new File("./fitness.nana"));
-            
-            BananaParser parser = new BananaParser();
-            List<String> commands = parser.parse(code);
-            BananaInterpreter interpreter = new BananaInterpreter();
-            interpreter.run(commands);
+            BananaProgram program = new BananaCompiler().compile(new File("./fitness.nana"));
+            BananaInterpreter interpreter = new BananaInterpreter(
+                new ReaderInput(System.in), new BufferedOutput(System.out));
+            interpreter.run(program);
         }
     }
 }
@@ -0,0 +1,445 @@
+package bananalang;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs many independent programs at once. Every job gets its own compiler,
+ * interpreter, stack, input and output, so nothing is shared between jobs
+ * but the JVM.
+ *
+ * <p>Jobs run on virtual threads when the JVM has them (Java 21 and later)
+ * and on a pool of platform threads otherwise; either way at most the given
+ * number run at the same time.
+ */
+public final class BananaBatchRunner {
+
+    private static final String OUTPUT_SUFFIX = ".out";
+    private static final String INPUT_SUFFIX = ".in";
+
+    private final int concurrency;
+    private long tierUpThreshold = BananaInterpreter.DEFAULT_TIER_UP_THRESHOLD;
+    private boolean compileToClosures;
+    private BananaBudget budget;
+
+    /**
+     * Creates a batch runner.
+     *
+     * @param concurrency how many jobs may run at the same time
+     */
+    public BananaBatchRunner(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1: " + concurrency);
+        }
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Sets how many instructions each job interprets before it compiles its
+     * program to bytecode.
+     *
+     * @param threshold the instruction count, 0 to compile before running
+     * @see BananaInterpreter#setTierUpThreshold(long)
+     */
+    public void setTierUpThreshold(long threshold) {
+        this.tierUpThreshold = threshold;
+    }
+
+    /**
+     * Sets whether jobs run their programs as closures instead of
+     * interpreting them.
+     *
+     * @param compileToClosures whether to run closure-compiled code
+     * @see BananaInterpreter#setCompileToClosures(boolean)
+     */
+    public void setCompileToClosures(boolean compileToClosures) {
+        this.compileToClosures = compileToClosures;
+    }
+
+    /**
+     * One program to run, with the file its input comes from.
+     */
+    public static final class Job {
+        private final String name;
+        private final Path program;
+        private final Path input;
+
+        Job(String name, Path program, Path input) {
+            this.name = name;
+            this.program = program;
+            this.input = input;
+        }
+
+        /**
+         * Returns the job name, unique within a batch. The output file is
+         * named after it.
+         *
+         * @return the job name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the program file.
+         *
+         * @return the program file
+         */
+        public Path getProgram() {
+            return program;
+        }
+
+        /**
+         * Returns the input file.
+         *
+         * @return the input file, or null if the program gets no input
+         */
+        public Path getInput() {
+            return input;
+        }
+    }
+
+    /** How a job ended. */
+    public enum Status {
+        /** The program ran to the end or until its input ran out. */
+        OK("ok"),
+        /** The program did not compile. */
+        COMPILE_ERROR("compile error"),
+        /** The run went over a limit of its budget. */
+        STOPPED("stopped"),
+        /** The program, its input or its output file could not be read or written. */
+        IO_ERROR("io error"),
+        /** The program failed unexpectedly. */
+        FAILED("failed");
+
+        private final String label;
+
+        Status(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    /**
+     * What running a job produced.
+     */
+    public static final class Result {
+        private final Job job;
+        private final Status status;
+        private final long compileNanos;
+        private final long runNanos;
+        private final long outputBytes;
+        private final String message;
+
+        Result(Job job, Status status, long compileNanos, long runNanos, long outputBytes, String message) {
+            this.job = job;
+            this.status = status;
+            this.compileNanos = compileNanos;
+            this.runNanos = runNanos;
+            this.outputBytes = outputBytes;
+            this.message = message;
+        }
+
+        public Job getJob() {
+            return job;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * Returns how long the program took to compile.
+         *
+         * @return the compile time in nanoseconds
+         */
+        public long getCompileNanos() {
+            return compileNanos;
+        }
+
+        /**
+         * Returns how long the program ran.
+         *
+         * @return the run time in nanoseconds, 0 if it did not run
+         */
+        public long getRunNanos() {
+            return runNanos;
+        }
+
+        /**
+         * Returns the size of the job's output file.
+         *
+         * @return the output size in bytes
+         */
+        public long getOutputBytes() {
+            return outputBytes;
+        }
+
+        /**
+         * Returns why the job did not end with {@link Status#OK}.
+         *
+         * @return the error message, or null
+         */
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    /**
+     * Limits each job's run.
+     *
+     * @param budget the limits of each job, or null for none
+     * @see BananaInterpreter#setBudget(BananaBudget)
+     */
+    public void setBudget(BananaBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Lists the jobs in a directory or manifest.
+     *
+     * <p>In a directory, every {@code .nana} and {@code .banana} file is a
+     * job. Its input is the file next to it with the same name and the suffix
+     * {@code .in} ({@code calc.nana} reads {@code calc.in}), if there is one.
+     *
+     * <p>A manifest lists one job per line: the program file, then optionally
+     * its input file, separated by whitespace. Paths are relative to the
+     * manifest's directory; blank lines and lines starting with {@code #} are
+     * skipped. A program may be listed several times with different inputs.
+     *
+     * @param source the directory or manifest file
+     * @return the jobs, named after their program and input files
+     * @throws IOException if the directory or manifest cannot be read
+     */
+    public static List<Job> jobs(Path source) throws IOException {
+        List<Job> jobs = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        if (Files.isDirectory(source)) {
+            List<Path> programs;
+            try (Stream<Path> walk = Files.walk(source)) {
+                programs = walk.filter(Files::isRegularFile)
+                    .filter(BananaProgramCache::isProgramFile)
+                    .sorted()
+                    .collect(Collectors.toList());
+            }
+            for (Path program : programs) {
+                Path input = program.resolveSibling(baseName(program) + INPUT_SUFFIX);
+                jobs.add(job(names, source, program, Files.isRegularFile(input) ? input : null, false));
+            }
+            return jobs;
+        }
+
+        Path base = source.toAbsolutePath().getParent();
+        for (String line : Files.readAllLines(source, StandardCharsets.UTF_8)) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            String[] fields = trimmed.split("\\s+");
+            if (fields.length > 2) {
+                throw new IOException("Manifest line has more than a program and an input: " + line);
+            }
+            Path program = base.resolve(fields[0]);
+            Path input = fields.length == 2 ? base.resolve(fields[1]) : null;
+            jobs.add(job(names, base, program, input, true));
+        }
+        return jobs;
+    }
+
+    /**
+     * Names a job after its program's path under the base directory, and its
+     * input's name if the input was given explicitly.
+     */
+    private static Job job(Set<String> names, Path base, Path program, Path input, boolean nameInput) {
+        Path relative = base.toAbsolutePath().normalize().relativize(program.toAbsolutePath().normalize());
+        if (relative.startsWith("..")) {
+            relative = program.getFileName();
+        }
+        Path parent = relative.getParent();
+        String name = (parent == null ? "" : parent.toString().replace('\\', '/') + "/") + baseName(relative);
+        if (nameInput && input != null) {
+            name += "-" + baseName(input);
+        }
+        String unique = name;
+        for (int i = 2; !names.add(unique); i++) {
+            unique = name + "-" + i;
+        }
+        return new Job(unique, program, input);
+    }
+
+    private static String baseName(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * Runs jobs and writes each one's output, errors included, to
+     * {@code <job name>.out} in the output directory.
+     *
+     * @param jobs the jobs to run
+     * @param outputDirectory where the output files go
+     * @return the results, in the order of the jobs
+     * @throws IOException if the output directory cannot be created
+     * @throws InterruptedException if interrupted while waiting for jobs
+     */
+    public List<Result> run(List<Job> jobs, Path outputDirectory) throws IOException, InterruptedException {
+        Files.createDirectories(outputDirectory);
+        Semaphore permits = new Semaphore(concurrency);
+        ExecutorService executor = newExecutor();
+        try {
+            List<Future<Result>> futures = new ArrayList<>(jobs.size());
+            for (Job job : jobs) {
+                futures.add(executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        return runJob(job, outputDirectory.resolve(job.getName() + OUTPUT_SUFFIX));
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+
+            List<Result> results = new ArrayList<>(jobs.size());
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    results.add(new Result(jobs.get(i), Status.FAILED, 0, 0, 0, String.valueOf(e.getCause())));
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Compiles and runs one job with its own compiler, interpreter and I/O.
+     */
+    private Result runJob(Job job, Path outputFile) {
+        long compileNanos = 0;
+        long runNanos = 0;
+        Status status = Status.OK;
+        String message = null;
+        try {
+            Files.createDirectories(outputFile.toAbsolutePath().getParent());
+            try (OutputStream file = Files.newOutputStream(outputFile);
+                    BananaBufferedInput input = job.getInput() == null
+                        ? new BananaBufferedInput(InputStream.nullInputStream(), false)
+                        : BananaBufferedInput.open(job.getInput(), false)) {
+                BufferedOutput output = new BufferedOutput(file);
+                try {
+                    long start = System.nanoTime();
+                    BananaCompiler compiler = new BananaCompiler();
+                    compiler.setWarnings(output);
+                    BananaProgram program;
+                    try {
+                        program = compiler.compile(job.getProgram().toFile());
+                    } finally {
+                        compileNanos = System.nanoTime() - start;
+                    }
+
+                    start = System.nanoTime();
+                    try {
+                        BananaInterpreter interpreter = new BananaInterpreter(input, output);
+                        interpreter.setTierUpThreshold(tierUpThreshold);
+                        interpreter.setCompileToClosures(compileToClosures);
+                        interpreter.setBudget(budget);
+                        interpreter.run(program);
+                        if (interpreter.getStopReason() != null) {
+                            status = Status.STOPPED;
+                            message = interpreter.getStopReason().toString();
+                        }
+                    } finally {
+                        runNanos = System.nanoTime() - start;
+                    }
+                } catch (BananaCompileException e) {
+                    status = Status.COMPILE_ERROR;
+                    message = e.getMessage();
+                    output.error(message);
+                } finally {
+                    output.flush();
+                }
+            }
+        } catch (IOException e) {
+            status = Status.IO_ERROR;
+            message = e.getMessage();
+        } catch (RuntimeException e) {
+            status = Status.FAILED;
+            message = String.valueOf(e);
+        }
+        long outputBytes = 0;
+        try {
+            outputBytes = Files.size(outputFile);
+        } catch (IOException e) {
+            // No output file to measure
+        }
+        return new Result(job, status, compileNanos, runNanos, outputBytes, message);
+    }
+
+    /**
+     * Writes a tab-separated summary: one line per job with its status,
+     * compile and run times in milliseconds, output size and error message.
+     *
+     * @param results the results of a batch
+     * @param file the summary file
+     * @throws IOException if the summary cannot be written
+     */
+    public static void writeSummary(List<Result> results, Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("job\tstatus\tcompile_ms\trun_ms\toutput_bytes\tmessage");
+            writer.newLine();
+            for (Result result : results) {
+                String message = result.getMessage() == null ? "" : result.getMessage().replaceAll("\\s+", " ");
+                writer.write(result.getJob().getName() + "\t" + result.getStatus() + "\t"
+                    + millis(result.getCompileNanos()) + "\t" + millis(result.getRunNanos()) + "\t"
+                    + result.getOutputBytes() + "\t" + message);
+                writer.newLine();
+            }
+        }
+    }
+
+    private static String millis(long nanos) {
+        // A machine-read column: always a dot, whatever the default locale
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    /**
+     * Creates a virtual thread per task executor if the JVM has one, and
+     * otherwise a pool with a platform thread per concurrent job.
+     */
+    private ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Before Java 21, or virtual threads still a disabled preview
+            return Executors.newFixedThreadPool(concurrency, task -> {
+                Thread thread = new Thread(task, "banana-batch");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
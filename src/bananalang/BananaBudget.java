@@ -0,0 +1,203 @@
+package bananalang;
+
+/**
+ * Limits on a single run: instructions, wall-clock time, list size and
+ * output bytes, plus a flag another thread can set to stop the run. Give it
+ * to {@link BananaInterpreter#setBudget(BananaBudget)}; a run that goes over
+ * a limit ends with an error and {@link BananaInterpreter#getStopReason()}
+ * tells which limit it was.
+ *
+ * <p>Limits apply to every run that uses the budget, each measured from the
+ * start of that run. Instructions are counted exactly; time, list size and
+ * cancellation are checked every {@link #CHECK_INTERVAL} instructions and
+ * whenever the program waits for input. Budgeted runs are always
+ * interpreted, so these checks cannot be skipped by compiled code.
+ */
+public final class BananaBudget {
+
+    /** Value of a limit that is not set. */
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    /** Instructions run between two checks of the time, list size and cancellation. */
+    public static final int CHECK_INTERVAL = 1024;
+
+    /** Why a run was stopped. */
+    public enum Reason {
+        /** The run executed its maximum number of instructions. */
+        INSTRUCTIONS("instruction limit"),
+        /** The run took longer than its maximum time. */
+        TIME("time limit"),
+        /** The list grew larger than its maximum size. */
+        STACK("list size limit"),
+        /** The program wrote more than its maximum output. */
+        OUTPUT("output limit"),
+        /** The run was cancelled. */
+        CANCELLED("cancelled");
+
+        private final String label;
+
+        Reason(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private long maxInstructions = UNLIMITED;
+    private long maxMillis = UNLIMITED;
+    private long maxStackSize = UNLIMITED;
+    private long maxOutputBytes = UNLIMITED;
+    private volatile boolean cancelled;
+
+    /**
+     * Sets how many instructions a run may execute.
+     *
+     * @param maxInstructions the instruction limit, or {@link #UNLIMITED}
+     */
+    public void setMaxInstructions(long maxInstructions) {
+        this.maxInstructions = requireLimit(maxInstructions);
+    }
+
+    /**
+     * Sets how long a run may take, waiting for input included.
+     *
+     * @param maxMillis the time limit in milliseconds, or {@link #UNLIMITED}
+     */
+    public void setMaxMillis(long maxMillis) {
+        this.maxMillis = requireLimit(maxMillis);
+    }
+
+    /**
+     * Sets how many values the list may hold.
+     *
+     * @param maxStackSize the list size limit, or {@link #UNLIMITED}
+     */
+    public void setMaxStackSize(long maxStackSize) {
+        this.maxStackSize = requireLimit(maxStackSize);
+    }
+
+    /**
+     * Sets how many bytes of UTF-8 a run may print. Error messages do not
+     * count.
+     *
+     * @param maxOutputBytes the output limit, or {@link #UNLIMITED}
+     */
+    public void setMaxOutputBytes(long maxOutputBytes) {
+        this.maxOutputBytes = requireLimit(maxOutputBytes);
+    }
+
+    public long getMaxInstructions() {
+        return maxInstructions;
+    }
+
+    public long getMaxMillis() {
+        return maxMillis;
+    }
+
+    public long getMaxStackSize() {
+        return maxStackSize;
+    }
+
+    public long getMaxOutputBytes() {
+        return maxOutputBytes;
+    }
+
+    /**
+     * Stops every run using this budget at its next check. Safe to call from
+     * any thread. To also end a wait for input, interrupt the running thread
+     * or make the input return null.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Tells whether {@link #cancel()} was called.
+     *
+     * @return whether runs using this budget are cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private static long requireLimit(long limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limits cannot be negative: " + limit);
+        }
+        return limit;
+    }
+
+    /**
+     * Thrown inside the interpreter to end a run that went over its budget.
+     */
+    static final class Exceeded extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final Reason reason;
+
+        Exceeded(Reason reason, String message) {
+            super(message, null, false, false);
+            this.reason = reason;
+        }
+    }
+
+    /**
+     * Output that counts the bytes a run prints and stops the run once it
+     * goes over the budget's output limit.
+     */
+    static final class CountingOutput implements BananaOutput {
+        private final BananaOutput out;
+        private final long maxBytes;
+        private long bytes;
+
+        CountingOutput(BananaOutput out, long maxBytes) {
+            this.out = out;
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public void print(String text) {
+            long size = 0;
+            for (int i = 0; i < text.length(); ) {
+                int codePoint = text.codePointAt(i);
+                size += codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+                i += Character.charCount(codePoint);
+            }
+            count(size);
+            out.print(text);
+        }
+
+        @Override
+        public void printNumber(double value) {
+            count(BananaOutput.formatNumber(value).length());
+            out.printNumber(value);
+        }
+
+        @Override
+        public void printChar(int value) {
+            count(!Character.isValidCodePoint(value) || value < 0x80 ? 1
+                : value < 0x800 ? 2 : value < 0x10000 ? 3 : 4);
+            out.printChar(value);
+        }
+
+        @Override
+        public void error(String message) {
+            out.error(message);
+        }
+
+        @Override
+        public void flush() {
+            out.flush();
+        }
+
+        private void count(long size) {
+            bytes += size;
+            if (bytes > maxBytes) {
+                throw new Exceeded(Reason.OUTPUT, "output limit of " + maxBytes + " byte(s) reached");
+            }
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package bananalang;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Input for scripted runs: reads UTF-8 lines from a file or pipe through a
+ * large buffer and counts their 🍌 straight from the bytes, so PUSH_INPUT gets
+ * a ready-made number without any String being built. Lines end at
+ * {@code \n}, {@code \r} or {@code \r\n}, as with {@link ReaderInput}.
+ *
+ * <p>With prefetch, a background thread reads and counts lines ahead of the
+ * program and hands them over in batches, so reading overlaps with running.
+ * Lines are then only kept as counts: {@link #readLine()} returns a line of
+ * that many 🍌, or U+FFFD for a line that held anything else.
+ */
+public final class BananaBufferedInput implements BananaInput, Closeable {
+
+    /** Size of the read buffer. */
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    // 🍌 in UTF-8
+    private static final byte[] BANANA = "🍌".getBytes(StandardCharsets.UTF_8);
+
+    // Counts handed over by the prefetch thread at once, and batches read ahead
+    private static final int BATCH_SIZE = 1024;
+    private static final int BATCHES_AHEAD = 4;
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private boolean ended;
+    // A \r ended the last line, so a \n right after it belongs to that line
+    private boolean afterReturn;
+    // Bytes of the line being read, kept only for readLine()
+    private byte[] line;
+    private int lineLength;
+
+    // Filled by the prefetch thread; null without prefetch
+    private final BlockingQueue<double[]> batches;
+    private double[] batch;
+    private int batchIndex;
+    private volatile IOException prefetchError;
+
+    /**
+     * Creates an input that reads a stream.
+     *
+     * @param in the stream to read, in UTF-8
+     * @param prefetch whether to read and count lines ahead on a background
+     *     thread
+     */
+    public BananaBufferedInput(InputStream in, boolean prefetch) {
+        this.in = in;
+        if (!prefetch) {
+            batches = null;
+            return;
+        }
+        batches = new ArrayBlockingQueue<>(BATCHES_AHEAD);
+        Thread prefetcher = new Thread(this::prefetch, "banana-input-prefetch");
+        prefetcher.setDaemon(true);
+        prefetcher.start();
+    }
+
+    /**
+     * Opens an input that reads a file.
+     *
+     * @param file the UTF-8 file to read
+     * @param prefetch whether to read and count lines ahead on a background
+     *     thread
+     * @return the input
+     * @throws IOException if the file cannot be opened
+     */
+    public static BananaBufferedInput open(Path file, boolean prefetch) throws IOException {
+        return new BananaBufferedInput(Files.newInputStream(file), prefetch);
+    }
+
+    @Override
+    public double readBananas() {
+        if (batches == null) {
+            try {
+                return countLine(false);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        if (batch == null || batchIndex == batch.length) {
+            try {
+                batch = batches.take();
+            } catch (InterruptedException e) {
+                // Treated as the end of input, like a reader that was closed
+                Thread.currentThread().interrupt();
+                return END_OF_INPUT;
+            }
+            batchIndex = 0;
+        }
+        double count = batch[batchIndex];
+        if (count == END_OF_INPUT) {
+            // Keep returning the end, and report why reading stopped early
+            IOException error = prefetchError;
+            if (error != null) {
+                prefetchError = null;
+                throw new UncheckedIOException(error);
+            }
+            return END_OF_INPUT;
+        }
+        batchIndex++;
+        return count;
+    }
+
+    @Override
+    public String readLine() {
+        if (batches != null) {
+            double count = readBananas();
+            if (count == END_OF_INPUT) {
+                return null;
+            }
+            return count == INVALID_LINE ? "\uFFFD" : "🍌".repeat((int) count);
+        }
+        try {
+            if (countLine(true) == END_OF_INPUT) {
+                return null;
+            }
+            return lineLength == 0 ? "" : new String(line, 0, lineLength, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Closes the stream. A prefetch thread stops at its next read.
+     */
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Reads one line and counts its 🍌 in a single pass over the buffer.
+     *
+     * @param keep whether to keep the line's bytes for {@link #readLine()}
+     * @return the count, {@link #INVALID_LINE} or {@link #END_OF_INPUT}
+     */
+    private double countLine(boolean keep) throws IOException {
+        lineLength = 0;
+        int count = 0;
+        int matched = 0;
+        boolean valid = true;
+        boolean read = false;
+        while (true) {
+            if (position == limit && !fill()) {
+                if (!read) {
+                    return END_OF_INPUT;
+                }
+                break;
+            }
+            byte b = buffer[position++];
+            if (afterReturn) {
+                afterReturn = false;
+                if (b == '\n') {
+                    continue;
+                }
+            }
+            read = true;
+            if (b == '\n') {
+                break;
+            }
+            if (b == '\r') {
+                afterReturn = true;
+                break;
+            }
+            if (keep) {
+                keepByte(b);
+            }
+            if (!valid) {
+                continue;
+            }
+            if (b == BANANA[matched]) {
+                if (++matched == BANANA.length) {
+                    matched = 0;
+                    count++;
+                }
+            } else {
+                valid = false;
+            }
+        }
+        return valid && matched == 0 ? count : INVALID_LINE;
+    }
+
+    private boolean fill() throws IOException {
+        if (ended) {
+            return false;
+        }
+        int read = in.read(buffer);
+        while (read == 0) {
+            read = in.read(buffer);
+        }
+        if (read < 0) {
+            ended = true;
+            return false;
+        }
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    private void keepByte(byte b) {
+        if (line == null) {
+            line = new byte[256];
+        } else if (lineLength == line.length) {
+            line = Arrays.copyOf(line, lineLength * 2);
+        }
+        line[lineLength++] = b;
+    }
+
+    /**
+     * Runs on the prefetch thread: counts lines into batches, handing a batch
+     * over when it is full or before a read that may block, so an interactive
+     * program still gets every line as soon as it is typed.
+     */
+    private void prefetch() {
+        double[] counts = new double[BATCH_SIZE];
+        int size = 0;
+        try {
+            while (true) {
+                if (position == limit && size > 0) {
+                    batches.put(Arrays.copyOf(counts, size));
+                    size = 0;
+                }
+                double count;
+                try {
+                    count = countLine(false);
+                } catch (InterruptedIOException e) {
+                    throw e;
+                } catch (IOException e) {
+                    prefetchError = e;
+                    count = END_OF_INPUT;
+                }
+                counts[size++] = count;
+                if (count == END_OF_INPUT) {
+                    batches.put(Arrays.copyOf(counts, size));
+                    return;
+                }
+                if (size == BATCH_SIZE) {
+                    batches.put(counts);
+                    counts = new double[BATCH_SIZE];
+                    size = 0;
+                }
+            }
+        } catch (InterruptedException | InterruptedIOException e) {
+            // Nobody is reading any more
+        }
+    }
+}
@@ -0,0 +1,733 @@
+package bananalang;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+
+/**
+ * Compiles a {@link BananaProgram} into a JVM class, loaded as a hidden class so
+ * it is unloaded once the {@link BananaCompiledCode} is gone. The output is
+ * identical to {@link BananaInterpreter}'s: the generated code reports the same
+ * errors and calls the same {@link BananaOutput} methods.
+ *
+ * <p>The stack depth is tracked through the program, starting from the list
+ * the compiled code is entered with. Where it is known, each list slot
+ * becomes a double local, arithmetic becomes plain JVM arithmetic, and
+ * underflow checks and PUSH_FROM_INDEX bounds are decided at compile time.
+ * The locals are copied back into the {@link BananaStack} when the code
+ * leaves such a region. Where the depth is not known (after an EQUALS block
+ * that changes it), the code works on the {@link BananaStack} with the same
+ * checks as the interpreter. EQUALS and ︶ become real branches either way.
+ *
+ * <p>The program is split into static methods at points no EQUALS block spans,
+ * each small enough for the JIT to compile. A program that cannot be split
+ * that way or that overflows the class file limits is not compiled.
+ */
+public final class BananaBytecodeCompiler {
+
+    /**
+     * Largest method the JIT will compile by default (HotSpot's
+     * HugeMethodLimit). Bigger methods would only ever be interpreted.
+     */
+    static final int MAX_METHOD_SIZE = 8000;
+
+    /** Deepest list kept in locals; deeper regions work on the BananaStack. */
+    static final int MAX_REGISTERS = 200;
+
+    private static final String CLASS_NAME = "bananalang/BananaCompiledProgram";
+    private static final String STACK = "bananalang/BananaStack";
+    private static final String OUTPUT = "bananalang/BananaOutput";
+    private static final String INTERPRETER = "bananalang/BananaInterpreter";
+    private static final String PARAMETERS = "(L" + STACK + ";L" + OUTPUT + ";L" + INTERPRETER + ";)";
+
+    // Parameters are locals 0-2; list slot i lives in locals 3 + 2i and 4 + 2i
+    private static final int FIRST_REGISTER = 3;
+    private static final int MAX_STACK = 4;
+
+    // Stack depth states; known depths are >= 0
+    private static final int UNKNOWN = -1;
+    private static final int UNREACHED = -2;
+
+    /** Bytes of the two returns that end a chunk. */
+    private static final int RETURNS_SIZE = 4;
+    /** Longest piece of a PRINT_STRING that always fits in a class file string. */
+    private static final int MAX_PIECE_LENGTH = 0xFFFF / 3;
+    private static final int CALL_SIZE = 9;
+
+    private static final int[] ARITHMETIC_OPCODES = {
+        BananaClassWriter.DADD, BananaClassWriter.DSUB, BananaClassWriter.DMUL,
+        BananaClassWriter.DDIV, BananaClassWriter.DREM,
+    };
+
+    private final int[] code;
+    private final double[] constants;
+    private final String[] strings;
+    private final int[] depths;
+    private final BananaClassWriter writer = new BananaClassWriter(CLASS_NAME);
+
+    // State of the chunk being written
+    private BananaClassWriter.Method method;
+    private boolean registers;
+    // Label of each pc, and of the halt stub for each depth, or -1
+    private final int[] labels;
+    private final int[] halts = new int[MAX_REGISTERS + 2];
+
+    private int stackPush;
+    private int stackGet;
+    private int stackSize;
+    private int stackIsEmpty;
+    private int stackPop;
+    private int stackClear;
+    private int stackCompareTop;
+    private int[] stackArithmetic;
+    private int outputPrint;
+    private int outputPrintNumber;
+    private int outputPrintChar;
+    private int outputError;
+    private int readInput;
+    private int pushInput;
+    private int pushFromIndex;
+
+    private final int start;
+
+    private BananaBytecodeCompiler(BananaProgram program, int start, int depth) {
+        this.code = program.getCode();
+        this.constants = program.getConstants();
+        this.strings = program.getStrings();
+        this.start = start;
+        this.depths = analyzeDepths(code, start, depth);
+        this.labels = new int[code.length + 1];
+        Arrays.fill(labels, -1);
+        Arrays.fill(halts, -1);
+    }
+
+    /**
+     * Compiles a program into a hidden class.
+     *
+     * @param program the program to compile
+     * @return the compiled code, which expects to start on an empty list; or
+     *     null if the program is too large to compile
+     */
+    public static BananaCompiledCode compile(BananaProgram program) {
+        return compile(program, 0, 0);
+    }
+
+    /**
+     * Compiles the rest of a program from an instruction, so a run can move
+     * onto compiled code part-way through.
+     *
+     * @param program the program to compile
+     * @param start the instruction the compiled code starts at
+     * @param depth how many values the list holds there
+     * @return the compiled code, which expects exactly that many values; or
+     *     null if the rest of the program is too large to compile
+     */
+    static BananaCompiledCode compile(BananaProgram program, int start, int depth) {
+        return new BananaBytecodeCompiler(program, start, depth).compile();
+    }
+
+    private BananaCompiledCode compile() {
+        resolveMembers();
+        int[] chunks = generateChunks();
+        if (chunks == null || chunks.length * CALL_SIZE + 1 > MAX_METHOD_SIZE) {
+            return null;
+        }
+
+        // run() calls each chunk in turn and stops when one reports the input ran out
+        BananaClassWriter.Method run = writer.method("run", PARAMETERS + "V", 3, STACK, OUTPUT, INTERPRETER);
+        int stop = run.newLabel();
+        for (int chunk : chunks) {
+            run.op(BananaClassWriter.ALOAD_0);
+            run.op(BananaClassWriter.ALOAD_1);
+            run.op(BananaClassWriter.ALOAD_2);
+            run.op(BananaClassWriter.INVOKESTATIC, chunk);
+            run.jump(BananaClassWriter.IFEQ, stop);
+        }
+        run.bind(stop);
+        run.op(BananaClassWriter.RETURN);
+
+        if (writer.constantCount() > BananaClassWriter.MAX_CONSTANTS) {
+            return null;
+        }
+        return load(writer.toByteArray());
+    }
+
+    /**
+     * Writes the chunk methods.
+     *
+     * @return the method references of the chunks, or null if a block does not
+     *     fit in one method
+     */
+    private int[] generateChunks() {
+        // A chunk may end at pc only if no EQUALS before pc jumps past it
+        boolean[] boundary = new boolean[code.length + 1];
+        int furthest = start;
+        for (int pc = start; pc < code.length; pc += BananaOpcodes.length(code[pc])) {
+            boundary[pc] = furthest <= pc;
+            if (code[pc] == BananaOpcodes.EQUALS) {
+                furthest = Math.max(furthest, code[pc + 1]);
+            }
+        }
+        boundary[code.length] = true;
+
+        int[] chunks = new int[8];
+        int chunkCount = 0;
+        int pc = start;
+        while (pc < code.length || chunkCount == 0) {
+            String name = "chunk" + chunkCount;
+            int ref = writer.methodRef(CLASS_NAME, name, PARAMETERS + "Z");
+            method = writer.method(name, PARAMETERS + "Z", MAX_STACK, STACK, OUTPUT, INTERPRETER);
+            pc = generateChunk(pc, boundary);
+            if (pc < 0) {
+                return null;
+            }
+            if (chunkCount == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunkCount * 2);
+            }
+            chunks[chunkCount++] = ref;
+        }
+        return Arrays.copyOf(chunks, chunkCount);
+    }
+
+    /**
+     * Writes one chunk starting at a boundary, taking whole blocks while they
+     * fit and can use the same kind of code. A block that overflows the method
+     * is rolled back and starts the next chunk.
+     *
+     * @return where the next chunk starts, or -1 if the first block is too big
+     */
+    private int generateChunk(int start, boolean[] boundary) {
+        registers = start < code.length && fitsRegisters(start, boundary);
+        if (registers) {
+            // Move the list into locals
+            for (int i = 0; i < depths[start]; i++) {
+                method.op(BananaClassWriter.ALOAD_0);
+                pushInt(i);
+                method.op(BananaClassWriter.INVOKEVIRTUAL, stackGet);
+                method.local(BananaClassWriter.DSTORE, register(i));
+            }
+            if (depths[start] > 0) {
+                method.op(BananaClassWriter.ALOAD_0);
+                method.op(BananaClassWriter.INVOKEVIRTUAL, stackClear);
+            }
+        }
+
+        int end = start;
+        while (end < code.length && (end == start || fitsRegisters(end, boundary) == registers)) {
+            int[] mark = method.mark();
+            int pc = end;
+            do {
+                if (labels[pc] >= 0) {
+                    method.bind(labels[pc], frame(pc));
+                }
+                if (depths[pc] != UNREACHED) {
+                    int target = code[pc] == BananaOpcodes.EQUALS ? label(code[pc + 1]) : -1;
+                    if (registers) {
+                        registerInstruction(pc, target);
+                    } else {
+                        stackInstruction(pc, target);
+                    }
+                }
+                pc += BananaOpcodes.length(code[pc]);
+            } while (!boundary[pc]);
+
+            if (method.size() + RETURNS_SIZE + (registers ? materializeSize(pc) : 0) > MAX_METHOD_SIZE) {
+                method.reset(mark);
+                Arrays.fill(labels, end + 1, pc + 1, -1);
+                for (int i = 0; i < halts.length; i++) {
+                    if (halts[i] >= mark[1]) {
+                        halts[i] = -1;
+                    }
+                }
+                break;
+            }
+            end = pc;
+        }
+        if (end == start && start < code.length) {
+            return -1;
+        }
+
+        method.bind(label(end), frame(end));
+        if (registers) {
+            materialize(Math.max(depths[end], 0));
+        }
+        method.op(BananaClassWriter.ICONST_1);
+        method.op(BananaClassWriter.IRETURN);
+        for (int depth = 0; depth < halts.length; depth++) {
+            if (halts[depth] >= 0) {
+                method.bind(halts[depth], registers ? depth : 0);
+                if (registers) {
+                    materialize(depth);
+                }
+                method.op(BananaClassWriter.ICONST_0);
+                method.op(BananaClassWriter.IRETURN);
+                halts[depth] = -1;
+            }
+        }
+        Arrays.fill(labels, start, end + 1, -1);
+        return end;
+    }
+
+    /**
+     * Tells whether a block can keep the list in locals: its depth is known
+     * everywhere, including where it ends, and never gets too deep.
+     */
+    private boolean fitsRegisters(int start, boolean[] boundary) {
+        int pc = start;
+        do {
+            if (depths[pc] == UNKNOWN || depths[pc] > MAX_REGISTERS) {
+                return false;
+            }
+            pc += BananaOpcodes.length(code[pc]);
+        } while (!boundary[pc]);
+        return depths[pc] != UNKNOWN && depths[pc] <= MAX_REGISTERS;
+    }
+
+    /**
+     * Writes one instruction that works on list slots kept in locals.
+     */
+    private void registerInstruction(int pc, int target) {
+        int op = code[pc];
+        int depth = depths[pc];
+        switch (op) {
+            case BananaOpcodes.PUSH:
+                pushDouble(constants[code[pc + 1]]);
+                method.local(BananaClassWriter.DSTORE, register(depth));
+                break;
+
+            case BananaOpcodes.PUSH_INPUT:
+                method.op(BananaClassWriter.ALOAD_2);
+                method.op(BananaClassWriter.INVOKEVIRTUAL, readInput);
+                method.op(BananaClassWriter.DUP2);
+                method.local(BananaClassWriter.DSTORE, register(depth));
+                method.op(BananaClassWriter.DCONST_0);
+                method.op(BananaClassWriter.DCMPG);
+                method.jump(BananaClassWriter.IFLT, halt(depth));
+                break;
+
+            case BananaOpcodes.PUSH_FROM_INDEX: {
+                int index = code[pc + 1];
+                if (index >= 0 && index < depth) {
+                    method.local(BananaClassWriter.DLOAD, register(index));
+                    method.local(BananaClassWriter.DSTORE, register(depth));
+                } else {
+                    error(BananaInterpreter.indexErrorMessage(index, depth));
+                }
+                break;
+            }
+
+            case BananaOpcodes.ADD:
+            case BananaOpcodes.SUBTRACT:
+            case BananaOpcodes.MULTIPLY:
+            case BananaOpcodes.DIVIDE:
+            case BananaOpcodes.MODULUS:
+                if (depth < 2) {
+                    error(underflowMessage(op));
+                    break;
+                }
+                method.local(BananaClassWriter.DLOAD, register(depth - 2));
+                method.local(BananaClassWriter.DLOAD, register(depth - 1));
+                method.op(ARITHMETIC_OPCODES[op - BananaOpcodes.ADD]);
+                method.local(BananaClassWriter.DSTORE, register(depth - 2));
+                break;
+
+            case BananaOpcodes.PRINT:
+            case BananaOpcodes.PRINTC:
+                if (depth < 1) {
+                    error(underflowMessage(op));
+                    break;
+                }
+                method.op(BananaClassWriter.ALOAD_1);
+                method.local(BananaClassWriter.DLOAD, register(depth - 1));
+                if (op == BananaOpcodes.PRINT) {
+                    method.invokeinterface(outputPrintNumber, 3);
+                } else {
+                    method.op(BananaClassWriter.D2I);
+                    method.invokeinterface(outputPrintChar, 2);
+                }
+                break;
+
+            case BananaOpcodes.PRINT_STRING:
+                printString(strings[code[pc + 1]]);
+                break;
+
+            case BananaOpcodes.CLEAR:
+                // The depth is now 0; the old slots are simply never read
+                break;
+
+            case BananaOpcodes.EQUALS: {
+                if (depth < 2) {
+                    // Reports the error and skips the block
+                    error(underflowMessage(op));
+                    method.jump(BananaClassWriter.GOTO, target);
+                    break;
+                }
+                int notEqual = method.newLabel();
+                int next = method.newLabel();
+                method.local(BananaClassWriter.DLOAD, register(depth - 2));
+                method.local(BananaClassWriter.DLOAD, register(depth - 1));
+                method.op(BananaClassWriter.DCMPL);
+                method.jump(BananaClassWriter.IFNE, notEqual);
+                method.op(BananaClassWriter.DCONST_1);
+                method.local(BananaClassWriter.DSTORE, register(depth - 2));
+                method.jump(BananaClassWriter.GOTO, next);
+                // a != b leaves b and skips to the instruction after the matching ︶
+                method.bind(notEqual, depth);
+                method.local(BananaClassWriter.DLOAD, register(depth - 1));
+                method.local(BananaClassWriter.DSTORE, register(depth - 2));
+                method.jump(BananaClassWriter.GOTO, target);
+                method.bind(next, depth - 1);
+                break;
+            }
+
+            default:
+                error("Unknown opcode: " + op);
+                break;
+        }
+    }
+
+    /**
+     * Writes one instruction that works on the {@link BananaStack}.
+     */
+    private void stackInstruction(int pc, int target) {
+        int op = code[pc];
+        int depth = depths[pc];
+        switch (op) {
+            case BananaOpcodes.PUSH:
+                method.op(BananaClassWriter.ALOAD_0);
+                pushDouble(constants[code[pc + 1]]);
+                method.op(BananaClassWriter.INVOKEVIRTUAL, stackPush);
+                break;
+
+            case BananaOpcodes.PUSH_INPUT:
+                method.op(BananaClassWriter.ALOAD_2);
+                method.op(BananaClassWriter.ALOAD_0);
+                method.op(BananaClassWriter.INVOKEVIRTUAL, pushInput);
+                method.jump(BananaClassWriter.IFEQ, halt(0));
+                break;
+
+            case BananaOpcodes.PUSH_FROM_INDEX: {
+                int index = code[pc + 1];
+                if (depth == UNKNOWN) {
+                    method.op(BananaClassWriter.ALOAD_2);
+                    method.op(BananaClassWriter.ALOAD_0);
+                    pushInt(index);
+                    method.op(BananaClassWriter.INVOKEVIRTUAL, pushFromIndex);
+                } else if (index >= 0 && index < depth) {
+                    method.op(BananaClassWriter.ALOAD_0);
+                    method.op(BananaClassWriter.DUP);
+                    pushInt(index);
+                    method.op(BananaClassWriter.INVOKEVIRTUAL, stackGet);
+                    method.op(BananaClassWriter.INVOKEVIRTUAL, stackPush);
+                } else {
+                    error(BananaInterpreter.indexErrorMessage(index, depth));
+                }
+                break;
+            }
+
+            case BananaOpcodes.ADD:
+            case BananaOpcodes.SUBTRACT:
+            case BananaOpcodes.MULTIPLY:
+            case BananaOpcodes.DIVIDE:
+            case BananaOpcodes.MODULUS: {
+                int next = checkDepth(depth, 2, op, -1);
+                if (next != -2) {
+                    method.op(BananaClassWriter.ALOAD_0);
+                    method.op(BananaClassWriter.INVOKEVIRTUAL, stackArithmetic[op - BananaOpcodes.ADD]);
+                    bindIfUsed(next);
+                }
+                break;
+            }
+
+            case BananaOpcodes.PRINT:
+            case BananaOpcodes.PRINTC: {
+                int next = checkDepth(depth, 1, op, -1);
+                if (next != -2) {
+                    method.op(BananaClassWriter.ALOAD_1);
+                    method.op(BananaClassWriter.ALOAD_0);
+                    method.op(BananaClassWriter.INVOKEVIRTUAL, stackPop);
+                    if (op == BananaOpcodes.PRINT) {
+                        method.invokeinterface(outputPrintNumber, 3);
+                    } else {
+                        method.op(BananaClassWriter.D2I);
+                        method.invokeinterface(outputPrintChar, 2);
+                    }
+                    bindIfUsed(next);
+                }
+                break;
+            }
+
+            case BananaOpcodes.PRINT_STRING:
+                printString(strings[code[pc + 1]]);
+                break;
+
+            case BananaOpcodes.CLEAR:
+                method.op(BananaClassWriter.ALOAD_0);
+                method.op(BananaClassWriter.INVOKEVIRTUAL, stackClear);
+                break;
+
+            case BananaOpcodes.EQUALS:
+                // On underflow the error is reported and the block skipped
+                if (checkDepth(depth, 2, op, target) != -2) {
+                    method.op(BananaClassWriter.ALOAD_0);
+                    method.op(BananaClassWriter.INVOKEVIRTUAL, stackCompareTop);
+                    method.jump(BananaClassWriter.IFEQ, target);
+                }
+                break;
+
+            default:
+                error("Unknown opcode: " + op);
+                break;
+        }
+    }
+
+    /**
+     * Writes the underflow check of an instruction that needs some values.
+     * When the check fails the error is reported and control goes to the
+     * given label, or past the instruction if it is -1.
+     *
+     * @return -2 if the instruction never runs, otherwise the label to bind
+     *     after it (-1 for none)
+     */
+    private int checkDepth(int depth, int needed, int op, int skip) {
+        if (depth >= needed) {
+            return -1;
+        }
+        String message = underflowMessage(op);
+        if (depth >= 0) {
+            error(message);
+            if (skip >= 0) {
+                method.jump(BananaClassWriter.GOTO, skip);
+            }
+            return -2;
+        }
+
+        int ok = method.newLabel();
+        int next = skip >= 0 ? skip : method.newLabel();
+        method.op(BananaClassWriter.ALOAD_0);
+        if (needed == 1) {
+            method.op(BananaClassWriter.INVOKEVIRTUAL, stackIsEmpty);
+            method.jump(BananaClassWriter.IFEQ, ok);
+        } else {
+            method.op(BananaClassWriter.INVOKEVIRTUAL, stackSize);
+            method.op(BananaClassWriter.ICONST_0 + needed);
+            method.jump(BananaClassWriter.IF_ICMPGE, ok);
+        }
+        error(message);
+        method.jump(BananaClassWriter.GOTO, next);
+        method.bind(ok);
+        return skip >= 0 ? -1 : next;
+    }
+
+    /** Same messages as {@link BananaInterpreter}. */
+    private static String underflowMessage(int op) {
+        switch (op) {
+            case BananaOpcodes.PRINT:
+            case BananaOpcodes.PRINTC:
+                return "PRINT needs 1 value!";
+            default:
+                return BananaOpcodes.name(op) + " needs 2 values!";
+        }
+    }
+
+    private void bindIfUsed(int label) {
+        if (label >= 0) {
+            method.bind(label);
+        }
+    }
+
+    /**
+     * Returns the label of a pc in the chunk being written, creating it if needed.
+     */
+    private int label(int pc) {
+        if (labels[pc] < 0) {
+            labels[pc] = method.newLabel();
+        }
+        return labels[pc];
+    }
+
+    /**
+     * Returns the label of the code that stops the program from a given depth.
+     */
+    private int halt(int depth) {
+        if (halts[depth] < 0) {
+            halts[depth] = method.newLabel();
+        }
+        return halts[depth];
+    }
+
+    /**
+     * Returns how many list slots are in locals at a pc.
+     */
+    private int frame(int pc) {
+        return registers ? Math.max(depths[pc], 0) : 0;
+    }
+
+    private static int register(int slot) {
+        return FIRST_REGISTER + 2 * slot;
+    }
+
+    /**
+     * Pushes the list slots kept in locals onto the {@link BananaStack}.
+     */
+    private void materialize(int depth) {
+        for (int i = 0; i < depth; i++) {
+            method.op(BananaClassWriter.ALOAD_0);
+            method.local(BananaClassWriter.DLOAD, register(i));
+            method.op(BananaClassWriter.INVOKEVIRTUAL, stackPush);
+        }
+    }
+
+    private int materializeSize(int pc) {
+        return 8 * Math.max(depths[pc], 0);
+    }
+
+    private void printString(String text) {
+        for (int from = 0; from < text.length();) {
+            int to = Math.min(text.length(), from + MAX_PIECE_LENGTH);
+            if (to < text.length() && Character.isHighSurrogate(text.charAt(to - 1))) {
+                // Keep surrogate pairs in one piece
+                to--;
+            }
+            method.op(BananaClassWriter.ALOAD_1);
+            method.ldc(writer.string(text.substring(from, to)));
+            method.invokeinterface(outputPrint, 2);
+            from = to;
+        }
+    }
+
+    private void error(String message) {
+        method.op(BananaClassWriter.ALOAD_1);
+        method.ldc(writer.string(message));
+        method.invokeinterface(outputError, 2);
+    }
+
+    private void pushDouble(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        if (bits == 0L) {
+            method.op(BananaClassWriter.DCONST_0);
+        } else if (bits == Double.doubleToRawLongBits(1.0)) {
+            method.op(BananaClassWriter.DCONST_1);
+        } else {
+            method.op(BananaClassWriter.LDC2_W, writer.doubleConstant(value));
+        }
+    }
+
+    private void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            method.op(BananaClassWriter.ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            method.bipush(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            method.op(BananaClassWriter.SIPUSH, value & 0xFFFF);
+        } else {
+            method.ldc(writer.integer(value));
+        }
+    }
+
+    /**
+     * Works out the stack depth before every instruction, for a run that
+     * enters at start with startDepth values. Jumps only go forward, so one pass
+     * is enough.
+     */
+    private static int[] analyzeDepths(int[] code, int start, int startDepth) {
+        int[] depths = new int[code.length + 1];
+        Arrays.fill(depths, UNREACHED);
+        depths[start] = startDepth;
+        for (int pc = start; pc < code.length; pc += BananaOpcodes.length(code[pc])) {
+            int depth = depths[pc];
+            if (depth == UNREACHED) {
+                continue;
+            }
+            int next = pc + BananaOpcodes.length(code[pc]);
+            int after;
+            switch (code[pc]) {
+                case BananaOpcodes.PUSH:
+                case BananaOpcodes.PUSH_INPUT:
+                    after = depth == UNKNOWN ? UNKNOWN : depth + 1;
+                    break;
+                case BananaOpcodes.PUSH_FROM_INDEX:
+                    after = depth == UNKNOWN ? UNKNOWN
+                        : code[pc + 1] >= 0 && code[pc + 1] < depth ? depth + 1 : depth;
+                    break;
+                case BananaOpcodes.ADD:
+                case BananaOpcodes.SUBTRACT:
+                case BananaOpcodes.MULTIPLY:
+                case BananaOpcodes.DIVIDE:
+                case BananaOpcodes.MODULUS:
+                    after = depth >= 2 ? depth - 1 : depth;
+                    break;
+                case BananaOpcodes.PRINT:
+                case BananaOpcodes.PRINTC:
+                    after = depth >= 1 ? depth - 1 : depth;
+                    break;
+                case BananaOpcodes.CLEAR:
+                    after = 0;
+                    break;
+                case BananaOpcodes.EQUALS: {
+                    int target = code[pc + 1];
+                    if (depth >= 0 && depth < 2) {
+                        // Always fails: reports the error and skips the block
+                        depths[target] = merge(depths[target], depth);
+                        after = UNREACHED;
+                    } else {
+                        after = depth == UNKNOWN ? UNKNOWN : depth - 1;
+                        depths[target] = merge(depths[target], after);
+                    }
+                    break;
+                }
+                default:
+                    after = depth;
+                    break;
+            }
+            depths[next] = merge(depths[next], after);
+        }
+        return depths;
+    }
+
+    private static int merge(int a, int b) {
+        if (a == UNREACHED) {
+            return b;
+        }
+        if (b == UNREACHED || a == b) {
+            return a;
+        }
+        return UNKNOWN;
+    }
+
+    private void resolveMembers() {
+        stackPush = writer.methodRef(STACK, "push", "(D)V");
+        stackGet = writer.methodRef(STACK, "get", "(I)D");
+        stackSize = writer.methodRef(STACK, "size", "()I");
+        stackIsEmpty = writer.methodRef(STACK, "isEmpty", "()Z");
+        stackPop = writer.methodRef(STACK, "pop", "()D");
+        stackClear = writer.methodRef(STACK, "clear", "()V");
+        stackCompareTop = writer.methodRef(STACK, "compareTop", "()Z");
+        stackArithmetic = new int[] {
+            writer.methodRef(STACK, "add", "()V"),
+            writer.methodRef(STACK, "subtract", "()V"),
+            writer.methodRef(STACK, "multiply", "()V"),
+            writer.methodRef(STACK, "divide", "()V"),
+            writer.methodRef(STACK, "modulus", "()V"),
+        };
+        outputPrint = writer.interfaceMethodRef(OUTPUT, "print", "(Ljava/lang/String;)V");
+        outputPrintNumber = writer.interfaceMethodRef(OUTPUT, "printNumber", "(D)V");
+        outputPrintChar = writer.interfaceMethodRef(OUTPUT, "printChar", "(I)V");
+        outputError = writer.interfaceMethodRef(OUTPUT, "error", "(Ljava/lang/String;)V");
+        readInput = writer.methodRef(INTERPRETER, "readInput", "()D");
+        pushInput = writer.methodRef(INTERPRETER, "pushInput", "(L" + STACK + ";)Z");
+        pushFromIndex = writer.methodRef(INTERPRETER, "pushFromIndex", "(L" + STACK + ";I)V");
+    }
+
+    private static BananaCompiledCode load(byte[] classFile) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+            MethodHandle run = lookup.findStatic(lookup.lookupClass(), "run",
+                MethodType.methodType(void.class, BananaStack.class, BananaOutput.class, BananaInterpreter.class));
+            return new BananaCompiledCode(run);
+        } catch (IllegalAccessException | NoSuchMethodException e) {
+            throw new IllegalStateException("Generated class cannot be loaded", e);
+        }
+    }
+}
@@ -0,0 +1,446 @@
+package bananalang;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal writer for JVM class files, just enough for
+ * {@link BananaBytecodeCompiler}: a constant pool, static methods, branches,
+ * and StackMapTable frames for methods whose locals are their parameters
+ * followed by some number of doubles.
+ */
+final class BananaClassWriter {
+
+    /** Largest constant pool index a class file can hold. */
+    static final int MAX_CONSTANTS = 0xFFFF;
+
+    // Opcodes used by the compiler
+    static final int ICONST_0 = 0x03;
+    static final int ICONST_1 = 0x04;
+    static final int ICONST_2 = 0x05;
+    static final int DCONST_0 = 0x0E;
+    static final int DCONST_1 = 0x0F;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC = 0x12;
+    static final int LDC_W = 0x13;
+    static final int LDC2_W = 0x14;
+    static final int DLOAD = 0x18;
+    static final int ALOAD_0 = 0x2A;
+    static final int ALOAD_1 = 0x2B;
+    static final int ALOAD_2 = 0x2C;
+    static final int DSTORE = 0x39;
+    static final int DUP = 0x59;
+    static final int DUP2 = 0x5C;
+    static final int DADD = 0x63;
+    static final int DSUB = 0x67;
+    static final int DMUL = 0x6B;
+    static final int DDIV = 0x6F;
+    static final int DREM = 0x73;
+    static final int D2I = 0x8E;
+    static final int DCMPL = 0x97;
+    static final int DCMPG = 0x98;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9A;
+    static final int IFLT = 0x9B;
+    static final int IF_ICMPGE = 0xA2;
+    static final int GOTO = 0xA7;
+    static final int IRETURN = 0xAC;
+    static final int RETURN = 0xB1;
+    static final int INVOKEVIRTUAL = 0xB6;
+    static final int INVOKESTATIC = 0xB8;
+    static final int INVOKEINTERFACE = 0xB9;
+    static final int WIDE = 0xC4;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+    private static final int CLASS_VERSION = 61; // Java 17
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<Object, Integer> entries = new HashMap<>();
+    private int constantCount = 1;
+    private final int thisClass;
+    private final int superClass;
+    private final List<Method> methods = new ArrayList<>();
+
+    /**
+     * Creates a writer for a final class extending Object.
+     *
+     * @param internalName the class name with slashes, e.g. "bananalang/Foo"
+     */
+    BananaClassWriter(String internalName) {
+        thisClass = classRef(internalName);
+        superClass = classRef("java/lang/Object");
+    }
+
+    /**
+     * Returns how many constant pool slots are in use, including slot 0.
+     *
+     * @return the constant pool count
+     */
+    int constantCount() {
+        return constantCount;
+    }
+
+    int utf8(String value) {
+        Integer index = entries.get(value);
+        if (index == null) {
+            index = add(1, 1);
+            write(() -> poolOut.writeUTF(value));
+            entries.put(value, index);
+        }
+        return index;
+    }
+
+    int classRef(String internalName) {
+        return reference("C", 7, utf8(internalName));
+    }
+
+    int string(String value) {
+        return reference("S", 8, utf8(value));
+    }
+
+    int integer(int value) {
+        List<Object> key = Arrays.asList("I", value);
+        Integer index = entries.get(key);
+        if (index == null) {
+            index = add(3, 1);
+            write(() -> poolOut.writeInt(value));
+            entries.put(key, index);
+        }
+        return index;
+    }
+
+    int doubleConstant(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        List<Object> key = Arrays.asList("D", bits);
+        Integer index = entries.get(key);
+        if (index == null) {
+            index = add(6, 2);
+            write(() -> poolOut.writeLong(bits));
+            entries.put(key, index);
+        }
+        return index;
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return memberRef(10, owner, name, descriptor);
+    }
+
+    int interfaceMethodRef(String owner, String name, String descriptor) {
+        return memberRef(11, owner, name, descriptor);
+    }
+
+    /**
+     * Adds a public static method. Its code is written through the returned
+     * {@link Method}.
+     *
+     * @param parameterClasses the internal class names of the parameters,
+     *     which must all be references
+     */
+    Method method(String name, String descriptor, int maxStack, String... parameterClasses) {
+        int[] classes = new int[parameterClasses.length];
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = classRef(parameterClasses[i]);
+        }
+        Method method = new Method(utf8(name), utf8(descriptor), maxStack, classes);
+        methods.add(method);
+        return method;
+    }
+
+    /**
+     * Returns the class file.
+     *
+     * @return the class file bytes
+     */
+    byte[] toByteArray() {
+        int codeName = utf8("Code");
+        int frameName = utf8("StackMapTable");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        write(() -> {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(CLASS_VERSION);
+            out.writeShort(constantCount);
+            pool.writeTo(out);
+            out.writeShort(ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(methods.size());
+            for (Method method : methods) {
+                method.writeTo(out, codeName, frameName);
+            }
+            out.writeShort(0); // attributes
+        });
+        return bytes.toByteArray();
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        int classIndex = classRef(owner);
+        int nameAndType = reference("N", 12, utf8(name), utf8(descriptor));
+        return reference(tag == 10 ? "M" : "IM", tag, classIndex, nameAndType);
+    }
+
+    private int reference(String kind, int tag, int... indexes) {
+        List<Object> key = new ArrayList<>();
+        key.add(kind);
+        for (int index : indexes) {
+            key.add(index);
+        }
+        Integer index = entries.get(key);
+        if (index == null) {
+            index = add(tag, 1);
+            for (int value : indexes) {
+                write(() -> poolOut.writeShort(value));
+            }
+            entries.put(key, index);
+        }
+        return index;
+    }
+
+    private int add(int tag, int slots) {
+        int index = constantCount;
+        constantCount += slots;
+        write(() -> poolOut.writeByte(tag));
+        return index;
+    }
+
+    private interface Write {
+        void run() throws IOException;
+    }
+
+    private static void write(Write write) {
+        try {
+            write.run();
+        } catch (IOException e) {
+            // Only in-memory streams are written
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The code of one method. Labels are plain ints from {@link #newLabel()};
+     * every bound label gets a stack map frame, so a label may be bound right
+     * after a goto or return. The frame says how many double locals follow the
+     * parameters there; the operand stack is always empty at a label.
+     */
+    final class Method {
+
+        private final int name;
+        private final int descriptor;
+        private final int maxStack;
+        private final int[] parameterClasses;
+        private int maxLocals;
+        private byte[] code = new byte[256];
+        private int size;
+        private int[] labelOffsets = new int[16];
+        private int[] labelDoubles = new int[16];
+        private int labelCount;
+        // Branch instructions waiting for their label: instruction offset, label
+        private int[] fixups = new int[32];
+        private int fixupCount;
+
+        private Method(int name, int descriptor, int maxStack, int[] parameterClasses) {
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxStack = maxStack;
+            this.parameterClasses = parameterClasses;
+            this.maxLocals = parameterClasses.length;
+        }
+
+        /** Returns the number of code bytes written so far. */
+        int size() {
+            return size;
+        }
+
+        /** Writes an instruction without operands. */
+        void op(int opcode) {
+            u1(opcode);
+        }
+
+        /** Writes an instruction with a constant pool index or short operand. */
+        void op(int opcode, int operand) {
+            u1(opcode);
+            u2(operand);
+        }
+
+        /** Writes a bipush. */
+        void bipush(int value) {
+            u1(BIPUSH);
+            u1(value);
+        }
+
+        /** Loads a constant pool entry that takes one slot. */
+        void ldc(int index) {
+            if (index < 256) {
+                u1(LDC);
+                u1(index);
+            } else {
+                op(LDC_W, index);
+            }
+        }
+
+        /** Loads or stores a double local. */
+        void local(int opcode, int index) {
+            maxLocals = Math.max(maxLocals, index + 2);
+            if (index < 256) {
+                u1(opcode);
+                u1(index);
+            } else {
+                u1(WIDE);
+                op(opcode, index);
+            }
+        }
+
+        /** Calls an interface method; count is the size of the arguments in slots plus one. */
+        void invokeinterface(int index, int count) {
+            op(INVOKEINTERFACE, index);
+            u1(count);
+            u1(0);
+        }
+
+        int newLabel() {
+            if (labelCount == labelOffsets.length) {
+                labelOffsets = Arrays.copyOf(labelOffsets, labelCount * 2);
+                labelDoubles = Arrays.copyOf(labelDoubles, labelCount * 2);
+            }
+            labelOffsets[labelCount] = -1;
+            return labelCount++;
+        }
+
+        /**
+         * Remembers how far the method has been written, for {@link #reset}.
+         */
+        int[] mark() {
+            return new int[] {size, labelCount, fixupCount};
+        }
+
+        /**
+         * Drops everything written since a mark. Constant pool entries stay.
+         */
+        void reset(int[] mark) {
+            size = mark[0];
+            labelCount = mark[1];
+            fixupCount = mark[2];
+        }
+
+        /** Binds a label where only the parameters are live. */
+        void bind(int label) {
+            bind(label, 0);
+        }
+
+        /** Binds a label where the given number of double locals are live. */
+        void bind(int label, int doubles) {
+            labelOffsets[label] = size;
+            labelDoubles[label] = doubles;
+        }
+
+        /** Writes a branch instruction to a label, bound now or later. */
+        void jump(int opcode, int label) {
+            if (fixupCount == fixups.length) {
+                fixups = Arrays.copyOf(fixups, fixupCount * 2);
+            }
+            fixups[fixupCount++] = size;
+            fixups[fixupCount++] = label;
+            op(opcode, 0);
+        }
+
+        private void writeTo(DataOutputStream out, int codeName, int frameName) throws IOException {
+            for (int i = 0; i < fixupCount; i += 2) {
+                int offset = labelOffsets[fixups[i + 1]] - fixups[i];
+                code[fixups[i] + 1] = (byte) (offset >> 8);
+                code[fixups[i] + 2] = (byte) offset;
+            }
+
+            // Frames sorted by offset, then by doubles: labels bound at the same
+            // offset (after code that wrote nothing) share the smallest frame
+            long[] bound = new long[labelCount];
+            for (int label = 0; label < labelCount; label++) {
+                bound[label] = ((long) labelOffsets[label] << 32) | labelDoubles[label];
+            }
+            Arrays.sort(bound);
+
+            ByteArrayOutputStream frames = new ByteArrayOutputStream();
+            DataOutputStream frameOut = new DataOutputStream(frames);
+            int frameCount = 0;
+            int previous = -1;
+            int previousDoubles = 0;
+            for (long entry : bound) {
+                int offset = (int) (entry >> 32);
+                int doubles = (int) entry;
+                if (offset <= previous || offset >= size) {
+                    continue;
+                }
+                int delta = offset - previous - 1;
+                if (doubles != 0 || previousDoubles != 0) {
+                    frameOut.writeByte(255); // full_frame
+                    frameOut.writeShort(delta);
+                    frameOut.writeShort(parameterClasses.length + doubles);
+                    for (int parameterClass : parameterClasses) {
+                        frameOut.writeByte(7); // Object
+                        frameOut.writeShort(parameterClass);
+                    }
+                    for (int i = 0; i < doubles; i++) {
+                        frameOut.writeByte(3); // Double
+                    }
+                    frameOut.writeShort(0);
+                } else if (delta < 64) {
+                    frameOut.writeByte(delta); // same_frame
+                } else {
+                    frameOut.writeByte(251); // same_frame_extended
+                    frameOut.writeShort(delta);
+                }
+                frameCount++;
+                previous = offset;
+                previousDoubles = doubles;
+            }
+
+            out.writeShort(ACC_PUBLIC | ACC_STATIC);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            int frameLength = frameCount == 0 ? 0 : 8 + frames.size();
+            out.writeInt(12 + size + frameLength);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(size);
+            out.write(code, 0, size);
+            out.writeShort(0); // exception table
+            if (frameCount == 0) {
+                out.writeShort(0);
+            } else {
+                out.writeShort(1);
+                out.writeShort(frameName);
+                out.writeInt(2 + frames.size());
+                out.writeShort(frameCount);
+                frames.writeTo(out);
+            }
+        }
+
+        private void u1(int value) {
+            if (size == code.length) {
+                code = Arrays.copyOf(code, size * 2);
+            }
+            code[size++] = (byte) value;
+        }
+
+        private void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package bananalang;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Thin client for {@link BananaServer}: sends one program with all of
+ * standard input to a running server and prints what it sends back. It
+ * loads only a handful of classes, so a run costs little more than the
+ * program itself.
+ */
+public class BananaClient {
+
+    /**
+     * Exit status when the server cannot be reached or rejects the job. The
+     * job's own statuses are the {@code EXIT_} constants of {@link BananaServer}.
+     */
+    private static final int EXIT_NO_SERVER = 4;
+
+    /**
+     * Runs a program on a server.
+     *
+     * @param args - the program file, optionally preceded by
+     *     {@code --port <n>} and {@code --source}, which sends the file's
+     *     contents instead of its path
+     */
+    public static void main(String[] args) {
+        int port = BananaServer.DEFAULT_PORT;
+        boolean sendSource = false;
+        String file = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--port") && i + 1 < args.length) {
+                try {
+                    port = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.err.println("Invalid port: " + args[i]);
+                    System.exit(EXIT_NO_SERVER);
+                }
+            } else if (args[i].equals("--source")) {
+                sendSource = true;
+            } else {
+                file = args[i];
+            }
+        }
+        if (file == null) {
+            System.out.println("🍌 Usage: java bananalang.BananaClient [--port <n>] [--source] <file.banana> < input");
+            return;
+        }
+        System.exit(run(port, Paths.get(file), sendSource));
+    }
+
+    private static int run(int port, Path file, boolean sendSource) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        String query;
+        try {
+            if (sendSource) {
+                byte[] source = Files.readAllBytes(file);
+                body.write(source);
+                query = "source-length=" + source.length;
+            } else {
+                query = "path=" + URLEncoder.encode(file.toAbsolutePath().toString(), "UTF-8");
+            }
+            if (System.console() == null) {
+                // Input is sent up front, so only read it when it is piped in
+                System.in.transferTo(body);
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading file: " + e.getMessage());
+            return BananaServer.EXIT_IO_ERROR;
+        }
+
+        try {
+            HttpURLConnection connection = (HttpURLConnection)
+                new URL("http", "127.0.0.1", port, "/run?" + query).openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.size());
+            try (OutputStream out = connection.getOutputStream()) {
+                body.writeTo(out);
+            }
+
+            int status = connection.getResponseCode();
+            InputStream response = status == HttpURLConnection.HTTP_OK
+                ? connection.getInputStream() : connection.getErrorStream();
+            if (response != null) {
+                try (InputStream in = response) {
+                    in.transferTo(status == HttpURLConnection.HTTP_OK ? System.out : System.err);
+                }
+            }
+            System.out.flush();
+            String exit = connection.getHeaderField(BananaServer.EXIT_HEADER);
+            return status == HttpURLConnection.HTTP_OK && exit != null ? Integer.parseInt(exit) : EXIT_NO_SERVER;
+        } catch (IOException e) {
+            System.err.println("Error reaching server on port " + port + ": " + e.getMessage());
+            return EXIT_NO_SERVER;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package bananalang;
+
+/**
+ * A program compiled by {@link BananaClosureCompiler} into a graph of nodes.
+ * Each node holds its operands and direct references to the node that runs
+ * next, so nothing is decoded while the program runs. The nodes report the
+ * same errors and call the same {@link BananaOutput} methods as
+ * {@link BananaInterpreter}.
+ */
+public final class BananaClosureCode {
+
+    private final Node[] entries;
+
+    BananaClosureCode(Node[] entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Runs the program from its first instruction.
+     *
+     * @param stack the list to work on
+     * @param output where PRINT, PRINTC and errors are written to
+     * @param interpreter the interpreter whose input PUSH_INPUT reads
+     */
+    void run(BananaStack stack, BananaOutput output, BananaInterpreter interpreter) {
+        run(0, stack, output, interpreter);
+    }
+
+    /**
+     * Runs the program from an instruction, on whatever the list holds.
+     *
+     * @param pc the instruction to start at; the code length runs nothing
+     * @param stack the list to work on
+     * @param output where PRINT, PRINTC and errors are written to
+     * @param interpreter the interpreter whose input PUSH_INPUT reads
+     */
+    void run(int pc, BananaStack stack, BananaOutput output, BananaInterpreter interpreter) {
+        Node node = entries[pc];
+        while (node != null) {
+            node = node.execute(stack, output, interpreter);
+        }
+    }
+
+    /**
+     * One instruction of the program.
+     */
+    abstract static class Node {
+
+        /**
+         * Runs the instruction.
+         *
+         * @return the node to run next, or null to stop the program
+         */
+        abstract Node execute(BananaStack stack, BananaOutput output, BananaInterpreter interpreter);
+    }
+
+    static final class Push extends Node {
+        private final double value;
+        private final Node next;
+
+        Push(double value, Node next) {
+            this.value = value;
+            this.next = next;
+        }
+
+        @Override
+        Node execute(BananaStack stack, BananaOutput output, BananaInterpreter interpreter) {
+            stack.push(value);
+            return next;
+        }
+    }
+
+    static final class PushInput extends Node {
+        private final Node next;
+
+        PushInput(Node next) {
+            this.next = next;
+        }
+
+        @Override
+        Node execute(BananaStack stack, BananaOutput output, BananaInterpreter interpreter) {
+            return interpreter.pushInput(stack) ? next : null;
+        }
+    }
+
+    static final class PushFromIndex extends Node {
+        private final int index;
+        private final Node next;
+
+        PushFromIndex(int index, Node next) {
+            this.index = index;
+            this.next = next;
+        }
+
+        @Override
+        Node execute(BananaStack stack, BananaOutput output, BananaInterpreter interpreter) {
+            interpreter.pushFromIndex(stack, index);
+            return next;
+        }
+    }
+
+    static final class Add extends Node {
+        private final Node next;
+
+        Add(Node next) {
+            this.next = next;
+        }
+
+        @Override
+        Node execute(BananaStack stack, BananaOutput output, BananaInterpreter interpreter) {
+            if (stack.size() < 2) {
+                output.error("ADD needs 2 values!");
+            } else {
+                stack.add();
+            }
+            return next;
+        }
+    }
+
+    static final class Subtract extends Node {
+        private final Node next;
+
+        Subtract(Node next) {
+            this.next = next;
+        }
+
+        @Override
+        Node execute(BananaStack stack, BananaOutput output, BananaInterpreter interpreter) {
+            if (stack.size() < 2) {
+                output.error("SUBTRACT needs 2 values!");
+            } else {
+                stack.subtract();
+            }
+            return next;
+        }
+    }
+
+    static final class Multiply extends Node {
+        private final Node next;
+
+        Multiply(Node next) {
+            this.next = next;
+        }
+
+        @Override
+        Node execute(BananaStack stack, BananaOutput output, BananaInterpreter interpreter) {
+            if (stack.size() < 2) {
+                output.error("MULTIPLY needs 2 values!");
+            } else {
+                stack.multiply();
+            }
+            return next;
+        }
+    }
+
+    static final class Divide extends Node {
+        private final Node next;
+
+        Divide(Node next) {
+            this.next = next;
+        }
+
+        @Override
+        Node execute(BananaStack stack, BananaOutput output, BananaInterpreter interpreter) {
+            if (stack.size() < 2) {
+                output.error("DIVIDE needs 2 values!");
+            } else {
+                stack.divide();
+            }
+            return next;
+        }
+    }
+
+    static final class Modulus extends Node {
+        private final Node next;
+
+        Modulus(Node next) {
+            this.next = next;
+        }
+
+        @Override
+        Node execute(BananaStack stack, BananaOutput output, BananaInterpreter interpreter) {
+            if (stack.size() < 2) {
+                output.error("MODULUS needs 2 values!");
+            } else {
+                stack.modulus();
+            }
+            return next;
+        }
+    }
+
+    static final class Print extends Node {
+        private final Node next;
+
+        Print(Node next) {
+            this.next = next;
+        }
+
+        @Override
+        Node execute(BananaStack stack, BananaOutput output, BananaInterpreter interpreter) {
+            if (stack.isEmpty()) {
+                output.error("PRINT needs 1 value!");
+            } else {
+                output.printNumber(stack.pop());
+            }
+            return next;
+        }
+    }
+
+    static final class PrintChar extends Node {
+        private final Node next;
+
+        PrintChar(Node next) {
+            this.next = next;
+        }
+
+        @Override
+        Node execute(BananaStack stack, BananaOutput output, BananaInterpreter interpreter) {
+            if (stack.isEmpty()) {
+                output.error("PRINT needs 1 value!");
+            } else {
+                output.printChar((int) stack.pop());
+            }
+            return next;
+        }
+    }
+
+    static final class PrintString extends Node {
+        private final String text;
+        private final Node next;
+
+        PrintString(String text, Node next) {
+            this.text = text;
+            this.next = next;
+        }
+
+        @Override
+        Node execute(BananaStack stack, BananaOutput output, BananaInterpreter interpreter) {
+            output.print(text);
+            return next;
+        }
+    }
+
+    static final class Clear extends Node {
+        private final Node next;
+
+        Clear(Node next) {
+            this.next = next;
+        }
+
+        @Override
+        Node execute(BananaStack stack, BananaOutput output, BananaInterpreter interpreter) {
+            stack.clear();
+            return next;
+        }
+    }
+
+    static final class Equals extends Node {
+        private final Node equal;
+        private final Node notEqual;
+
+        /**
+         * @param equal the first node of the block
+         * @param notEqual the node after the matching ︶
+         */
+        Equals(Node equal, Node notEqual) {
+            this.equal = equal;
+            this.notEqual = notEqual;
+        }
+
+        @Override
+        Node execute(BananaStack stack, BananaOutput output, BananaInterpreter interpreter) {
+            if (stack.size() < 2) {
+                output.error("EQUALS needs 2 values!");
+                return notEqual;
+            }
+            return stack.compareTop() ? equal : notEqual;
+        }
+    }
+
+    static final class Unknown extends Node {
+        private final int op;
+        private final Node next;
+
+        Unknown(int op, Node next) {
+            this.op = op;
+            this.next = next;
+        }
+
+        @Override
+        Node execute(BananaStack stack, BananaOutput output, BananaInterpreter interpreter) {
+            output.error("Unknown opcode: " + op);
+            return next;
+        }
+    }
+}
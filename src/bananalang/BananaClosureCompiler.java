@@ -0,0 +1,87 @@
+package bananalang;
+
+/**
+ * Compiles a {@link BananaProgram} into a {@link BananaClosureCode}: one
+ * pre-bound node per instruction, each linked straight to its successors.
+ * This skips the interpreter's decoding without generating classes, so it
+ * costs little more than one pass over the code.
+ */
+public final class BananaClosureCompiler {
+
+    private BananaClosureCompiler() {
+    }
+
+    /**
+     * Compiles a program into nodes.
+     *
+     * @param program the program to compile
+     * @return the compiled code, which can start at any instruction
+     */
+    public static BananaClosureCode compile(BananaProgram program) {
+        int[] code = program.getCode();
+        double[] constants = program.getConstants();
+        String[] strings = program.getStrings();
+
+        int count = 0;
+        int[] starts = new int[code.length];
+        for (int pc = 0; pc < code.length; pc += BananaOpcodes.length(code[pc])) {
+            starts[count++] = pc;
+        }
+
+        // Jumps only go forward, so building from the end finds every
+        // successor already built
+        BananaClosureCode.Node[] entries = new BananaClosureCode.Node[code.length + 1];
+        for (int i = count - 1; i >= 0; i--) {
+            int pc = starts[i];
+            int op = code[pc];
+            BananaClosureCode.Node next = entries[pc + BananaOpcodes.length(op)];
+            BananaClosureCode.Node node;
+            switch (op) {
+                case BananaOpcodes.PUSH:
+                    node = new BananaClosureCode.Push(constants[code[pc + 1]], next);
+                    break;
+                case BananaOpcodes.PUSH_INPUT:
+                    node = new BananaClosureCode.PushInput(next);
+                    break;
+                case BananaOpcodes.PUSH_FROM_INDEX:
+                    node = new BananaClosureCode.PushFromIndex(code[pc + 1], next);
+                    break;
+                case BananaOpcodes.ADD:
+                    node = new BananaClosureCode.Add(next);
+                    break;
+                case BananaOpcodes.SUBTRACT:
+                    node = new BananaClosureCode.Subtract(next);
+                    break;
+                case BananaOpcodes.MULTIPLY:
+                    node = new BananaClosureCode.Multiply(next);
+                    break;
+                case BananaOpcodes.DIVIDE:
+                    node = new BananaClosureCode.Divide(next);
+                    break;
+                case BananaOpcodes.MODULUS:
+                    node = new BananaClosureCode.Modulus(next);
+                    break;
+                case BananaOpcodes.PRINT:
+                    node = new BananaClosureCode.Print(next);
+                    break;
+                case BananaOpcodes.PRINTC:
+                    node = new BananaClosureCode.PrintChar(next);
+                    break;
+                case BananaOpcodes.PRINT_STRING:
+                    node = new BananaClosureCode.PrintString(strings[code[pc + 1]], next);
+                    break;
+                case BananaOpcodes.CLEAR:
+                    node = new BananaClosureCode.Clear(next);
+                    break;
+                case BananaOpcodes.EQUALS:
+                    node = new BananaClosureCode.Equals(next, entries[code[pc + 1]]);
+                    break;
+                default:
+                    node = new BananaClosureCode.Unknown(op, next);
+                    break;
+            }
+            entries[pc] = node;
+        }
+        return new BananaClosureCode(entries);
+    }
+}
@@ -0,0 +1,18 @@
+package bananalang;
+
+/**
+ * Thrown when a Banana program cannot be compiled.
+ */
+public class BananaCompileException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates a new compile exception.
+     * 
+     * @param message the error message
+     */
+    public BananaCompileException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,34 @@
+package bananalang;
+
+import java.lang.invoke.MethodHandle;
+
+/**
+ * A program compiled to JVM bytecode by {@link BananaBytecodeCompiler}. The
+ * generated class is a hidden class, unloaded once this object is unreachable.
+ */
+public final class BananaCompiledCode {
+
+    private final MethodHandle run;
+
+    BananaCompiledCode(MethodHandle run) {
+        this.run = run;
+    }
+
+    /**
+     * Runs the program.
+     * 
+     * @param stack the list to work on; it must be empty
+     * @param output where PRINT, PRINTC and errors are written to
+     * @param interpreter the interpreter whose input PUSH_INPUT reads
+     */
+    void run(BananaStack stack, BananaOutput output, BananaInterpreter interpreter) {
+        try {
+            run.invokeExact(stack, output, interpreter);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            // The generated code declares no checked exceptions
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package bananalang;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class compiles Banana code into a {@link BananaProgram}, so number
+ * literals are only parsed once and every EQUALS already knows where its
+ * matching ︶ is. Code and files are parsed straight into instructions; a
+ * command list from {@link BananaParser#parse(String)} can be compiled too.
+ * Compiled programs go through a {@link BananaOptimizer} unless it is turned off.
+ */
+public class BananaCompiler {
+
+    private final BananaOptimizer optimizer;
+    private BananaOutput warnings;
+
+    private int[] code = new int[64];
+    private int size = 0;
+    private double[] constants = new double[16];
+    private int constantCount = 0;
+    // Open-addressing table from constant bits to pool index + 1 (0 = empty)
+    private long[] constantKeys = new long[32];
+    private int[] constantSlots = new int[32];
+    private String[] strings = new String[0];
+    private int stringCount = 0;
+    private BananaSourceMap sourceMap = new BananaSourceMap();
+
+    // EQUALS instructions still waiting for their ︶: pc, line and column
+    private int[] openBlocks = new int[24];
+    private int openCount = 0;
+
+    /**
+     * Creates a compiler that optimizes the programs it compiles.
+     */
+    public BananaCompiler() {
+        this(new BananaOptimizer());
+    }
+
+    /**
+     * Creates a compiler with the given optimizer.
+     * 
+     * @param optimizer the optimizer to run on every compiled program, or null
+     *     to leave programs exactly as written
+     */
+    public BananaCompiler(BananaOptimizer optimizer) {
+        this.optimizer = optimizer;
+    }
+
+    /**
+     * Sets where warnings about unknown tokens go when code or files are
+     * parsed. By default they are printed to standard output.
+     * 
+     * @param warnings the output for warnings
+     */
+    public void setWarnings(BananaOutput warnings) {
+        this.warnings = warnings;
+    }
+
+    /**
+     * Parses and compiles Banana code. The code is not preprocessed.
+     * 
+     * @param code the Banana language code
+     * @return the compiled program
+     * @throws BananaCompileException if the code is malformed
+     */
+    public BananaProgram compile(String code) {
+        reset();
+        new BananaParser(this).parse(code);
+        return finish();
+    }
+
+    /**
+     * Streams a program file through the preprocessor and parser and compiles it.
+     * 
+     * @param file the UTF-8 program file
+     * @return the compiled program
+     * @throws IOException if the file cannot be read
+     * @throws BananaCompileException if the code is malformed
+     */
+    public BananaProgram compile(File file) throws IOException {
+        reset();
+        new BananaParser(this).parse(file);
+        return finish();
+    }
+
+    /**
+     * Compiles lines lexed by {@link BananaSourceLines}.
+     */
+    BananaProgram compileLines(List<List<BananaParser.Token>> lines) {
+        reset();
+        new BananaParser(this).parse(lines);
+        return finish();
+    }
+
+    /**
+     * Compiles the given list of Banana language commands.
+     * 
+     * @param commands the list of commands returned by {@link BananaParser#parse(String)}
+     * @return the compiled program
+     * @throws BananaCompileException if the commands are malformed
+     */
+    public BananaProgram compile(List<String> commands) {
+        return compile(commands, new BananaSourceMap());
+    }
+
+    /**
+     * Compiles the given list of Banana language commands, using the parser's
+     * source map to point errors and instructions at the original code.
+     * 
+     * @param commands the list of commands returned by {@link BananaParser#parse(String)}
+     * @param positions the positions returned by {@link BananaParser#getSourceMap()}
+     * @return the compiled program
+     * @throws BananaCompileException if the commands are malformed or an
+     *     EQUALS block is not balanced
+     */
+    public BananaProgram compile(List<String> commands, BananaSourceMap positions) {
+        reset();
+        for (int i = 0; i < commands.size(); i++) {
+            // Without positions, errors name the command number instead (line 0)
+            int line = positions.line(i);
+            int column = line == 0 ? i + 1 : positions.column(i);
+            String cmd = commands.get(i);
+            switch (cmd) {
+                case "PUSH_ONE": {
+                    if (++i >= commands.size()) {
+                        throw error("PUSH_ONE requires a number but none was provided", line, column);
+                    }
+                    String numberStr = commands.get(i);
+                    try {
+                        push(Double.parseDouble(numberStr), line, column);
+                    } catch (NumberFormatException e) {
+                        throw error("Invalid number after PUSH_ONE: " + numberStr, line, column);
+                    }
+                    break;
+                }
+                case "PUSH_FROM_INDEX": {
+                    if (++i >= commands.size()) {
+                        throw error("PUSH_FROM_INDEX requires an index but none was provided", line, column);
+                    }
+                    String indexStr = commands.get(i);
+                    try {
+                        pushFromIndex(Integer.parseInt(indexStr), line, column);
+                    } catch (NumberFormatException e) {
+                        throw error("Invalid index after PUSH_FROM_INDEX: " + indexStr, line, column);
+                    }
+                    break;
+                }
+                case "PUSH_INPUT":
+                    instruction(BananaOpcodes.PUSH_INPUT, line, column);
+                    break;
+                case "ADD":
+                    instruction(BananaOpcodes.ADD, line, column);
+                    break;
+                case "SUBTRACT":
+                    instruction(BananaOpcodes.SUBTRACT, line, column);
+                    break;
+                case "MULTIPLY":
+                    instruction(BananaOpcodes.MULTIPLY, line, column);
+                    break;
+                case "DIVIDE":
+                    instruction(BananaOpcodes.DIVIDE, line, column);
+                    break;
+                case "MODULUS":
+                    instruction(BananaOpcodes.MODULUS, line, column);
+                    break;
+                case "PRINT":
+                    instruction(BananaOpcodes.PRINT, line, column);
+                    break;
+                case "PRINTC":
+                    instruction(BananaOpcodes.PRINTC, line, column);
+                    break;
+                case "CLEAR":
+                    instruction(BananaOpcodes.CLEAR, line, column);
+                    break;
+                case "EQUALS":
+                    instruction(BananaOpcodes.EQUALS, line, column);
+                    break;
+                case "︶":
+                    closeBlock(line, column);
+                    break;
+                default:
+                    throw error("Unknown command: " + cmd, line, column);
+            }
+        }
+        return finish();
+    }
+
+    /**
+     * Emits a PUSH of a constant.
+     */
+    void push(double value, int line, int column) {
+        emit(BananaOpcodes.PUSH, constant(value), line, column);
+    }
+
+    /**
+     * Emits a PUSH_FROM_INDEX.
+     */
+    void pushFromIndex(int index, int line, int column) {
+        emit(BananaOpcodes.PUSH_FROM_INDEX, index, line, column);
+    }
+
+    /**
+     * Emits a PRINT_STRING of a constant piece of text.
+     */
+    void printString(String text, int line, int column) {
+        if (stringCount == strings.length) {
+            strings = Arrays.copyOf(strings, Math.max(stringCount * 2, 8));
+        }
+        strings[stringCount] = text;
+        emit(BananaOpcodes.PRINT_STRING, stringCount++, line, column);
+    }
+
+    /**
+     * Emits an instruction that takes no operand from the code. An EQUALS
+     * opens a block whose target is filled in by {@link #closeBlock}.
+     */
+    void instruction(int opcode, int line, int column) {
+        if (opcode == BananaOpcodes.EQUALS) {
+            if (openCount * 3 == openBlocks.length) {
+                openBlocks = Arrays.copyOf(openBlocks, openBlocks.length * 2);
+            }
+            openBlocks[openCount * 3] = size;
+            openBlocks[openCount * 3 + 1] = line;
+            openBlocks[openCount * 3 + 2] = column;
+            openCount++;
+            emit(BananaOpcodes.EQUALS, -1, line, column);
+        } else {
+            emit(opcode, line, column);
+        }
+    }
+
+    /**
+     * Points the innermost open EQUALS at the current end of the code.
+     */
+    void closeBlock(int line, int column) {
+        if (openCount == 0) {
+            throw error("︶ without a matching EQUALS", line, column);
+        }
+        openCount--;
+        code[openBlocks[openCount * 3] + 1] = size;
+    }
+
+    /**
+     * Reports a warning from the parser.
+     */
+    void warn(String message) {
+        if (warnings != null) {
+            warnings.print(message + System.lineSeparator());
+        } else {
+            System.out.println(message);
+        }
+    }
+
+    /**
+     * Creates a compile error pointing at a source position, and drops the
+     * half-built program.
+     */
+    BananaCompileException error(String message, int line, int column) {
+        reset();
+        return new BananaCompileException(message + " at " + BananaSourceMap.describe(line, column));
+    }
+
+    /**
+     * Checks that every block is closed and returns the program emitted so far,
+     * optimized if this compiler has an optimizer.
+     */
+    BananaProgram finish() {
+        if (openCount > 0) {
+            int innermost = (openCount - 1) * 3;
+            throw error("EQUALS is never closed by ︶", openBlocks[innermost + 1], openBlocks[innermost + 2]);
+        }
+        BananaProgram program = new BananaProgram(Arrays.copyOf(code, size),
+            Arrays.copyOf(constants, constantCount), Arrays.copyOf(strings, stringCount), sourceMap);
+        reset();
+        return optimizer == null ? program : optimizer.optimize(program);
+    }
+
+    private void emit(int opcode, int line, int column) {
+        sourceMap.set(size, line, column);
+        if (size == code.length) {
+            code = Arrays.copyOf(code, size * 2);
+        }
+        code[size++] = opcode;
+    }
+
+    private void emit(int opcode, int operand, int line, int column) {
+        emit(opcode, line, column);
+        if (size == code.length) {
+            code = Arrays.copyOf(code, size * 2);
+        }
+        code[size++] = operand;
+    }
+
+    /**
+     * Returns the pool index of a constant, adding it if it is new.
+     */
+    private int constant(double value) {
+        long key = Double.doubleToRawLongBits(value);
+        int mask = constantSlots.length - 1;
+        int slot = hash(key) & mask;
+        while (constantSlots[slot] != 0) {
+            if (constantKeys[slot] == key) {
+                return constantSlots[slot] - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (constantCount == constants.length) {
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        }
+        constants[constantCount] = value;
+        constantKeys[slot] = key;
+        constantSlots[slot] = ++constantCount;
+        if (constantCount * 2 > constantSlots.length) {
+            rehash();
+        }
+        return constantCount - 1;
+    }
+
+    private void rehash() {
+        long[] keys = new long[constantKeys.length * 2];
+        int[] slots = new int[keys.length];
+        int mask = keys.length - 1;
+        for (int i = 0; i < constantCount; i++) {
+            long key = Double.doubleToRawLongBits(constants[i]);
+            int slot = hash(key) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            slots[slot] = i + 1;
+        }
+        constantKeys = keys;
+        constantSlots = slots;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void reset() {
+        code = new int[64];
+        size = 0;
+        constants = new double[16];
+        constantCount = 0;
+        constantKeys = new long[32];
+        constantSlots = new int[32];
+        strings = new String[0];
+        stringCount = 0;
+        sourceMap = new BananaSourceMap();
+        openCount = 0;
+    }
+}
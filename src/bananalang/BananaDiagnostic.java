@@ -0,0 +1,63 @@
+package bananalang;
+
+/**
+ * A problem found in Banana code without running or fully compiling it, such
+ * as an unknown token or a ︶ without its EQUALS. Diagnostics sort by source
+ * position.
+ */
+public final class BananaDiagnostic implements Comparable<BananaDiagnostic> {
+
+    /** How bad a problem is. */
+    public enum Severity {
+        /** The code does not compile. */
+        ERROR,
+        /** The code compiles, but probably not as intended. */
+        WARNING
+    }
+
+    private final Severity severity;
+    private final int line;
+    private final int column;
+    private final String message;
+
+    /**
+     * Creates a diagnostic.
+     *
+     * @param severity how bad the problem is
+     * @param line the 1-based line of the problem
+     * @param column the 1-based column of the problem, in code points
+     * @param message what the problem is, without its position
+     */
+    public BananaDiagnostic(Severity severity, int line, int column, String message) {
+        this.severity = severity;
+        this.line = line;
+        this.column = column;
+        this.message = message;
+    }
+
+    public Severity getSeverity() {
+        return severity;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public int compareTo(BananaDiagnostic other) {
+        return line != other.line ? Integer.compare(line, other.line) : Integer.compare(column, other.column);
+    }
+
+    @Override
+    public String toString() {
+        return message + " at " + BananaSourceMap.describe(line, column);
+    }
+}
@@ -0,0 +1,54 @@
+package bananalang;
+
+/**
+ * Where PUSH_INPUT reads its lines from. The CLI reads standard input, the GUI
+ * reads its input field.
+ */
+public interface BananaInput {
+
+    /** Returned by {@link #readBananas()} when there is no more input. */
+    double END_OF_INPUT = -1;
+
+    /** Returned by {@link #readBananas()} for a line that is not only 🍌. */
+    double INVALID_LINE = -2;
+
+    /**
+     * Reads the next line of input, blocking until one is available.
+     * 
+     * @return the line without its line terminator, or null if there is no more input
+     */
+    String readLine();
+
+    /**
+     * Reads the next line of input and counts its 🍌, which is all PUSH_INPUT
+     * needs. Inputs that can count without building the line override this.
+     * 
+     * @return the number of 🍌, {@link #INVALID_LINE} if the line holds
+     *     anything else, or {@link #END_OF_INPUT}
+     */
+    default double readBananas() {
+        String line = readLine();
+        return line == null ? END_OF_INPUT : countBananas(line);
+    }
+
+    /**
+     * Counts the 🍌 of a line in one pass, without allocating.
+     * 
+     * @param line the line, without its line terminator
+     * @return the number of 🍌, or {@link #INVALID_LINE} if the line holds
+     *     anything else
+     */
+    static double countBananas(CharSequence line) {
+        int length = line.length();
+        if ((length & 1) != 0) {
+            return INVALID_LINE;
+        }
+        // 🍌 is U+1F34C, the surrogate pair D83C DF4C
+        for (int i = 0; i < length; i += 2) {
+            if (line.charAt(i) != '\uD83C' || line.charAt(i + 1) != '\uDF4C') {
+                return INVALID_LINE;
+            }
+        }
+        return length >> 1;
+    }
+}
@@ -1,230 +1,546 @@
 package bananalang;
 
-import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Scanner;
 
 /**
- * This class is responsible for interpreting the Banana language.
+ * This class is responsible for interpreting the Banana language. It is the
+ * only execution engine; frontends differ only in the {@link BananaInput} and
+ * {@link BananaOutput} they plug in.
  */
 public class BananaInterpreter {
 
-    public static final ArrayList<Double> list = new ArrayList<>();
-    private final Scanner scanner = new Scanner(System.in);
-    private static boolean lookingForU = false;
-    private static int uCounter = 0;
+    /**
+     * Instructions a program runs in the interpreter, over all its runs,
+     * before it is compiled to bytecode. Each instruction runs at most once
+     * per run, so compiling only pays off for programs that are run again
+     * and again; this keeps single runs of even very large programs
+     * interpreted.
+     */
+    public static final long DEFAULT_TIER_UP_THRESHOLD = 50_000_000L;
+
+    /** Threshold that keeps every program in the interpreter. */
+    public static final long NEVER_TIER_UP = Long.MAX_VALUE;
+
+    private final BananaStack stack;
+    private final BananaInput input;
+    private final BananaOutput output;
+    private long tierUpThreshold = DEFAULT_TIER_UP_THRESHOLD;
+    private boolean compileToClosures = false;
+    private BananaStats stats;
+    private BananaProfiler profiler;
+    private BananaBudget budget;
+    private long budgetStart;
+    private BananaBudget.Reason stopReason;
 
     /**
-     * Executes the given list of Banana language commands.
+     * Creates an interpreter that reads standard input and writes standard output.
+     */
+    public BananaInterpreter() {
+        this(new ReaderInput(System.in), new PrintStreamOutput(System.out));
+    }
+
+    /**
+     * Creates an interpreter with the given input and output.
      * 
-     * @param commands the list of commands to execute
+     * @param input where PUSH_INPUT reads lines from
+     * @param output where PRINT, PRINTC and errors are written to
+     */
+    public BananaInterpreter(BananaInput input, BananaOutput output) {
+        this(input, output, new BananaStack());
+    }
+
+    /**
+     * Creates an interpreter that works on the given list, such as one from
+     * {@link BananaStack#offHeap()} for programs that build very large lists.
+     * 
+     * @param input where PUSH_INPUT reads lines from
+     * @param output where PRINT, PRINTC and errors are written to
+     * @param stack the list to work on
+     */
+    public BananaInterpreter(BananaInput input, BananaOutput output, BananaStack stack) {
+        this.input = input;
+        this.output = output;
+        this.stack = stack;
+    }
+
+    /**
+     * Returns the list this interpreter works on.
+     * 
+     * @return the stack
+     */
+    public BananaStack getStack() {
+        return stack;
+    }
+
+    /**
+     * Sets how many instructions a program runs in the interpreter, counted
+     * over all its runs, before the rest of it is compiled to a JVM class by
+     * {@link BananaBytecodeCompiler}. The switch happens between two
+     * instructions with the list carried over, and later runs start in the
+     * compiled code. Programs too large to compile stay interpreted.
+     * 
+     * @param tierUpThreshold the instruction count; 0 compiles programs
+     *     before they start, {@link #NEVER_TIER_UP} never compiles them
+     */
+    public void setTierUpThreshold(long tierUpThreshold) {
+        this.tierUpThreshold = tierUpThreshold;
+    }
+
+    /**
+     * Turns the closure tier on or off. When it is on, programs are compiled
+     * into linked nodes by {@link BananaClosureCompiler} instead of being
+     * decoded instruction by instruction, and are never compiled to bytecode.
+     * The nodes are built on a program's first run and kept with it.
+     * 
+     * @param compileToClosures whether to compile programs to closures
+     */
+    public void setCompileToClosures(boolean compileToClosures) {
+        this.compileToClosures = compileToClosures;
+    }
+
+    /**
+     * Turns execution metrics on or off. While they are on, programs are
+     * interpreted by a counting loop and never compiled, so every
+     * instruction shows up; when they are off that loop is not used and
+     * costs nothing.
+     * 
+     * @param stats where to add the metrics of each run, or null to turn
+     *     them off
      */
+    public void setStats(BananaStats stats) {
+        this.stats = stats;
+    }
 
+    /**
+     * Turns source-level profiling on or off. Like {@link #setStats}, this
+     * runs programs in the counting loop and never compiles them.
+     * 
+     * @param profiler where to add the instruction counts of each run, or
+     *     null to turn profiling off
+     */
+    public void setProfiler(BananaProfiler profiler) {
+        this.profiler = profiler;
+    }
 
+    /**
+     * Sets the limits of the following runs. Runs with a budget are always
+     * interpreted, even if tiering or closures are turned on.
+     * 
+     * @param budget the limits, or null for none
+     */
+    public void setBudget(BananaBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Returns why the last run was stopped before it ended.
+     * 
+     * @return the limit the last run went over, or null if it was not stopped
+     */
+    public BananaBudget.Reason getStopReason() {
+        return stopReason;
+    }
+
+    /**
+     * Executes the given list of Banana language commands.
+     * 
+     * @param commands the list of commands to execute
+     */
     public void run(List<String> commands) {
-        Iterator<String> iterator = commands.iterator();
-        while (iterator.hasNext()) {
-            String cmd = iterator.next();
-            while (lookingForU) { // while (uCounter > 0)
-                cmd = iterator.next();
-                if (cmd.equals("EQUALS")) {
-                    uCounter++;
-                } else if (cmd.equals("︶")) {
-                    uCounter--;
-                    if (uCounter == 0) {
-                        lookingForU = false;
-                        cmd = iterator.next();
-                    }
-                }
+        run(new BananaCompiler().compile(commands));
+    }
+
+    /**
+     * Executes a compiled Banana program.
+     * 
+     * @param program the program to execute
+     */
+    public void run(BananaProgram program) {
+        stopReason = null;
+        BananaOutput output = this.output;
+        if (budget != null) {
+            budgetStart = System.nanoTime();
+            if (budget.getMaxOutputBytes() != BananaBudget.UNLIMITED) {
+                output = new BananaBudget.CountingOutput(output, budget.getMaxOutputBytes());
+            }
+        }
+        try {
+            if (stats != null || profiler != null) {
+                executeCounting(program, stack, output);
+            } else if (compileToClosures && budget == null) {
+                program.getProfile().closures(program).run(stack, output, this);
+            } else {
+                execute(program, stack, output);
             }
+        } catch (BananaBudget.Exceeded e) {
+            stopReason = e.reason;
+            this.error("Stopped: " + e.getMessage());
+        } finally {
+            output.flush();
+        }
+    }
 
-            if (cmd.equals("PUSH_ONE")) {
-                // Get the next command which should be a number
-                if (iterator.hasNext()) {
-                    String numberStr = iterator.next();
-                    try {
-                        double number = Double.parseDouble(numberStr);
-                        list.add(number);
-                    } catch (NumberFormatException e) {
-                        this.error("Invalid number after PUSH_ONE: " + numberStr);
-                    }
+    private void execute(BananaProgram program, BananaStack stack, BananaOutput output) {
+        int[] code = program.getCode();
+        double[] constants = program.getConstants();
+        String[] strings = program.getStrings();
+        BananaProfile profile = program.getProfile();
+        BananaBudget budget = this.budget;
+        // The instruction count at which to check the budget or, without
+        // one, to tier up; -1 for never
+        long checkAt = budget != null ? 0
+            : tierUpThreshold == NEVER_TIER_UP || profile.isUncompilable()
+            ? -1 : Math.max(0, tierUpThreshold - profile.getInstructions());
+        long executed = 0;
+        int pc = 0;
+        while (pc < code.length) {
+            if (executed == checkAt) {
+                if (budget != null) {
+                    checkAt = checkBudget(budget, executed, stack.size());
                 } else {
-                    this.error("PUSH_ONE requires a number but none was provided");
+                    // Between two instructions the list is all there is to carry over
+                    BananaCompiledCode compiled = profile.compiledAt(program, pc, stack.size());
+                    if (compiled != null) {
+                        profile.countInstructions(executed);
+                        compiled.run(stack, output, this);
+                        return;
+                    }
+                    checkAt = -1;
                 }
-                continue;
             }
+            executed++;
+            switch (code[pc++]) {
 
-            if (cmd.equals("PUSH_INPUT")) {
-                // Read input from console and process it through the preprocessor
-                String input;
-                boolean validInput = false;
-
-                while (!validInput) {
-                    input = this.scanner.nextLine();
-                    
-                    // Process input: convert non-whitelisted characters to spaces
-                    // Uses input-specific whitelist (only 🍌)
-                    String processed = BananaPreprocessor.processInputString(input);
-                    
-                    // Check if processed input contains only whitelisted emojis (no spaces)
-                    // If it contains spaces, it means there were non-whitelisted characters
-                    validInput = !processed.contains(" ");
-                    
-                    if (validInput) {
-                        // Count the number of whitelisted emojis
-                        double emojiCount = 0;
-                        for (int i = 0; i < processed.length();) {
-                            emojiCount++;
-                            i += Character.charCount(processed.codePointAt(i));
-                        }
+                case BananaOpcodes.PUSH:
+                    stack.push(constants[code[pc++]]);
+                    break;
 
-                        list.add(emojiCount);
-                    }
-                }
-                continue;
-            }
-            
-            if (cmd.equals("PUSH_FROM_INDEX")) {
-                // Get the index from the next command
-                if (iterator.hasNext()) {
-                    String indexStr = iterator.next();
-                    try {
-                        int index = Integer.parseInt(indexStr);
-                        
-                        // Check if index is valid
-                        if (index < 0 || index >= list.size()) {
-                            this.error("PUSH_FROM_INDEX: Index " + index + 
-                                " is out of bounds (list size: " + list.size() + ")");
-                        } else {
-                            // Get the element at the specified index and push it to the end (duplicate it)
-                            double value = list.get(index);
-                            list.add(value);
-                        }
-                    } catch (NumberFormatException e) {
-                        this.error("Invalid index after PUSH_FROM_INDEX: " + indexStr);
+                case BananaOpcodes.PUSH_INPUT:
+                    if (!this.pushInput(stack)) {
+                        profile.countInstructions(executed);
+                        return;
                     }
-                } else {
-                    this.error("PUSH_FROM_INDEX requires an index but none was provided");
-                }
-                continue;
-            }
+                    break;
 
-            switch (cmd) {
+                case BananaOpcodes.PUSH_FROM_INDEX:
+                    this.pushFromIndex(stack, code[pc++]);
+                    break;
 
-                case "ADD": {
-                    if (list.size() < 2) {
+                case BananaOpcodes.ADD: {
+                    if (stack.size() < 2) {
                         this.error("ADD needs 2 values!");
                         break;
                     }
-                    double b = list.remove(list.size() - 1);
-                    double a = list.remove(list.size() - 1);
-                    list.add(a + b);
+                    stack.add();
                     break;
                 }
 
-                case "SUBTRACT": {
-                    if (list.size() < 2) {
+                case BananaOpcodes.SUBTRACT: {
+                    if (stack.size() < 2) {
                         this.error("SUBTRACT needs 2 values!");
                         break;
                     }
-                    double b = list.remove(list.size() - 1);
-                    double a = list.remove(list.size() - 1);
-                    list.add(a - b);
+                    stack.subtract();
                     break;
                 }
 
-                case "MULTIPLY": {
-                    if (list.size() < 2) {
+                case BananaOpcodes.MULTIPLY: {
+                    if (stack.size() < 2) {
                         this.error("MULTIPLY needs 2 values!");
                         break;
                     }
-                    double b = list.remove(list.size() - 1);
-                    double a = list.remove(list.size() - 1);
-                    list.add(a * b);
+                    stack.multiply();
                     break;
                 }
 
-                case "DIVIDE": {
-                    if (list.size() < 2) {
+                case BananaOpcodes.DIVIDE: {
+                    if (stack.size() < 2) {
                         this.error("DIVIDE needs 2 values!");
                         break;
                     }
-                    double b = list.remove(list.size() - 1);
-                    double a = list.remove(list.size() - 1);
-                    list.add(a / b);
+                    stack.divide();
                     break;
                 }
 
-                case "MODULUS": {
-                    if (list.size() < 2) {
+                case BananaOpcodes.MODULUS: {
+                    if (stack.size() < 2) {
                         this.error("MODULUS needs 2 values!");
                         break;
                     }
-                    double b = list.remove(list.size() - 1);
-                    double a = list.remove(list.size() - 1);
-                    list.add(a % b);
+                    stack.modulus();
                     break;
                 }
 
-                case "PRINT": {
-                    if (list.isEmpty()) {
+                case BananaOpcodes.PRINT: {
+                    if (stack.isEmpty()) {
                         this.error("PRINT needs 1 value!");
                         break;
                     }
-                    
-
-                    if ((list.get(list.size() - 1) -  Math.floor(list.get(list.size() - 1))) < 0.000000001) {
-                        System.out.print(list.remove(list.size() - 1).intValue());
-                    } else {
-                        System.out.print(list.remove(list.size() - 1));
-                    }
-
+                    output.printNumber(stack.pop());
                     break;
                 }
 
-                case "PRINTC":
-                    if (list.isEmpty()) {
+                case BananaOpcodes.PRINTC: {
+                    if (stack.isEmpty()) {
                         this.error("PRINT needs 1 value!");
                         break;
                     }
-                    System.out.print((char) list.remove(list.size() - 1).intValue());
+                    output.printChar((int) stack.pop());
+                    break;
+                }
 
+                case BananaOpcodes.PRINT_STRING:
+                    output.print(strings[code[pc++]]);
                     break;
 
-                case "CLEAR": {
-                    list.clear();
-                    //System.out.println("💥 List cleared!");
+                case BananaOpcodes.CLEAR:
+                    stack.clear();
                     break;
-                }
 
-                case "EQUALS": {
-                    // if (list.size() < 2) { // no equality found
-                    //     list.add(0.0);
-                    //     lookingForU = true;
-                    //     uCounter = 1;
-                    // }
-                    //System.out.println(list.toString() + "a");
-                    double b = list.remove(list.size() - 1);
-                    double a = list.remove(list.size() - 1);
-                    if (a == b) {
-                        list.add(1.0);
-                    } else {
-                        list.add(b);
-                        lookingForU = true;
-                        uCounter = 1;
+                case BananaOpcodes.EQUALS: {
+                    int target = code[pc++];
+                    if (stack.size() < 2) {
+                        this.error("EQUALS needs 2 values!");
+                        pc = target;
+                        break;
+                    }
+                    boolean equal = stack.compareTop();
+                    if (!equal) {
+                        // Skip to the instruction after the matching ︶
+                        pc = target;
                     }
                     break;
                 }
 
-                case "︶":
-                    break;
-
                 default:
-                    this.error("Unknown command: " + cmd);
+                    this.error("Unknown opcode: " + code[pc - 1]);
                     break;
             }
         }
+        profile.countInstructions(executed);
+    }
+
+    /**
+     * Same as {@link #execute}, but counts every instruction, EQUALS branch
+     * and the list depth for the stats and profiler. Kept apart so the plain
+     * loop pays nothing for them.
+     */
+    private void executeCounting(BananaProgram program, BananaStack stack, BananaOutput output) {
+        int[] code = program.getCode();
+        double[] constants = program.getConstants();
+        String[] strings = program.getStrings();
+        BananaBudget budget = this.budget;
+        long[] counts = new long[code.length];
+        long executed = 0;
+        long checkAt = 0;
+        long taken = 0;
+        long notTaken = 0;
+        int peak = stack.size();
+        long start = System.nanoTime();
+        int pc = 0;
+        try {
+            while (pc < code.length) {
+                if (budget != null && executed == checkAt) {
+                    checkAt = checkBudget(budget, executed, stack.size());
+                }
+                executed++;
+                counts[pc]++;
+                int opcode = code[pc++];
+                switch (opcode) {
+
+                    case BananaOpcodes.PUSH:
+                        stack.push(constants[code[pc++]]);
+                        break;
+
+                    case BananaOpcodes.PUSH_INPUT:
+                        if (!this.pushInput(stack)) {
+                            return;
+                        }
+                        break;
+
+                    case BananaOpcodes.PUSH_FROM_INDEX:
+                        this.pushFromIndex(stack, code[pc++]);
+                        break;
+
+                    case BananaOpcodes.ADD:
+                    case BananaOpcodes.SUBTRACT:
+                    case BananaOpcodes.MULTIPLY:
+                    case BananaOpcodes.DIVIDE:
+                    case BananaOpcodes.MODULUS:
+                        if (stack.size() < 2) {
+                            this.error(BananaOpcodes.name(opcode) + " needs 2 values!");
+                        } else if (opcode == BananaOpcodes.ADD) {
+                            stack.add();
+                        } else if (opcode == BananaOpcodes.SUBTRACT) {
+                            stack.subtract();
+                        } else if (opcode == BananaOpcodes.MULTIPLY) {
+                            stack.multiply();
+                        } else if (opcode == BananaOpcodes.DIVIDE) {
+                            stack.divide();
+                        } else {
+                            stack.modulus();
+                        }
+                        break;
+
+                    case BananaOpcodes.PRINT:
+                    case BananaOpcodes.PRINTC:
+                        if (stack.isEmpty()) {
+                            this.error("PRINT needs 1 value!");
+                        } else if (opcode == BananaOpcodes.PRINT) {
+                            output.printNumber(stack.pop());
+                        } else {
+                            output.printChar((int) stack.pop());
+                        }
+                        break;
+
+                    case BananaOpcodes.PRINT_STRING:
+                        output.print(strings[code[pc++]]);
+                        break;
+
+                    case BananaOpcodes.CLEAR:
+                        stack.clear();
+                        break;
+
+                    case BananaOpcodes.EQUALS: {
+                        int target = code[pc++];
+                        boolean equal;
+                        if (stack.size() < 2) {
+                            this.error("EQUALS needs 2 values!");
+                            equal = false;
+                        } else {
+                            equal = stack.compareTop();
+                        }
+                        if (equal) {
+                            taken++;
+                        } else {
+                            notTaken++;
+                            pc = target;
+                        }
+                        break;
+                    }
+
+                    default:
+                        this.error("Unknown opcode: " + opcode);
+                        break;
+                }
+                if (stack.size() > peak) {
+                    peak = stack.size();
+                }
+            }
+        } finally {
+            if (stats != null) {
+                stats.record(code, counts, taken, notTaken, peak, System.nanoTime() - start);
+            }
+            if (profiler != null) {
+                profiler.record(program, counts);
+            }
+        }
+    }
+
+    /**
+     * Checks the budget between two instructions.
+     * 
+     * @return the instruction count at which to check again
+     * @throws BananaBudget.Exceeded if the run went over a limit
+     */
+    private long checkBudget(BananaBudget budget, long executed, int stackSize) {
+        if (executed >= budget.getMaxInstructions()) {
+            throw new BananaBudget.Exceeded(BananaBudget.Reason.INSTRUCTIONS,
+                "instruction limit of " + budget.getMaxInstructions() + " reached");
+        }
+        if (stackSize > budget.getMaxStackSize()) {
+            throw new BananaBudget.Exceeded(BananaBudget.Reason.STACK,
+                "list size limit of " + budget.getMaxStackSize() + " reached");
+        }
+        checkTimeAndCancellation(budget);
+        return Math.min(executed + BananaBudget.CHECK_INTERVAL, budget.getMaxInstructions());
+    }
+
+    /**
+     * Checks the parts of the budget that can run out while the program
+     * waits for input.
+     * 
+     * @throws BananaBudget.Exceeded if the run is cancelled or out of time
+     */
+    private void checkTimeAndCancellation(BananaBudget budget) {
+        if (budget.isCancelled()) {
+            throw new BananaBudget.Exceeded(BananaBudget.Reason.CANCELLED, "run cancelled");
+        }
+        long maxMillis = budget.getMaxMillis();
+        if (maxMillis != BananaBudget.UNLIMITED
+                && (System.nanoTime() - budgetStart) / 1_000_000 >= maxMillis) {
+            throw new BananaBudget.Exceeded(BananaBudget.Reason.TIME,
+                "time limit of " + maxMillis + " ms reached");
+        }
+    }
+
+    /**
+     * Runs PUSH_INPUT: reads a count and pushes it.
+     * 
+     * @param stack the stack to push to
+     * @return false if the input has run out and the program must stop
+     */
+    boolean pushInput(BananaStack stack) {
+        double count = this.readInput();
+        if (count < 0) {
+            return false;
+        }
+        stack.push(count);
+        return true;
+    }
+
+    /**
+     * Runs PUSH_FROM_INDEX: duplicates an element onto the top of the list.
+     * 
+     * @param stack the stack to work on
+     * @param index the list index
+     */
+    void pushFromIndex(BananaStack stack, int index) {
+        // Check if index is valid
+        if (index < 0 || index >= stack.size()) {
+            this.error(indexErrorMessage(index, stack.size()));
+        } else {
+            // Get the element at the specified index and push it to the end (duplicate it)
+            stack.push(stack.get(index));
+        }
+    }
+
+    /**
+     * Returns the error PUSH_FROM_INDEX reports for an index outside the list.
+     */
+    static String indexErrorMessage(int index, int size) {
+        return "PUSH_FROM_INDEX: Index " + index + " is out of bounds (list size: " + size + ")";
+    }
+
+    /**
+     * Reads lines until one contains only 🍌 and returns how many there were.
+     * 
+     * @return the number of 🍌, or -1 if the input has run out
+     */
+    double readInput() {
+        output.flush();
+        BananaBudget budget = this.budget;
+        while (true) {
+            if (budget != null) {
+                checkTimeAndCancellation(budget);
+            }
+            double count = input.readBananas();
+            if (count == BananaInput.END_OF_INPUT) {
+                if (budget != null) {
+                    // Cancelling may have cut the wait for input short
+                    checkTimeAndCancellation(budget);
+                }
+                this.error("PUSH_INPUT: no more input");
+                return -1;
+            }
+
+            // Only 🍌 are allowed in input
+            if (count == BananaInput.INVALID_LINE) {
+                this.error("Invalid input! Only 🍌 emojis are allowed.");
+                continue;
+            }
+            return count;
+        }
     }
 
     /**
@@ -233,7 +549,7 @@ public class BananaInterpreter {
      * @param msg the error message to print
      */
     private void error(String msg) {
-        System.out.println("🚫 Error: " + msg);
+        output.error(msg);
     }
 
 }
@@ -1,35 +1,334 @@
 package bananalang;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 
+import javax.management.JMException;
+
 /**
  * This class is the main class for the Banana language.
  */
 public class BananaLang {
+
+    /** Options that set a limit of {@link BananaBudget}. */
+    private static final List<String> LIMITS =
+        List.of("--max-instructions", "--max-time", "--max-stack", "--max-output");
+
+    /** How many lines and blocks --profile lists. */
+    private static final int PROFILE_REPORT_LIMIT = 15;
+
     /**
      * main function for the banana langauge.
      * 
-     * @param args - no arguments are needed.
+     * @param args - the program file, optionally preceded by
+     *     {@code --cache-dir <dir>} or {@code --no-cache} and one of
+     *     {@code --jit}, {@code --tier-threshold <n>} or {@code --closures}; or
+     *     {@code --precompile <dir>} to fill the cache ahead of time; or
+     *     {@code --batch <dir|manifest>}, optionally with {@code --out <dir>}
+     *     and {@code --jobs <n>}, to run many programs at once; or
+     *     {@code --serve}, optionally with {@code --port <n>},
+     *     {@code --jobs <n>} and {@code --max-body <bytes>}, to run jobs
+     *     sent by {@link BananaClient}.
+     *     {@code --stats} publishes execution metrics over JMX and prints
+     *     them when the program or server ends. {@code --profile} prints the
+     *     hottest lines and blocks of the program when it ends, and
+     *     {@code --profile-out <file>} also writes collapsed stacks for
+     *     flame graph tools. {@code --max-instructions <n>},
+     *     {@code --max-time <ms>}, {@code --max-stack <n>} and
+     *     {@code --max-output <bytes>} limit each run. {@code --input <file>}
+     *     reads the program's input from a file instead of standard input,
+     *     and {@code --prefetch} reads and counts input lines ahead on a
+     *     background thread. {@code --off-heap} keeps older list values in
+     *     direct memory and {@code --spill <dir>} in a memory-mapped file in
+     *     that directory, so the list is not limited by the heap; both
+     *     apply to single-file runs only.
      */
     public static void main(String[] args) {
-        if (args.length == 0) {
-            System.out.println("🍌 Usage: java BananaLang <file.banana>");
+        Path cacheDir = BananaProgramCache.defaultDirectory();
+        boolean useCache = true;
+        long tierUpThreshold = BananaInterpreter.DEFAULT_TIER_UP_THRESHOLD;
+        boolean closures = false;
+        String precompile = null;
+        String batch = null;
+        Path batchOut = Paths.get("batch-out");
+        int jobs = Runtime.getRuntime().availableProcessors();
+        boolean serve = false;
+        boolean stats = false;
+        boolean profile = false;
+        String profileOut = null;
+        int port = BananaServer.DEFAULT_PORT;
+        int maxBody = BananaServer.DEFAULT_MAX_BODY_BYTES;
+        BananaBudget budget = null;
+        String inputFile = null;
+        boolean prefetch = false;
+        boolean offHeap = false;
+        String spillDir = null;
+        String file = null;
+        boolean usage = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--no-cache")) {
+                useCache = false;
+            } else if (args[i].equals("--jit")) {
+                tierUpThreshold = 0;
+            } else if (args[i].equals("--tier-threshold") && i + 1 < args.length) {
+                try {
+                    tierUpThreshold = Long.parseLong(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.err.println("Invalid tier threshold: " + args[i]);
+                    return;
+                }
+            } else if (args[i].equals("--closures")) {
+                closures = true;
+            } else if (args[i].equals("--cache-dir") && i + 1 < args.length) {
+                cacheDir = Paths.get(args[++i]);
+            } else if (args[i].equals("--precompile") && i + 1 < args.length) {
+                precompile = args[++i];
+            } else if (args[i].equals("--batch") && i + 1 < args.length) {
+                batch = args[++i];
+            } else if (args[i].equals("--out") && i + 1 < args.length) {
+                batchOut = Paths.get(args[++i]);
+            } else if (args[i].equals("--stats")) {
+                stats = true;
+            } else if (args[i].equals("--profile")) {
+                profile = true;
+            } else if (args[i].equals("--profile-out") && i + 1 < args.length) {
+                profile = true;
+                profileOut = args[++i];
+            } else if (LIMITS.contains(args[i]) && i + 1 < args.length) {
+                long limit;
+                try {
+                    limit = Long.parseLong(args[i + 1]);
+                    if (budget == null) {
+                        budget = new BananaBudget();
+                    }
+                    setLimit(budget, args[i], limit);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Invalid " + args[i].substring(2) + ": " + args[i + 1]);
+                    return;
+                }
+                i++;
+            } else if (args[i].equals("--input") && i + 1 < args.length) {
+                inputFile = args[++i];
+            } else if (args[i].equals("--prefetch")) {
+                prefetch = true;
+            } else if (args[i].equals("--off-heap")) {
+                offHeap = true;
+            } else if (args[i].equals("--spill") && i + 1 < args.length) {
+                spillDir = args[++i];
+            } else if (args[i].equals("--serve")) {
+                serve = true;
+            } else if (args[i].equals("--port") && i + 1 < args.length) {
+                try {
+                    port = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.err.println("Invalid port: " + args[i]);
+                    return;
+                }
+            } else if (args[i].equals("--max-body") && i + 1 < args.length) {
+                try {
+                    maxBody = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    maxBody = -1;
+                }
+                if (maxBody < 0) {
+                    System.err.println("Invalid maximum body size: " + args[i]);
+                    return;
+                }
+            } else if (args[i].equals("--jobs") && i + 1 < args.length) {
+                try {
+                    jobs = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.err.println("Invalid job count: " + args[i]);
+                    return;
+                }
+            } else if (file == null && !args[i].startsWith("--")) {
+                file = args[i];
+            } else {
+                // An unknown option, one without its value or a second file
+                usage = true;
+                break;
+            }
+        }
+        if (usage) {
+            printUsage();
             return;
         }
 
+        if (precompile != null) {
+            precompile(new BananaProgramCache(cacheDir), Paths.get(precompile));
+            return;
+        }
+        if ((batch != null || serve) && jobs < 1) {
+            System.err.println("Invalid job count: " + jobs);
+            return;
+        }
+        if (serve) {
+            BananaServer.serve(port, jobs, useCache ? new BananaProgramCache(cacheDir) : null,
+                tierUpThreshold, closures, stats ? registerStats() : null, budget, maxBody);
+            return;
+        }
+        if (batch != null) {
+            BananaBatchRunner runner = new BananaBatchRunner(jobs);
+            runner.setTierUpThreshold(tierUpThreshold);
+            runner.setCompileToClosures(closures);
+            runner.setBudget(budget);
+            batch(runner, Paths.get(batch), batchOut);
+            return;
+        }
+        if (file == null) {
+            printUsage();
+            return;
+        }
+
+        BananaStack stack;
         try {
-            String code = new String(Files.readAllBytes(Paths.get(args[0])));
-            BananaParser parser = new BananaParser();
-            List<String> commands = parser.parse(code);
-            BananaInterpreter interpreter = new BananaInterpreter();
-            interpreter.run(commands);
+            stack = spillDir != null ? BananaStack.spilling(Paths.get(spillDir))
+                : offHeap ? BananaStack.offHeap() : new BananaStack();
         } catch (IOException e) {
+            System.err.println("Error creating spill file: " + e.getMessage());
+            return;
+        }
+        BananaStats runStats = stats ? registerStats() : null;
+        BananaProfiler profiler = null;
+        BananaBufferedInput input = null;
+        // Warnings go through the run's output, so they are UTF-8 like it
+        BufferedOutput output = new BufferedOutput(System.out);
+        try {
+            BananaProgram program;
+            if (useCache) {
+                program = new BananaProgramCache(cacheDir).load(new File(file), output);
+            } else {
+                BananaCompiler compiler = new BananaCompiler();
+                compiler.setWarnings(output);
+                program = compiler.compile(new File(file));
+            }
+            input = inputFile != null
+                ? BananaBufferedInput.open(Paths.get(inputFile), prefetch)
+                : new BananaBufferedInput(System.in, prefetch);
+            BananaInterpreter interpreter = new BananaInterpreter(input, output, stack);
+            interpreter.setTierUpThreshold(tierUpThreshold);
+            interpreter.setCompileToClosures(closures);
+            interpreter.setStats(runStats);
+            interpreter.setBudget(budget);
+            if (profile) {
+                profiler = new BananaProfiler(program, new File(file).getName());
+                interpreter.setProfiler(profiler);
+            }
+            interpreter.run(program);
+        } catch (IOException e) {
+            output.flush();
             System.err.println("Error reading file: " + e.getMessage());
+        } catch (BananaCompileException e) {
+            output.flush();
+            System.err.println("Compile error: " + e.getMessage());
         } catch (Exception e) {
+            output.flush();
             System.err.println("Execution error: " + e.getMessage());
+        } finally {
+            if (input != null && inputFile != null) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    // Only read from
+                }
+            }
+            if (runStats != null && runStats.getRuns() > 0) {
+                System.err.print(runStats.summary());
+            }
+            if (profiler != null) {
+                System.err.print(profiler.report(PROFILE_REPORT_LIMIT));
+                if (profileOut != null) {
+                    writeProfile(profiler, Paths.get(profileOut));
+                }
+            }
+            // Deletes a --spill scratch file now rather than at exit
+            stack.close();
+        }
+    }
+
+    private static void printUsage() {
+        System.out.println("🍌 Usage: java BananaLang [--cache-dir <dir> | --no-cache] [--jit | --tier-threshold <n> | --closures] [--stats] [--profile] [--profile-out <file>] [--input <file>] [--prefetch] [--off-heap | --spill <dir>] <file.banana>");
+        System.out.println("          java BananaLang [--cache-dir <dir>] --precompile <directory>");
+        System.out.println("          java BananaLang [--jit | --tier-threshold <n> | --closures] --batch <directory|manifest> [--out <dir>] [--jobs <n>]");
+        System.out.println("          java BananaLang [--cache-dir <dir> | --no-cache] [--jit | --tier-threshold <n> | --closures] [--stats] --serve [--port <n>] [--jobs <n>] [--max-body <bytes>]");
+        System.out.println("          Each run can be limited with --max-instructions <n>, --max-time <ms>, --max-stack <n> and --max-output <bytes>");
+    }
+
+    private static void setLimit(BananaBudget budget, String option, long limit) {
+        switch (option) {
+            case "--max-instructions":
+                budget.setMaxInstructions(limit);
+                break;
+            case "--max-time":
+                budget.setMaxMillis(limit);
+                break;
+            case "--max-stack":
+                budget.setMaxStackSize(limit);
+                break;
+            default:
+                budget.setMaxOutputBytes(limit);
+                break;
+        }
+    }
+
+    private static void writeProfile(BananaProfiler profiler, Path file) {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            profiler.writeCollapsed(out);
+            System.err.println("🍌 Collapsed stacks written to " + file);
+        } catch (IOException e) {
+            System.err.println("Error writing profile: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Creates the metrics for --stats and publishes them over JMX, which
+     * only warns if it fails: the summary works without it.
+     */
+    private static BananaStats registerStats() {
+        BananaStats stats = new BananaStats();
+        try {
+            stats.register();
+        } catch (JMException e) {
+            System.err.println("Cannot publish stats over JMX: " + e.getMessage());
+        }
+        return stats;
+    }
+
+    private static void batch(BananaBatchRunner runner, Path source, Path out) {
+        try {
+            long start = System.nanoTime();
+            List<BananaBatchRunner.Result> results = runner.run(BananaBatchRunner.jobs(source), out);
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            Path summary = out.resolve("summary.tsv");
+            BananaBatchRunner.writeSummary(results, summary);
+
+            long ok = results.stream().filter(r -> r.getStatus() == BananaBatchRunner.Status.OK).count();
+            System.out.println("🍌 Ran " + results.size() + " job(s) in " + millis + " ms: " + ok + " ok, "
+                + (results.size() - ok) + " failed");
+            System.out.println("🍌 Output and summary written to " + out);
+        } catch (IOException e) {
+            System.err.println("Error running batch: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Batch interrupted");
+        }
+    }
+
+    private static void precompile(BananaProgramCache cache, Path directory) {
+        try {
+            BananaOptimizer optimizer = new BananaOptimizer();
+            int count = cache.precompile(directory, optimizer);
+            System.out.println("🍌 Precompiled " + count + " program(s) into " + cache.getDirectory());
+            System.out.println("🍌 Optimizer removed " + optimizer.getRemovedInstructions() + " of "
+                + optimizer.getOriginalInstructions() + " instructions");
+        } catch (IOException e) {
+            System.err.println("Error precompiling: " + e.getMessage());
         }
     }
 }
@@ -0,0 +1,71 @@
+package bananalang;
+
+/**
+ * Opcode numbers for compiled Banana programs.
+ *
+ * <p>Every instruction is one opcode int, optionally followed by a single
+ * operand int. {@link #length(int)} tells how many ints an instruction uses.
+ */
+public final class BananaOpcodes {
+
+    /** Push a constant. Operand: index into the constant pool. */
+    public static final int PUSH = 0;
+    /** Read a line of 🍌 from the input and push how many there were. */
+    public static final int PUSH_INPUT = 1;
+    /** Duplicate an element of the list. Operand: the list index. */
+    public static final int PUSH_FROM_INDEX = 2;
+    public static final int ADD = 3;
+    public static final int SUBTRACT = 4;
+    public static final int MULTIPLY = 5;
+    public static final int DIVIDE = 6;
+    public static final int MODULUS = 7;
+    public static final int PRINT = 8;
+    public static final int PRINTC = 9;
+    public static final int CLEAR = 10;
+    /**
+     * Compare the top two values. Operand: where to jump when they differ,
+     * which is the instruction after the matching ︶.
+     */
+    public static final int EQUALS = 11;
+    /**
+     * Write a constant piece of text. Operand: index into the string pool.
+     * Only produced by {@link BananaOptimizer}.
+     */
+    public static final int PRINT_STRING = 12;
+
+    private static final String[] NAMES = {
+        "PUSH_ONE", "PUSH_INPUT", "PUSH_FROM_INDEX", "ADD", "SUBTRACT", "MULTIPLY",
+        "DIVIDE", "MODULUS", "PRINT", "PRINTC", "CLEAR", "EQUALS", "PRINT_STRING"
+    };
+
+    private BananaOpcodes() {
+    }
+
+    /**
+     * Returns the number of ints (opcode plus operands) used by an instruction.
+     * 
+     * @param opcode the opcode
+     * @return the instruction length
+     */
+    public static int length(int opcode) {
+        switch (opcode) {
+            case PUSH:
+            case PUSH_FROM_INDEX:
+            case EQUALS:
+            case PRINT_STRING:
+                return 2;
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * Returns the mnemonic of an opcode, as produced by {@link BananaParser}.
+     * 
+     * @param opcode the opcode
+     * @return the mnemonic
+     */
+    public static String name(int opcode) {
+        return NAMES[opcode];
+    }
+}
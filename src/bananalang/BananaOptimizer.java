@@ -0,0 +1,269 @@
+package bananalang;
+
+import java.util.Arrays;
+
+/**
+ * Peephole optimizer for compiled programs. Every rewrite keeps the output and
+ * the final list exactly as they would have been:
+ *
+ * <ul>
+ * <li>PUSH a, PUSH b, then ADD/SUBTRACT/MULTIPLY/DIVIDE/MODULUS becomes a
+ *     single PUSH of the result.</li>
+ * <li>PUSH c, PRINTC and PUSH n, PRINT become a PRINT_STRING of what they would
+ *     have printed, and consecutive PRINT_STRINGs are merged.</li>
+ * <li>PUSHes and CLEARs right before a CLEAR are dropped.</li>
+ * </ul>
+ *
+ * <p>Instructions are rewritten while they are emitted, so folded results fold
+ * again with what follows. A window never spans the target of an EQUALS jump
+ * except at its first instruction, since control can enter there with a
+ * different list.
+ */
+public final class BananaOptimizer {
+
+    private long originalInstructions;
+    private long removedInstructions;
+
+    // The optimized instructions, in parallel arrays
+    private int[] ops;
+    private double[] values;
+    private int[] operands;
+    private StringBuilder[] texts;
+    private boolean[] labels;
+    private int[] lines;
+    private int[] columns;
+    private int size;
+
+    /**
+     * Optimizes a compiled program.
+     *
+     * @param program the program to optimize
+     * @return an equivalent program with the same or fewer instructions
+     */
+    public BananaProgram optimize(BananaProgram program) {
+        int[] code = program.getCode();
+        double[] constants = program.getConstants();
+        String[] strings = program.getStrings();
+        BananaSourceMap sourceMap = program.getSourceMap();
+
+        // Number the instructions and mark the ones EQUALS can jump to
+        int[] indexOf = new int[code.length + 1];
+        int count = 0;
+        for (int pc = 0; pc < code.length; pc += BananaOpcodes.length(code[pc])) {
+            indexOf[pc] = count++;
+        }
+        indexOf[code.length] = count;
+        boolean[] isTarget = new boolean[count + 1];
+        for (int pc = 0; pc < code.length; pc += BananaOpcodes.length(code[pc])) {
+            if (code[pc] == BananaOpcodes.EQUALS) {
+                isTarget[indexOf[code[pc + 1]]] = true;
+            }
+        }
+
+        allocate(count);
+        int[] newIndexOf = new int[count + 1];
+        int index = 0;
+        for (int pc = 0; pc < code.length; pc += BananaOpcodes.length(code[pc]), index++) {
+            int op = code[pc];
+            newIndexOf[index] = size;
+            boolean label = isTarget[index];
+            int line = sourceMap.line(pc);
+            int column = sourceMap.column(pc);
+            switch (op) {
+                case BananaOpcodes.PUSH:
+                    append(op, label, line, column).values[size - 1] = constants[code[pc + 1]];
+                    break;
+                case BananaOpcodes.PUSH_FROM_INDEX:
+                    append(op, label, line, column).operands[size - 1] = code[pc + 1];
+                    break;
+                case BananaOpcodes.EQUALS:
+                    append(op, label, line, column).operands[size - 1] = indexOf[code[pc + 1]];
+                    break;
+                case BananaOpcodes.PRINT_STRING:
+                    printString(strings[code[pc + 1]], label, line, column);
+                    break;
+                case BananaOpcodes.ADD:
+                case BananaOpcodes.SUBTRACT:
+                case BananaOpcodes.MULTIPLY:
+                case BananaOpcodes.DIVIDE:
+                case BananaOpcodes.MODULUS:
+                    if (!label && size >= 2 && isPush(size - 1) && !labels[size - 1] && isPush(size - 2)) {
+                        values[size - 2] = fold(op, values[size - 2], values[size - 1]);
+                        size--;
+                    } else {
+                        append(op, label, line, column);
+                    }
+                    break;
+                case BananaOpcodes.PRINT:
+                case BananaOpcodes.PRINTC: {
+                    String text = label || size == 0 || !isPush(size - 1) ? null : printed(op, values[size - 1]);
+                    if (text != null) {
+                        size--;
+                        printString(text, labels[size], lines[size], columns[size]);
+                    } else {
+                        append(op, label, line, column);
+                    }
+                    break;
+                }
+                case BananaOpcodes.CLEAR:
+                    while (!label && size > 0 && (isPush(size - 1) || ops[size - 1] == BananaOpcodes.CLEAR)) {
+                        size--;
+                        label = labels[size];
+                        line = lines[size];
+                        column = columns[size];
+                    }
+                    append(op, label, line, column);
+                    break;
+                default:
+                    append(op, label, line, column);
+                    break;
+            }
+        }
+        newIndexOf[count] = size;
+
+        BananaProgram optimized = encode(newIndexOf);
+        originalInstructions += count;
+        removedInstructions += count - optimized.instructionCount();
+        return optimized;
+    }
+
+    /**
+     * Returns how many instructions all optimized programs had before optimizing.
+     *
+     * @return the original instruction count
+     */
+    public long getOriginalInstructions() {
+        return originalInstructions;
+    }
+
+    /**
+     * Returns how many instructions the optimizer has removed from all programs.
+     *
+     * @return the removed instruction count
+     */
+    public long getRemovedInstructions() {
+        return removedInstructions;
+    }
+
+    /**
+     * Emits the optimized instructions through a compiler, which rebuilds the
+     * constant and string pools and resolves the EQUALS targets again.
+     */
+    private BananaProgram encode(int[] newIndexOf) {
+        BananaCompiler compiler = new BananaCompiler(null);
+        // Targets of the EQUALS blocks that are still open, innermost last
+        int[] open = new int[16];
+        int openCount = 0;
+        for (int i = 0; i <= size; i++) {
+            while (openCount > 0 && open[openCount - 1] == i) {
+                compiler.closeBlock(0, 0);
+                openCount--;
+            }
+            if (i == size) {
+                break;
+            }
+            switch (ops[i]) {
+                case BananaOpcodes.PUSH:
+                    compiler.push(values[i], lines[i], columns[i]);
+                    break;
+                case BananaOpcodes.PUSH_FROM_INDEX:
+                    compiler.pushFromIndex(operands[i], lines[i], columns[i]);
+                    break;
+                case BananaOpcodes.PRINT_STRING:
+                    compiler.printString(texts[i].toString(), lines[i], columns[i]);
+                    break;
+                case BananaOpcodes.EQUALS:
+                    if (openCount == open.length) {
+                        open = Arrays.copyOf(open, openCount * 2);
+                    }
+                    open[openCount++] = newIndexOf[operands[i]];
+                    compiler.instruction(ops[i], lines[i], columns[i]);
+                    break;
+                default:
+                    compiler.instruction(ops[i], lines[i], columns[i]);
+                    break;
+            }
+        }
+        BananaProgram program = compiler.finish();
+        release();
+        return program;
+    }
+
+    private void printString(String text, boolean label, int line, int column) {
+        if (!label && size > 0 && ops[size - 1] == BananaOpcodes.PRINT_STRING) {
+            texts[size - 1].append(text);
+        } else {
+            append(BananaOpcodes.PRINT_STRING, label, line, column).texts[size - 1] = new StringBuilder(text);
+        }
+    }
+
+    private BananaOptimizer append(int op, boolean label, int line, int column) {
+        ops[size] = op;
+        labels[size] = label;
+        lines[size] = line;
+        columns[size] = column;
+        texts[size] = null;
+        size++;
+        return this;
+    }
+
+    private boolean isPush(int i) {
+        return ops[i] == BananaOpcodes.PUSH;
+    }
+
+    /**
+     * Computes what the interpreter's arithmetic would leave on the list.
+     */
+    private static double fold(int op, double a, double b) {
+        switch (op) {
+            case BananaOpcodes.ADD:
+                return a + b;
+            case BananaOpcodes.SUBTRACT:
+                return a - b;
+            case BananaOpcodes.MULTIPLY:
+                return a * b;
+            case BananaOpcodes.DIVIDE:
+                return a / b;
+            default:
+                return a % b;
+        }
+    }
+
+    /**
+     * Returns the text PRINT or PRINTC writes for a value, or null if it is not
+     * a character every output writes the same way.
+     */
+    private static String printed(int op, double value) {
+        if (op == BananaOpcodes.PRINT) {
+            return BananaOutput.formatNumber(value);
+        }
+        int codePoint = (int) value;
+        if (!Character.isValidCodePoint(codePoint) || (Character.isBmpCodePoint(codePoint)
+                && Character.isSurrogate((char) codePoint))) {
+            return null;
+        }
+        return new String(Character.toChars(codePoint));
+    }
+
+    private void allocate(int capacity) {
+        ops = new int[capacity];
+        values = new double[capacity];
+        operands = new int[capacity];
+        texts = new StringBuilder[capacity];
+        labels = new boolean[capacity];
+        lines = new int[capacity];
+        columns = new int[capacity];
+        size = 0;
+    }
+
+    private void release() {
+        ops = null;
+        values = null;
+        operands = null;
+        texts = null;
+        labels = null;
+        lines = null;
+        columns = null;
+        size = 0;
+    }
+}
@@ -0,0 +1,73 @@
+package bananalang;
+
+/**
+ * Where PRINT, PRINTC and error messages go. The CLI writes to standard output,
+ * the GUI writes to its console.
+ */
+public interface BananaOutput {
+
+    /**
+     * Writes text as-is.
+     * 
+     * @param text the text to write
+     */
+    void print(String text);
+
+    /**
+     * Writes a number the way PRINT shows it: whole numbers without a decimal point.
+     * 
+     * @param value the number to write
+     */
+    default void printNumber(double value) {
+        print(formatNumber(value));
+    }
+
+    /**
+     * Writes a character the way PRINTC shows it.
+     * 
+     * @param value the Unicode code point; anything that is not a valid code
+     *     point is written as '?'
+     */
+    default void printChar(int value) {
+        print(Character.isValidCodePoint(value) ? new String(Character.toChars(value)) : "?");
+    }
+
+    /**
+     * Writes an error message on its own line.
+     * 
+     * @param message the error message
+     */
+    default void error(String message) {
+        print("🚫 Error: " + message + System.lineSeparator());
+    }
+
+    /**
+     * Makes sure everything written so far is visible. Called before input is
+     * read and when a program ends.
+     */
+    default void flush() {
+    }
+
+    /**
+     * Formats a number the way PRINT shows it.
+     * 
+     * @param value the number
+     * @return the value as an int if it is (almost) whole, otherwise as a double
+     */
+    static String formatNumber(double value) {
+        if (printsAsInt(value)) {
+            return String.valueOf((int) value);
+        }
+        return String.valueOf(value);
+    }
+
+    /**
+     * Tells whether PRINT shows a number as an int.
+     * 
+     * @param value the number
+     * @return true if the value is within 0.000000001 above a whole number
+     */
+    static boolean printsAsInt(double value) {
+        return (value - Math.floor(value)) < 0.000000001;
+    }
+}
@@ -1,181 +1,719 @@
 package bananalang;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
- * This class is responsible for parsing the Banana language.
+ * This class is responsible for parsing the Banana language. Code is fed to it
+ * one code point at a time, so a program file can be streamed straight from
+ * {@link BananaSourceReader} without building the whole source first.
+ *
+ * <p>Tokens are recognized by a table-driven automaton over emoji classes, and
+ * number literals are decoded bit by bit while the token is read, so no String
+ * is created for a token unless it has to be reported as unknown.
  */
 public class BananaParser {
 
+    // Emoji classes, the input alphabet of the token automaton
+    private static final int BANANA = 0;
+    private static final int MOON = 1;
+    private static final int MONKEY = 2;
+    private static final int HEAR_NO_EVIL = 3;
+    private static final int SEE_NO_EVIL = 4;
+    private static final int FALLEN_LEAF = 5;
+    private static final int PALM_TREE = 6;
+    private static final int LEAFLESS_TREE = 7;
+    private static final int SNOWFLAKE = 8;
+    private static final int VARIATION_SELECTOR = 9;
+    private static final int QUESTION_MARK = 10;
+    private static final int CLOSE = 11;
+    private static final int OTHER = 12;
+    private static final int CLASSES = 13;
+
+    // Token kinds that are not instructions; instruction tokens use their opcode
+    private static final int KIND_UNKNOWN = -1;
+    private static final int KIND_BANANA = -2;
+    private static final int KIND_INPUT = -3;
+    private static final int KIND_CLOSE = -4;
+
+    // Token automaton: state 0 is dead, state 1 is the start of a token
+    private static final int DEAD = 0;
+    private static final int START = 1;
+    private static final int[] TRANSITIONS;
+    private static final int[] ACCEPTS;
+
+    static {
+        String[] tokens = {
+            "🍌", "🍌🍌🍌", "︶", "🍌🍌", "🍌🍂", "🍌🌴", "🍌🪾", "🍌❄️",
+            "🍌🙈", "🍌🙉", "🍌🍌🍌🍌🍌", "🍌❓"
+        };
+        int[] kinds = {
+            KIND_BANANA, KIND_INPUT, KIND_CLOSE, BananaOpcodes.ADD, BananaOpcodes.SUBTRACT,
+            BananaOpcodes.MULTIPLY, BananaOpcodes.DIVIDE, BananaOpcodes.MODULUS, BananaOpcodes.PRINT,
+            BananaOpcodes.PRINTC, BananaOpcodes.CLEAR, BananaOpcodes.EQUALS
+        };
+        int maxStates = 2;
+        for (String token : tokens) {
+            maxStates += token.codePointCount(0, token.length());
+        }
+        int[] transitions = new int[maxStates * CLASSES];
+        int[] accepts = new int[maxStates];
+        Arrays.fill(accepts, KIND_UNKNOWN);
+        int states = 2;
+        for (int t = 0; t < tokens.length; t++) {
+            int state = START;
+            for (int i = 0; i < tokens[t].length(); ) {
+                int codePoint = tokens[t].codePointAt(i);
+                int index = state * CLASSES + classOf(codePoint);
+                if (transitions[index] == DEAD) {
+                    transitions[index] = states++;
+                }
+                state = transitions[index];
+                i += Character.charCount(codePoint);
+            }
+            accepts[state] = kinds[t];
+        }
+        TRANSITIONS = transitions;
+        ACCEPTS = accepts;
+    }
+
+    // Number literal layouts, picked from the first emojis of a token
+    private static final int LITERAL_NONE = 0;
+    private static final int LITERAL_INDEX = 1;
+    private static final int LITERAL_INT = 2;
+    private static final int LITERAL_DOUBLE = 3;
+
+    private static final long[] POWERS_OF_TEN = new long[19];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    // Where parsed commands go: a compiler, or else the command list
+    private final BananaCompiler compiler;
+    private List<String> commands = new ArrayList<>();
+    private BananaSourceMap sourceMap = new BananaSourceMap();
+
+    private int line;
+    private int column;
+
+    // The token being read
+    private boolean inToken;
+    private int tokenLine;
+    private int tokenColumn;
+    private int state;
+    private int tokenCodePoints;
+    private int tokenChars;
+    private boolean blank;
+    private final StringBuilder text = new StringBuilder();
+
+    // Number literal decoded from the token being read
+    private int literal;
+    private boolean negative;
+    private int monkeys;
+    private long bits;
+    private int digits;
+    private boolean overflow;
+    private long fractionBits;
+    private int fractionDigits;
+    private int fractionZeros;
+    private boolean fractionOverflow;
+
+    // A 🍌 waits for the next token to know what it pushes
+    private boolean pendingPush;
+    private int pendingLine;
+    private int pendingColumn;
+
+    // Where problems go when diagnosing instead of compiling, otherwise null
+    private List<BananaDiagnostic> diagnostics;
+    private String malformedMessage;
+
+    /**
+     * Creates a parser that returns commands as a list.
+     */
+    public BananaParser() {
+        this(null);
+    }
+
+    /**
+     * Creates a parser that emits straight into a compiler.
+     */
+    BananaParser(BananaCompiler compiler) {
+        this.compiler = compiler;
+    }
+
     /**
      * Parses the given Banana language code and returns a list of commands.
      * 
      * @param code the Banana language code to parse
      * @return a list of BananaCommands parsed from the code
+     * @throws BananaCompileException if a number literal is malformed
      */
     public List<String> parse(String code) {
-        List<String> commands = new ArrayList<String>();
-        String[] tokens = code.split("\\s+"); // split by whitespace
+        begin();
+        for (int i = 0; i < code.length(); ) {
+            int codePoint = code.codePointAt(i);
+            feed(codePoint);
+            i += Character.charCount(codePoint);
+        }
+        return finish();
+    }
 
-        for (int i = 0; i < tokens.length; i++) {
-            String token = tokens[i];
-            if (token.trim().isEmpty()) {
-                continue;
+    /**
+     * Streams a program file through the preprocessor into the parser and
+     * returns the list of commands.
+     * 
+     * @param file the UTF-8 program file
+     * @return a list of BananaCommands parsed from the file
+     * @throws IOException if the file cannot be read
+     * @throws BananaCompileException if a number literal is malformed
+     */
+    public List<String> parse(File file) throws IOException {
+        begin();
+        try (BananaSourceReader reader = BananaSourceReader.open(file.toPath())) {
+            for (int codePoint = reader.read(); codePoint >= 0; codePoint = reader.read()) {
+                feed(codePoint);
             }
-            switch (token) {
-                case "🍌":
-                    if (i + 1 < tokens.length) {
-                        String nextToken = tokens[i + 1];
-                        
-                        // Check if next token is 🍌🍌🍌 (input token)
-                        if (nextToken.equals("🍌🍌🍌")) {
-                            commands.add("PUSH_INPUT");
-                            i++; // Skip the input token
-                            break;
-                        }
-
-                        if (nextToken.startsWith("🙉")) {
-                            StringBuilder binaryString = new StringBuilder();
-                            for (int j = 1; j < nextToken.length(); ) {
-                                int codePoint = nextToken.codePointAt(j); // get the full emoji code point
-                                String emoji = new String(Character.toChars(codePoint));
-
-                                if (emoji.equals("🍌")) {
-                                    binaryString.append('1');
-                                } else if (emoji.equals("🌙")) {
-                                    binaryString.append('0');
-                                }
-
-                                j += Character.charCount(codePoint); // move to the next emoji
-                            }
-                            int index = Integer.parseInt(binaryString.toString(), 2);
-                            i++; // Skip the number token
-
-                            // Generate command to push element from index at runtime
-                            commands.add("PUSH_FROM_INDEX");
-                            commands.add(String.valueOf(index));
-                            
-                            break;
-                        }
-                        
-                        double number = 1;
-                        int j = 6;
-                        boolean negative = false;
-                        try {
-                            if (nextToken.startsWith("🌙🌙")) {
-                                
-                                if (nextToken.startsWith("🌙🌙🍌")) {
-                                    negative = true;
-                                }
-                                int x = 0;
-                                StringBuilder binaryString = new StringBuilder();
-                                String[] numberHalves = new String[2];
-                                numberHalves[0] = "";
-                                numberHalves[1] = "";
-                                while (j < nextToken.length()) {
-                                    int codePoint = nextToken.codePointAt(j); // get the full emoji code point
-                                    String emoji = new String(Character.toChars(codePoint));
-
-                                    if (emoji.equals("🍌")) {
-                                        binaryString.append('1');
-                                    } else if (emoji.equals("🌙")) {
-                                        binaryString.append('0');
-                                    } else if (emoji.equals("🐒")) {
-                                        numberHalves[x] += binaryString.toString();
-                                        binaryString = new StringBuilder();
-                                        x++;
-                                    }
-                                    j += Character.charCount(codePoint); // move to the next emoji
-                                }
-                                numberHalves[x] += binaryString.toString();
-                                StringBuilder doubleString = new StringBuilder(Integer.parseInt(numberHalves[0], 2) + ".");
-                                while (numberHalves[1].startsWith("0")) {
-                                    doubleString.append("0");
-                                    numberHalves[1] = numberHalves[1].substring(1);
-                                }
-                                doubleString.append(Integer.parseInt(numberHalves[1], 2));
-                                number = (Double.parseDouble(doubleString.toString()));
-                                if (negative) {
-                                    number *= -1;
-                                }
-                                i++; // Skip the number token
-                            } else if (nextToken.startsWith("🌙")) {
-                                if (nextToken.startsWith("🌙🍌")) {
-                                    negative = true;
-                                }
-                                StringBuilder binaryString = new StringBuilder();
-                                for (j = 2; j < nextToken.length(); ) {
-                                    int codePoint = nextToken.codePointAt(j); // get the full emoji code point
-                                    String emoji = new String(Character.toChars(codePoint));
-
-                                    if (emoji.equals("🍌")) {
-                                        binaryString.append('1');
-                                    } else if (emoji.equals("🌙")) {
-                                        binaryString.append('0');
-                                    }
-
-                                    j += Character.charCount(codePoint); // move to the next emoji
-                                }
-                                number = Integer.parseInt(binaryString.toString(), 2);
-                                if (negative) {
-                                    number *= -1;
-                                }
-                                i++; // Skip the number token
-                            }   
-                            
-                            commands.add("PUSH_ONE");
-                            commands.add(String.valueOf((double) number));
-                            
-                            break;
-                            
-                        } catch (NumberFormatException e) {
-                            // Not a number, push 1 as default
-                            commands.add("PUSH_ONE");
-                            commands.add("1");
-                            break;
-                        }
-                    } else {
-                        // No next token, push 1 as default
-                        commands.add("PUSH_ONE");
-                        commands.add("1");
-                    }
-                    break;
-                case "🍌🍌":
-                    commands.add("ADD");
-                    break;
-                case "🍌🍂":
-                    commands.add("SUBTRACT");
-                    break;
-                case "🍌🌴":
-                    commands.add("MULTIPLY");
-                    break;
-                case "🍌🪾":
-                    commands.add("DIVIDE");
-                    break;
-                case "🍌❄️":
-                    commands.add("MODULUS");
-                    break;
-                case "🍌🙈":
-                    commands.add("PRINT");
-                    break;
-                case "🍌🙉":
-                    commands.add("PRINTC");
-                    break;
-                case "🍌🍌🍌🍌🍌":
-                    commands.add("CLEAR");
-                    break;
-                case "🍌❓":
-                    commands.add("EQUALS");
+        }
+        return finish();
+    }
+
+    /**
+     * Splits one line of code, preprocessed or not, into tokens, with their
+     * number literals already decoded. Tokens never span lines, so a line can
+     * be lexed again on its own after an edit.
+     * 
+     * @param line the line, without its line break
+     * @return the tokens of the line
+     */
+    static List<Token> lexLine(String line) {
+        BananaParser lexer = new BananaParser();
+        List<Token> tokens = new ArrayList<>();
+        lexer.column = 1;
+        for (int i = 0; i < line.length(); ) {
+            int codePoint = BananaPreprocessor.filter(line.codePointAt(i));
+            if (isSeparator(codePoint)) {
+                if (lexer.inToken) {
+                    lexer.inToken = false;
+                    tokens.add(new Token(lexer));
+                }
+            } else {
+                if (!lexer.inToken) {
+                    lexer.startToken();
+                }
+                lexer.step(codePoint);
+            }
+            lexer.column++;
+            i += Character.charCount(line.codePointAt(i));
+        }
+        if (lexer.inToken) {
+            tokens.add(new Token(lexer));
+        }
+        return tokens;
+    }
+
+    /**
+     * Parses lines lexed by {@link #lexLine(String)} as if they were one
+     * piece of code, into the compiler or the command list.
+     * 
+     * @param lines the tokens of each line
+     * @return the commands, if this parser has no compiler
+     * @throws BananaCompileException if a number literal is malformed
+     */
+    List<String> parse(List<List<Token>> lines) {
+        begin();
+        for (int i = 0; i < lines.size(); i++) {
+            for (Token token : lines.get(i)) {
+                token.restore(this, i + 1);
+                if (diagnostics == null) {
+                    endToken();
+                    continue;
+                }
+                try {
+                    endToken();
+                } catch (BananaCompileException e) {
+                    diagnostics.add(new BananaDiagnostic(BananaDiagnostic.Severity.ERROR,
+                        pendingLine, pendingColumn, malformedMessage));
+                }
+            }
+        }
+        return finish();
+    }
+
+    /**
+     * Finds the problems in lexed lines: unknown tokens, malformed number
+     * literals and ︶ that do not match an EQUALS, all of them rather than
+     * only the first.
+     * 
+     * @param lines the tokens of each line
+     * @return the problems, in source order
+     */
+    static List<BananaDiagnostic> diagnose(List<List<Token>> lines) {
+        BananaParser parser = new BananaParser();
+        List<BananaDiagnostic> problems = new ArrayList<>();
+        parser.diagnostics = problems;
+        List<String> commands = parser.parse(lines);
+        BananaSourceMap positions = parser.getSourceMap();
+
+        // Blocks are only checked here, so every stray ︶ and open EQUALS shows up
+        int[] open = new int[16];
+        int depth = 0;
+        for (int i = 0; i < commands.size(); i++) {
+            if (commands.get(i).equals("EQUALS")) {
+                if (depth == open.length) {
+                    open = Arrays.copyOf(open, depth * 2);
+                }
+                open[depth++] = i;
+            } else if (commands.get(i).equals("︶")) {
+                if (depth == 0) {
+                    problems.add(new BananaDiagnostic(BananaDiagnostic.Severity.ERROR,
+                        positions.line(i), positions.column(i), "︶ without a matching EQUALS"));
+                } else {
+                    depth--;
+                }
+            }
+        }
+        for (int i = 0; i < depth; i++) {
+            problems.add(new BananaDiagnostic(BananaDiagnostic.Severity.ERROR,
+                positions.line(open[i]), positions.column(open[i]), "EQUALS is never closed by ︶"));
+        }
+        problems.sort(null);
+        return problems;
+    }
+
+    /**
+     * Returns the source position of every command returned by the last call
+     * to parse, indexed like the command list.
+     * 
+     * @return the source map
+     */
+    public BananaSourceMap getSourceMap() {
+        return sourceMap;
+    }
+
+    private static int classOf(int codePoint) {
+        switch (codePoint) {
+            case 0x1F34C:
+                return BANANA;
+            case 0x1F319:
+                return MOON;
+            case 0x1F412:
+                return MONKEY;
+            case 0x1F649:
+                return HEAR_NO_EVIL;
+            case 0x1F648:
+                return SEE_NO_EVIL;
+            case 0x1F342:
+                return FALLEN_LEAF;
+            case 0x1F334:
+                return PALM_TREE;
+            case 0x1FABE:
+                return LEAFLESS_TREE;
+            case 0x2744:
+                return SNOWFLAKE;
+            case 0xFE0F:
+                return VARIATION_SELECTOR;
+            case 0x2753:
+                return QUESTION_MARK;
+            case 0xFE36:
+                return CLOSE;
+            default:
+                return OTHER;
+        }
+    }
+
+    private void begin() {
+        commands = new ArrayList<>();
+        sourceMap = new BananaSourceMap();
+        inToken = false;
+        line = 1;
+        column = 1;
+        pendingPush = false;
+    }
+
+    private static boolean isSeparator(int codePoint) {
+        return codePoint == ' ' || codePoint == '\n' || codePoint == '\t'
+            || codePoint == '\r' || codePoint == '\f' || codePoint == 0x0B;
+    }
+
+    /**
+     * Adds one code point, splitting tokens on whitespace.
+     */
+    private void feed(int codePoint) {
+        if (isSeparator(codePoint)) {
+            if (inToken) {
+                endToken();
+            }
+            if (codePoint == '\n') {
+                line++;
+                column = 1;
+                return;
+            }
+        } else {
+            if (!inToken) {
+                startToken();
+            }
+            step(codePoint);
+        }
+        column++;
+    }
+
+    private void startToken() {
+        inToken = true;
+        tokenLine = line;
+        tokenColumn = column;
+        state = START;
+        tokenCodePoints = 0;
+        tokenChars = 0;
+        blank = true;
+        text.setLength(0);
+        literal = LITERAL_NONE;
+        negative = false;
+        monkeys = 0;
+        bits = 0;
+        digits = 0;
+        overflow = false;
+        fractionBits = 0;
+        fractionDigits = 0;
+        fractionZeros = 0;
+        fractionOverflow = false;
+    }
+
+    /**
+     * Advances the token automaton and the number literal decoder by one code point.
+     */
+    private void step(int codePoint) {
+        int symbol = classOf(codePoint);
+        state = TRANSITIONS[state * CLASSES + symbol];
+        text.appendCodePoint(codePoint);
+        if (codePoint > ' ') {
+            blank = false;
+        }
+
+        int index = tokenCodePoints++;
+        int charStart = tokenChars;
+        tokenChars += Character.charCount(codePoint);
+
+        // The layout follows the first two emojis: 🙉 is an index, 🌙🌙 a double, 🌙 an int
+        if (index == 0) {
+            literal = symbol == HEAR_NO_EVIL ? LITERAL_INDEX : symbol == MOON ? LITERAL_INT : LITERAL_NONE;
+            return;
+        }
+        switch (literal) {
+            case LITERAL_INDEX:
+                digit(symbol);
+                break;
+            case LITERAL_INT:
+                if (index == 1 && symbol == MOON) {
+                    literal = LITERAL_DOUBLE;
                     break;
-                case "︶":
-                    commands.add("︶");
+                }
+                if (index == 1) {
+                    negative = symbol == BANANA;
+                }
+                // The sign emoji is read as a digit too
+                digit(symbol);
+                break;
+            case LITERAL_DOUBLE:
+                if (index == 2) {
+                    negative = symbol == BANANA;
+                }
+                // Digits start 6 chars in, after 🌙🌙 and the sign emoji
+                if (charStart < 6) {
                     break;
-                default:
-                    System.out.println("⚠️ Unknown token: " + token);
+                }
+                if (symbol == MONKEY) {
+                    monkeys++;
+                } else if (monkeys == 0) {
+                    digit(symbol);
+                } else if (monkeys == 1) {
+                    fractionDigit(symbol);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Adds a binary digit (🍌 = 1, 🌙 = 0) to the whole part of a literal.
+     */
+    private void digit(int symbol) {
+        if (symbol != BANANA && symbol != MOON) {
+            return;
+        }
+        digits++;
+        bits = (bits << 1) | (symbol == BANANA ? 1 : 0);
+        if (bits > Integer.MAX_VALUE) {
+            overflow = true;
+            bits = Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Adds a binary digit to the fraction of a double literal. Leading zero
+     * digits are counted separately: each one becomes a decimal 0 after the
+     * point, and the rest is read as a binary number written out in decimal.
+     */
+    private void fractionDigit(int symbol) {
+        if (symbol != BANANA && symbol != MOON) {
+            return;
+        }
+        if (symbol == MOON && fractionDigits == 0) {
+            fractionZeros++;
+            return;
+        }
+        fractionDigits++;
+        fractionBits = (fractionBits << 1) | (symbol == BANANA ? 1 : 0);
+        if (fractionBits > Integer.MAX_VALUE) {
+            fractionOverflow = true;
+            fractionBits = Integer.MAX_VALUE;
+        }
+    }
+
+    private void endToken() {
+        inToken = false;
+        if (pendingPush) {
+            pendingPush = false;
+            if (pushOperand(pendingLine, pendingColumn)) {
+                return;
             }
         }
+        if (blank) {
+            return;
+        }
+        int kind = ACCEPTS[state];
+        switch (kind) {
+            case KIND_BANANA:
+                pendingPush = true;
+                pendingLine = tokenLine;
+                pendingColumn = tokenColumn;
+                break;
+            case KIND_CLOSE:
+                if (compiler != null) {
+                    compiler.closeBlock(tokenLine, tokenColumn);
+                } else {
+                    add("︶", tokenLine, tokenColumn);
+                }
+                break;
+            case KIND_UNKNOWN:
+            case KIND_INPUT:
+                if (diagnostics != null) {
+                    diagnostics.add(new BananaDiagnostic(BananaDiagnostic.Severity.WARNING,
+                        tokenLine, tokenColumn, "Unknown token: " + text));
+                } else if (compiler != null) {
+                    compiler.warn("⚠️ Unknown token: " + text);
+                } else {
+                    System.out.println("⚠️ Unknown token: " + text);
+                }
+                break;
+            default:
+                instruction(kind, tokenLine, tokenColumn);
+                break;
+        }
+    }
 
+    private List<String> finish() {
+        if (inToken) {
+            endToken();
+        }
+        if (pendingPush) {
+            // No next token, push 1 as default
+            pendingPush = false;
+            push(1, pendingLine, pendingColumn);
+        }
         return commands;
     }
+
+    /**
+     * Handles the token that follows a 🍌.
+     * 
+     * @return true if the token was the 🍌's operand, false if it still has to
+     *     be parsed as a token of its own
+     */
+    private boolean pushOperand(int line, int column) {
+        if (ACCEPTS[state] == KIND_INPUT) {
+            instruction(BananaOpcodes.PUSH_INPUT, line, column);
+            return true; // Skip the input token
+        }
+
+        switch (literal) {
+            case LITERAL_INDEX:
+                if (digits == 0 || overflow) {
+                    throw malformed("index", line, column);
+                }
+                // Generate command to push element from index at runtime
+                if (compiler != null) {
+                    compiler.pushFromIndex((int) bits, line, column);
+                } else {
+                    add("PUSH_FROM_INDEX", line, column);
+                    add(String.valueOf(bits), line, column);
+                }
+                return true; // Skip the number token
+
+            case LITERAL_INT: {
+                if (digits == 0 || overflow) {
+                    // Not a number, push 1 as default
+                    push(1, line, column);
+                    return false;
+                }
+                double number = bits;
+                if (negative) {
+                    number *= -1;
+                }
+                push(number, line, column);
+                return true; // Skip the number token
+            }
+
+            case LITERAL_DOUBLE: {
+                if (monkeys > 1) {
+                    throw malformed("number", line, column);
+                }
+                if (monkeys == 0 || digits == 0 || overflow || fractionDigits == 0 || fractionOverflow) {
+                    // Not a number, push 1 as default
+                    push(1, line, column);
+                    return false;
+                }
+                double number = decimal(bits, fractionZeros, fractionBits);
+                if (negative) {
+                    number *= -1;
+                }
+                push(number, line, column);
+                return true; // Skip the number token
+            }
+
+            default:
+                // Not a number, push 1 as default
+                push(1, line, column);
+                return false;
+        }
+    }
+
+    /**
+     * Returns the double written in decimal as whole, then '.', then the given
+     * number of zeros, then fraction.
+     */
+    private static double decimal(long whole, int zeros, long fraction) {
+        int scale = zeros + (int) Math.log10(fraction) + 1;
+        if (scale < POWERS_OF_TEN.length) {
+            // Both numbers are exact doubles, so the division rounds correctly
+            long power = POWERS_OF_TEN[scale];
+            if (whole <= ((1L << 53) - fraction) / power) {
+                return (double) (whole * power + fraction) / power;
+            }
+        }
+        StringBuilder decimal = new StringBuilder().append(whole).append('.');
+        for (int i = 0; i < zeros; i++) {
+            decimal.append('0');
+        }
+        return Double.parseDouble(decimal.append(fraction).toString());
+    }
+
+    private BananaCompileException malformed(String what, int line, int column) {
+        malformedMessage = "Malformed " + what + " literal " + text;
+        return new BananaCompileException(malformedMessage + " at " + BananaSourceMap.describe(line, column));
+    }
+
+    private void push(double value, int line, int column) {
+        if (compiler != null) {
+            compiler.push(value, line, column);
+        } else {
+            add("PUSH_ONE", line, column);
+            add(String.valueOf(value), line, column);
+        }
+    }
+
+    private void instruction(int opcode, int line, int column) {
+        if (compiler != null) {
+            compiler.instruction(opcode, line, column);
+        } else {
+            add(BananaOpcodes.name(opcode), line, column);
+        }
+    }
+
+    private void add(String command, int line, int column) {
+        commands.add(command);
+        sourceMap.add(line, column);
+    }
+
+    /**
+     * A token read by {@link #lexLine(String)}: what the parser knows about
+     * it when it ends, so the token can be parsed later without reading its
+     * code points again.
+     */
+    static final class Token {
+        private final int column;
+        private final int state;
+        private final boolean blank;
+        private final String text;
+        private final int literal;
+        private final boolean negative;
+        private final int monkeys;
+        private final long bits;
+        private final int digits;
+        private final boolean overflow;
+        private final long fractionBits;
+        private final int fractionDigits;
+        private final int fractionZeros;
+        private final boolean fractionOverflow;
+
+        private Token(BananaParser lexer) {
+            column = lexer.tokenColumn;
+            state = lexer.state;
+            blank = lexer.blank;
+            text = lexer.text.toString();
+            literal = lexer.literal;
+            negative = lexer.negative;
+            monkeys = lexer.monkeys;
+            bits = lexer.bits;
+            digits = lexer.digits;
+            overflow = lexer.overflow;
+            fractionBits = lexer.fractionBits;
+            fractionDigits = lexer.fractionDigits;
+            fractionZeros = lexer.fractionZeros;
+            fractionOverflow = lexer.fractionOverflow;
+        }
+
+        /**
+         * Returns the column the token starts at.
+         */
+        int column() {
+            return column;
+        }
+
+        /**
+         * Returns the token's code points, as filtered by the preprocessor.
+         */
+        String text() {
+            return text;
+        }
+
+        /**
+         * Makes this the token the parser has just finished reading.
+         */
+        private void restore(BananaParser parser, int line) {
+            parser.tokenLine = line;
+            parser.tokenColumn = column;
+            parser.state = state;
+            parser.blank = blank;
+            parser.text.setLength(0);
+            parser.text.append(text);
+            parser.literal = literal;
+            parser.negative = negative;
+            parser.monkeys = monkeys;
+            parser.bits = bits;
+            parser.digits = digits;
+            parser.overflow = overflow;
+            parser.fractionBits = fractionBits;
+            parser.fractionDigits = fractionDigits;
+            parser.fractionZeros = fractionZeros;
+            parser.fractionOverflow = fractionOverflow;
+        }
+    }
 }
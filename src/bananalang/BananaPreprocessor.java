@@ -2,87 +2,81 @@ package bananalang;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.util.HashSet;
-import java.util.Scanner;
-import java.util.Set;
+import java.io.IOException;
 
 /**
  * the PreProcessor for the banana language.
  */
 
 public class BananaPreprocessor {
-    // Whitelist of allowed emojis for file processing
-    private static final Set<String> ALLOWED_EMOJIS = createAllowedEmojisSet();
-    
-    // Whitelist of allowed emojis for input (more restrictive)
-    private static final Set<String> ALLOWED_INPUT_EMOJIS = createAllowedInputEmojisSet();
-    
+
     /**
-     * Creates and initializes the set of allowed emojis for file processing.
-     * * @return a Set containing the allowed emojis
+     * Checks a code point against the whitelist of emojis allowed in files.
+     * 
+     * @param codePoint the code point to check
+     * @return true if the code point may appear in a program
      */
-    private static Set<String> createAllowedEmojisSet() {
-        Set<String> allowed = new HashSet<>();
-        // Emojis used in the parser
-        allowed.add("🍌");  // Banana - used in many tokens
-        allowed.add("🌙");  // Moon - used in number literals
-        allowed.add("🌴");  // Palm tree - DUP token
-        allowed.add("🐒");  // Monkey - used in number literals
-        allowed.add("❓");  // Question mark - EQUALS token
-        allowed.add("🍂");  // Fallen leaf - SUBTRACT token
-        allowed.add("🪾");  // Jar - DIVIDE token
-        allowed.add("❄️");  // Snowflake - MODULUS token
-        allowed.add("🙈");  // See-no-evil monkey - PRINT token
-        allowed.add("🙉");  // Hear-no-evil monkey - PRINTC token
-        allowed.add("︶");  // PRESENTATION FORM FOR VERTICAL RIGHT PARENTHESIS - ︶ token (closing bracket for EQUALS)
-
-        // Add more allowed emojis here if needed in the future
-        return allowed;
+    public static boolean isAllowed(int codePoint) {
+        switch (codePoint) {
+            case 0x1F34C: // 🍌 Banana - used in many tokens
+            case 0x1F319: // 🌙 Moon - used in number literals
+            case 0x1F334: // 🌴 Palm tree - MULTIPLY token
+            case 0x1F412: // 🐒 Monkey - used in number literals
+            case 0x2753:  // ❓ Question mark - EQUALS token
+            case 0x1F342: // 🍂 Fallen leaf - SUBTRACT token
+            case 0x1FABE: // 🪾 Leafless tree - DIVIDE token
+            case 0x2744:  // ❄ Snowflake - MODULUS token...
+            case 0xFE0F:  // ...followed by its emoji variation selector
+            case 0x1F648: // 🙈 See-no-evil monkey - PRINT token
+            case 0x1F649: // 🙉 Hear-no-evil monkey - PRINTC token
+            case 0xFE36:  // ︶ PRESENTATION FORM FOR VERTICAL RIGHT PARENTHESIS (closing bracket for EQUALS)
+                // Add more allowed emojis here if needed in the future
+                return true;
+            default:
+                return false;
+        }
     }
-    
+
     /**
-     * Creates and initializes the set of allowed emojis for input.
-     * * @return a Set containing the allowed input emojis
+     * Checks a code point against the whitelist of emojis allowed in input
+     * (only 🍌).
+     * 
+     * @param codePoint the code point to check
+     * @return true if the code point may appear in input
      */
-    private static Set<String> createAllowedInputEmojisSet() {
-        Set<String> allowed = new HashSet<>();
-        allowed.add("🍌");
-        // Add more allowed input emojis here if needed in the future
-        return allowed;
+    public static boolean isAllowedInput(int codePoint) {
+        return codePoint == 0x1F34C;
     }
-    
+
     /**
-     * Processes a string by converting non-whitelisted characters to spaces.
-     * Uses the file processing whitelist.
-     * * @param input the input string to process
-     * @return the processed string with non-whitelisted characters replaced by spaces
+     * Maps a code point of a program to what the parser sees: whitelisted
+     * emojis and line breaks are kept, everything else becomes a space.
+     * 
+     * @param codePoint the code point to filter
+     * @return the filtered code point
      */
-    public static String processString(String input) {
-        return processString(input, ALLOWED_EMOJIS);
+    public static int filter(int codePoint) {
+        if (isAllowed(codePoint) || codePoint == '\n') {
+            return codePoint;
+        }
+        return ' ';
     }
-    
+
     /**
      * Processes a string by converting non-whitelisted characters to spaces.
+     * Uses the file processing whitelist. Line breaks are kept so parse errors
+     * can point at a line.
      * * @param input the input string to process
-     * @param whitelist the set of allowed emojis
      * @return the processed string with non-whitelisted characters replaced by spaces
      */
-    private static String processString(String input, Set<String> whitelist) {
+    public static String processString(String input) {
         if (input == null) {
             return "";
         }
-        StringBuilder result = new StringBuilder();
+        StringBuilder result = new StringBuilder(input.length());
         for (int i = 0; i < input.length(); ) {
             int codePoint = input.codePointAt(i);
-            String emoji = new String(Character.toChars(codePoint));
-            
-            // If emoji is in whitelist, keep it; otherwise convert to space
-            if (whitelist.contains(emoji)) {
-                result.append(emoji);
-            } else {
-                result.append(" ");
-            }
-            
+            result.appendCodePoint(filter(codePoint));
             i += Character.charCount(codePoint);
         }
         return result.toString();
@@ -95,25 +89,43 @@ public class BananaPreprocessor {
      * @return the processed string with non-whitelisted characters replaced by spaces
      */
     public static String processInputString(String input) {
-        return processString(input, ALLOWED_INPUT_EMOJIS);
+        if (input == null) {
+            return "";
+        }
+        StringBuilder result = new StringBuilder(input.length());
+        for (int i = 0; i < input.length(); ) {
+            int codePoint = input.codePointAt(i);
+            if (isAllowedInput(codePoint)) {
+                result.appendCodePoint(codePoint);
+            } else {
+                result.append(' ');
+            }
+            i += Character.charCount(codePoint);
+        }
+        return result.toString();
     }
     
     /**
-     * function for processing the input file.
+     * function for processing the input file. Prefer
+     * {@link BananaParser#parse(File)}, which streams the file into the parser
+     * without building the filtered string.
      */
     public static String process(File file) throws FileNotFoundException {
         if (!file.exists()) {
             return "";
         }
-        String s = "";
-        Scanner fileScanner = new Scanner(file);
-        while (fileScanner.hasNextLine()) {
-            String line = fileScanner.nextLine();
-            s += line + " ";
+        StringBuilder s = new StringBuilder((int) Math.min(file.length(), Integer.MAX_VALUE - 8));
+        try (BananaSourceReader reader = BananaSourceReader.open(file.toPath())) {
+            for (int codePoint = reader.read(); codePoint >= 0; codePoint = reader.read()) {
+                s.appendCodePoint(codePoint);
+            }
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            FileNotFoundException notReadable = new FileNotFoundException(e.getMessage());
+            notReadable.initCause(e);
+            throw notReadable;
         }
-        fileScanner.close();
-        
-        // Use the processString method to filter emojis
-        return processString(s);
+        return s.toString();
     }
 }
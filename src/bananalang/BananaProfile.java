@@ -0,0 +1,98 @@
+package bananalang;
+
+/**
+ * Tiering state of one {@link BananaProgram}, kept across all its runs: how
+ * many instructions the interpreter has run, which {@link BananaInterpreter}
+ * compares with its threshold to decide when the program is hot enough to
+ * compile to bytecode, and the compiled code and closures that later runs
+ * reuse.
+ *
+ * <p>Only the program as a whole is counted. Tier-up does not look at single
+ * blocks, so EQUALS blocks are not counted here; {@link BananaStats} counts
+ * branches taken for --stats and {@link BananaProfiler} counts block entries
+ * for --profile, both in the counting loop.
+ *
+ * <p>The count is updated without synchronization. Concurrent runs of the
+ * same program may lose counts, which only delays compilation.
+ */
+public final class BananaProfile {
+
+    private long instructions;
+    private volatile Tier compiled;
+    private volatile boolean uncompilable;
+    private volatile BananaClosureCode closures;
+
+    BananaProfile() {
+    }
+
+    /**
+     * Returns how many instructions the interpreter has executed, over all
+     * runs. Instructions run by compiled code are not counted.
+     *
+     * @return the interpreted instruction count
+     */
+    public long getInstructions() {
+        return instructions;
+    }
+
+    void countInstructions(long count) {
+        instructions += count;
+    }
+
+    /**
+     * Returns the compiled code for entering at an instruction with a given
+     * list depth, compiling it if the program has none for that entry.
+     *
+     * @return the compiled code, or null if the program cannot be compiled
+     */
+    BananaCompiledCode compiledAt(BananaProgram program, int pc, int depth) {
+        Tier tier = compiled;
+        if (tier != null && tier.pc == pc && tier.depth == depth) {
+            return tier.code;
+        }
+        if (uncompilable) {
+            return null;
+        }
+        BananaCompiledCode code = BananaBytecodeCompiler.compile(program, pc, depth);
+        if (code == null) {
+            uncompilable = true;
+        } else {
+            compiled = new Tier(pc, depth, code);
+        }
+        return code;
+    }
+
+    /**
+     * Returns the program compiled to closures, compiling it on first use.
+     * The nodes hold no run state, so concurrent runs share them; two runs
+     * racing on the first use may both compile.
+     */
+    BananaClosureCode closures(BananaProgram program) {
+        BananaClosureCode code = closures;
+        if (code == null) {
+            code = BananaClosureCompiler.compile(program);
+            closures = code;
+        }
+        return code;
+    }
+
+    /**
+     * Tells whether asking for compiled code would be pointless.
+     */
+    boolean isUncompilable() {
+        return uncompilable;
+    }
+
+    /** Compiled code and the entry it was compiled for. */
+    private static final class Tier {
+        final int pc;
+        final int depth;
+        final BananaCompiledCode code;
+
+        Tier(int pc, int depth, BananaCompiledCode code) {
+            this.pc = pc;
+            this.depth = depth;
+            this.code = code;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package bananalang;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counts how often each instruction of one program runs and maps the counts
+ * back to the source through the program's {@link BananaSourceMap}. Hook it
+ * up with {@link BananaInterpreter#setProfiler(BananaProfiler)}; counts add
+ * up over all runs of the program.
+ *
+ * <p>Costs are instruction counts, not time: every instruction counts as 1,
+ * and time spent waiting for input is not included.
+ */
+public final class BananaProfiler {
+
+    private final BananaProgram program;
+    private final String name;
+    private final long[] counts;
+
+    /**
+     * Creates a profiler for a program.
+     *
+     * @param program the program to profile; runs of other programs are
+     *     ignored
+     * @param name the program's name, used as the root frame of collapsed
+     *     stacks
+     */
+    public BananaProfiler(BananaProgram program, String name) {
+        this.program = program;
+        this.name = name;
+        this.counts = new long[program.getCode().length];
+    }
+
+    /**
+     * Adds the instruction counts of one run.
+     *
+     * @param ran the program that ran
+     * @param runCounts how often the instruction at each pc ran
+     */
+    synchronized void record(BananaProgram ran, long[] runCounts) {
+        if (ran != program) {
+            return;
+        }
+        for (int pc = 0; pc < counts.length; pc++) {
+            counts[pc] += runCounts[pc];
+        }
+    }
+
+    /**
+     * Returns how often the instruction at a pc ran.
+     *
+     * @param pc the instruction's pc
+     * @return its execution count
+     */
+    public synchronized long count(int pc) {
+        return counts[pc];
+    }
+
+    /**
+     * Returns a human-readable report: the hottest source lines and the
+     * hottest EQUALS blocks, counting everything that ran inside a block.
+     *
+     * @param limit how many lines and blocks to list
+     * @return the report, one item per line
+     */
+    public synchronized String report(int limit) {
+        int[] code = program.getCode();
+        BananaSourceMap sourceMap = program.getSourceMap();
+        long total = 0;
+        Map<Integer, Long> lines = new TreeMap<>();
+        for (int pc = 0; pc < code.length; pc += BananaOpcodes.length(code[pc])) {
+            if (counts[pc] != 0) {
+                total += counts[pc];
+                lines.merge(sourceMap.line(pc), counts[pc], Long::sum);
+            }
+        }
+
+        List<Block> blocks = blocks();
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("🍌 Profile of %s: %d instruction(s)%n", name, total));
+        text.append(String.format("🍌 Hottest lines:%n"));
+        List<Map.Entry<Integer, Long>> hotLines = new ArrayList<>(lines.entrySet());
+        hotLines.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        for (Map.Entry<Integer, Long> line : hotLines.subList(0, Math.min(limit, hotLines.size()))) {
+            text.append(String.format("   %-18s %12d %6.2f%%%n",
+                line.getKey() == 0 ? "(unknown)" : "line " + line.getKey(), line.getValue(),
+                percent(line.getValue(), total)));
+        }
+        blocks.removeIf(block -> block.inside == 0);
+        if (!blocks.isEmpty()) {
+            text.append(String.format("🍌 Hottest blocks (instructions inside, times entered):%n"));
+            blocks.sort((a, b) -> Long.compare(b.inside, a.inside));
+            for (Block block : blocks.subList(0, Math.min(limit, blocks.size()))) {
+                text.append(String.format("   %-18s %12d %6.2f%% %10d%n", shortPosition(sourceMap, block.pc),
+                    block.inside, percent(block.inside, total), entered(block)));
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Writes the counts as collapsed stacks, one line per source line and
+     * chain of enclosing blocks, e.g. {@code calc.nana;EQUALS@4:1;line 7 120},
+     * for flame graph tools such as flamegraph.pl or speedscope.
+     *
+     * @param out where to write the stacks
+     * @throws IOException if writing fails
+     */
+    public synchronized void writeCollapsed(Writer out) throws IOException {
+        int[] code = program.getCode();
+        BananaSourceMap sourceMap = program.getSourceMap();
+        Map<String, Long> stacks = new LinkedHashMap<>();
+        int[] open = new int[4];
+        int[] ends = new int[4];
+        int depth = 0;
+        StringBuilder frames = new StringBuilder();
+        for (int pc = 0; pc < code.length; pc += BananaOpcodes.length(code[pc])) {
+            while (depth > 0 && ends[depth - 1] <= pc) {
+                depth--;
+            }
+            if (counts[pc] != 0) {
+                frames.setLength(0);
+                frames.append(name);
+                for (int i = 0; i < depth; i++) {
+                    frames.append(";EQUALS@").append(shortPosition(sourceMap, open[i]));
+                }
+                int line = sourceMap.line(pc);
+                frames.append(';').append(line == 0 ? "(unknown)" : "line " + line);
+                stacks.merge(frames.toString(), counts[pc], Long::sum);
+            }
+            if (code[pc] == BananaOpcodes.EQUALS) {
+                if (depth == open.length) {
+                    open = Arrays.copyOf(open, depth * 2);
+                    ends = Arrays.copyOf(ends, depth * 2);
+                }
+                open[depth] = pc;
+                ends[depth] = code[pc + 1];
+                depth++;
+            }
+        }
+        for (Map.Entry<String, Long> stack : stacks.entrySet()) {
+            out.write(stack.getKey() + " " + stack.getValue() + "\n");
+        }
+        out.flush();
+    }
+
+    /**
+     * Returns every EQUALS block with the number of instructions that ran
+     * inside it, nested blocks included.
+     */
+    private List<Block> blocks() {
+        int[] code = program.getCode();
+        List<Block> blocks = new ArrayList<>();
+        List<Block> open = new ArrayList<>();
+        for (int pc = 0; pc < code.length; pc += BananaOpcodes.length(code[pc])) {
+            while (!open.isEmpty() && open.get(open.size() - 1).end <= pc) {
+                open.remove(open.size() - 1);
+            }
+            for (Block block : open) {
+                block.inside += counts[pc];
+            }
+            if (code[pc] == BananaOpcodes.EQUALS) {
+                Block block = new Block(pc, code[pc + 1]);
+                blocks.add(block);
+                open.add(block);
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Returns how often a block was entered: only entering it reaches its
+     * first instruction. Empty blocks count every EQUALS as entered.
+     */
+    private long entered(Block block) {
+        int first = block.pc + BananaOpcodes.length(BananaOpcodes.EQUALS);
+        return first < block.end ? counts[first] : counts[block.pc];
+    }
+
+    private static String shortPosition(BananaSourceMap sourceMap, int pc) {
+        int line = sourceMap.line(pc);
+        return line == 0 ? "#" + pc : line + ":" + sourceMap.column(pc);
+    }
+
+    private static double percent(long part, long total) {
+        return total == 0 ? 0 : 100.0 * part / total;
+    }
+
+    /** An EQUALS block and how many instructions ran inside it. */
+    private static final class Block {
+        final int pc;
+        final int end;
+        long inside;
+
+        Block(int pc, int end) {
+            this.pc = pc;
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package bananalang;
+
+/**
+ * A compiled Banana program: an int opcode stream plus a constant pool and a
+ * string pool.
+ */
+public final class BananaProgram {
+
+    private final int[] code;
+    private final double[] constants;
+    private final String[] strings;
+    private final BananaSourceMap sourceMap;
+    private final BananaProfile profile;
+
+    /**
+     * Creates a compiled program without source positions.
+     * 
+     * @param code the opcode stream, see {@link BananaOpcodes}
+     * @param constants the constant pool referenced by PUSH instructions
+     */
+    public BananaProgram(int[] code, double[] constants) {
+        this(code, constants, new BananaSourceMap());
+    }
+
+    /**
+     * Creates a compiled program.
+     * 
+     * @param code the opcode stream, see {@link BananaOpcodes}
+     * @param constants the constant pool referenced by PUSH instructions
+     * @param sourceMap the source position of each instruction, indexed by pc
+     */
+    public BananaProgram(int[] code, double[] constants, BananaSourceMap sourceMap) {
+        this(code, constants, new String[0], sourceMap);
+    }
+
+    /**
+     * Creates a compiled program that uses PRINT_STRING.
+     * 
+     * @param code the opcode stream, see {@link BananaOpcodes}
+     * @param constants the constant pool referenced by PUSH instructions
+     * @param strings the string pool referenced by PRINT_STRING instructions
+     * @param sourceMap the source position of each instruction, indexed by pc
+     */
+    public BananaProgram(int[] code, double[] constants, String[] strings, BananaSourceMap sourceMap) {
+        this.code = code;
+        this.constants = constants;
+        this.strings = strings;
+        this.sourceMap = sourceMap;
+        this.profile = new BananaProfile();
+    }
+
+    /**
+     * Returns the opcode stream. The array is shared and must not be modified.
+     * 
+     * @return the opcode stream
+     */
+    public int[] getCode() {
+        return code;
+    }
+
+    /**
+     * Returns the constant pool. The array is shared and must not be modified.
+     * 
+     * @return the constant pool
+     */
+    public double[] getConstants() {
+        return constants;
+    }
+
+    /**
+     * Returns the string pool. The array is shared and must not be modified.
+     * 
+     * @return the string pool
+     */
+    public String[] getStrings() {
+        return strings;
+    }
+
+    /**
+     * Returns the number of instructions (not ints) in the code.
+     * 
+     * @return the instruction count
+     */
+    public int instructionCount() {
+        int count = 0;
+        for (int pc = 0; pc < code.length; pc += BananaOpcodes.length(code[pc])) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the source position of each instruction, indexed by pc.
+     * 
+     * @return the source map
+     */
+    public BananaSourceMap getSourceMap() {
+        return sourceMap;
+    }
+
+    /**
+     * Returns the execution counters of this program, shared by every
+     * interpreter that runs it.
+     * 
+     * @return the profile
+     */
+    public BananaProfile getProfile() {
+        return profile;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int pc = 0; pc < code.length; pc += BananaOpcodes.length(code[pc])) {
+            sb.append(pc).append(": ").append(BananaOpcodes.name(code[pc]));
+            if (code[pc] == BananaOpcodes.PUSH) {
+                sb.append(' ').append(constants[code[pc + 1]]);
+            } else if (code[pc] == BananaOpcodes.PRINT_STRING) {
+                sb.append(" \"").append(strings[code[pc + 1]]).append('"');
+            } else if (BananaOpcodes.length(code[pc]) > 1) {
+                sb.append(' ').append(code[pc + 1]);
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,432 @@
+package bananalang;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * An on-disk cache of compiled programs. Each entry is named after the
+ * SHA-256 of the source file and {@link #FORMAT_VERSION}, so editing a
+ * program or changing the format simply misses the old entry.
+ *
+ * <p>Entry layout (big-endian): magic, format version, code length, constant
+ * count, string count, warnings length, source map size, then the code ints
+ * (jump targets included), the constant doubles, each string as a length and
+ * its UTF-16 chars, the warnings' UTF-16 chars, the source map lines and the
+ * source map columns.
+ *
+ * <p>The warnings about unknown tokens that compiling printed are kept in the
+ * entry and printed again on a hit, so a program prints the same whether it
+ * was cached or not.
+ */
+public final class BananaProgramCache {
+
+    /** Bumped whenever the opcodes or the entry layout change. */
+    public static final int FORMAT_VERSION = 3;
+
+    private static final int MAGIC = 0x4E414E41; // "NANA"
+    private static final int HEADER_SIZE = 7 * Integer.BYTES;
+    private static final String SUFFIX = ".nanac";
+
+    private final Path directory;
+
+    /**
+     * Creates a cache in the given directory. The directory is created when
+     * the first entry is written.
+     *
+     * @param directory the cache directory
+     */
+    public BananaProgramCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the default cache directory: the {@code bananalang.cache} system
+     * property if set, otherwise {@code ~/.bananalang/cache}.
+     *
+     * @return the default cache directory
+     */
+    public static Path defaultDirectory() {
+        String configured = System.getProperty("bananalang.cache");
+        if (configured != null && !configured.isEmpty()) {
+            return Paths.get(configured);
+        }
+        return Paths.get(System.getProperty("user.home"), ".bananalang", "cache");
+    }
+
+    /**
+     * Returns the cache directory.
+     *
+     * @return the cache directory
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Loads the compiled program for a source file, compiling it and storing
+     * the result on a miss. A cache that cannot be written does not stop the
+     * program from running. Warnings go to standard output, as UTF-8.
+     *
+     * @param source the UTF-8 program file
+     * @return the compiled program
+     * @throws IOException if the source file cannot be read
+     * @throws BananaCompileException if the code is malformed
+     */
+    public BananaProgram load(File source) throws IOException {
+        BufferedOutput warnings = new BufferedOutput(System.out);
+        try {
+            return load(source, warnings);
+        } finally {
+            warnings.flush();
+        }
+    }
+
+    /**
+     * Loads the compiled program for a source file, compiling it and storing
+     * the result on a miss. Warnings are printed on a miss and replayed from
+     * the entry on a hit.
+     *
+     * @param source the UTF-8 program file
+     * @param warnings the output for warnings
+     * @return the compiled program
+     * @throws IOException if the source file cannot be read
+     * @throws BananaCompileException if the code is malformed
+     */
+    public BananaProgram load(File source, BananaOutput warnings) throws IOException {
+        Path entry = entryFor(source.toPath());
+        Entry cached = read(entry);
+        if (cached != null) {
+            if (!cached.warnings.isEmpty()) {
+                warnings.print(cached.warnings);
+            }
+            return cached.program;
+        }
+
+        StringBuilder recorded = new StringBuilder();
+        BananaCompiler compiler = new BananaCompiler();
+        compiler.setWarnings(text -> {
+            recorded.append(text);
+            warnings.print(text);
+        });
+        BananaProgram program = compiler.compile(source);
+        try {
+            write(program, recorded.toString(), entry);
+        } catch (IOException e) {
+            // Read-only or full cache directory: run uncached
+        }
+        return program;
+    }
+
+    /**
+     * Compiles every {@code .nana} and {@code .banana} file under a directory
+     * into the cache, replacing existing entries. Warnings go to standard
+     * output, as UTF-8. Files with compile errors are reported and skipped.
+     *
+     * @param sources the directory to walk
+     * @param optimizer the optimizer to compile with; its counters add up what
+     *     it removed across the directory
+     * @return the number of programs compiled into the cache
+     * @throws IOException if the directory cannot be walked or the cache
+     *     cannot be written
+     */
+    public int precompile(Path sources, BananaOptimizer optimizer) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(sources)) {
+            files = walk.filter(Files::isRegularFile)
+                .filter(BananaProgramCache::isProgramFile)
+                .sorted()
+                .collect(Collectors.toCollection(ArrayList::new));
+        }
+
+        BananaCompiler compiler = new BananaCompiler(optimizer);
+        BufferedOutput warnings = new BufferedOutput(System.out);
+        StringBuilder recorded = new StringBuilder();
+        compiler.setWarnings(text -> {
+            recorded.append(text);
+            warnings.print(text);
+        });
+        int compiled = 0;
+        for (Path file : files) {
+            recorded.setLength(0);
+            try {
+                BananaProgram program = compiler.compile(file.toFile());
+                write(program, recorded.toString(), entryFor(file));
+                compiled++;
+            } catch (BananaCompileException e) {
+                warnings.flush();
+                System.err.println("Compile error in " + file + ": " + e.getMessage());
+            }
+            warnings.flush();
+        }
+        return compiled;
+    }
+
+    /**
+     * Returns the cache entry path for a source file, hashing its contents.
+     *
+     * @param source the program file
+     * @return where its compiled program is cached
+     * @throws IOException if the source file cannot be read
+     */
+    public Path entryFor(Path source) throws IOException {
+        MessageDigest digest = sha256();
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long start = 0; start < size; start += Integer.MAX_VALUE) {
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, start,
+                    Math.min(Integer.MAX_VALUE, size - start)));
+            }
+        }
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(FORMAT_VERSION).flip());
+        return directory.resolve(hex(digest.digest()) + SUFFIX);
+    }
+
+    /**
+     * Returns the SHA-256 hash of a program source, as the cache would key
+     * it if it were a file, but without the format version.
+     *
+     * @param source the program source
+     * @return the hash in hexadecimal
+     */
+    static String hash(String source) {
+        return hex(sha256().digest(source.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String hex(byte[] digest) {
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * A program read from the cache, with the warnings compiling it printed.
+     */
+    static final class Entry {
+        final BananaProgram program;
+        final String warnings;
+
+        Entry(BananaProgram program, String warnings) {
+            this.program = program;
+            this.warnings = warnings;
+        }
+    }
+
+    /**
+     * Reads a cache entry by mapping it.
+     *
+     * @param entry the entry path
+     * @return the entry, or null if it is missing, from another format
+     *     version or damaged, including code that would not run
+     */
+    static Entry read(Path entry) {
+        if (!Files.isRegularFile(entry)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE || fileSize > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            int codeLength = buffer.getInt();
+            int constantCount = buffer.getInt();
+            int stringCount = buffer.getInt();
+            int warningsLength = buffer.getInt();
+            int mapSize = buffer.getInt();
+            long minimum = HEADER_SIZE + 4L * codeLength + 8L * constantCount + 4L * stringCount
+                + 2L * warningsLength + 8L * mapSize;
+            if (codeLength < 0 || constantCount < 0 || stringCount < 0 || warningsLength < 0 || mapSize < 0
+                    || minimum > fileSize) {
+                return null;
+            }
+
+            int[] code = new int[codeLength];
+            buffer.asIntBuffer().get(code);
+            buffer.position(buffer.position() + 4 * codeLength);
+            double[] constants = new double[constantCount];
+            buffer.asDoubleBuffer().get(constants);
+            buffer.position(buffer.position() + 8 * constantCount);
+            String[] strings = new String[stringCount];
+            for (int i = 0; i < stringCount; i++) {
+                int length = buffer.getInt();
+                if (length < 0 || length > buffer.remaining() / 2) {
+                    return null;
+                }
+                char[] chars = new char[length];
+                buffer.asCharBuffer().get(chars);
+                buffer.position(buffer.position() + 2 * length);
+                strings[i] = new String(chars);
+            }
+            if (warningsLength > buffer.remaining() / 2) {
+                return null;
+            }
+            char[] warnings = new char[warningsLength];
+            buffer.asCharBuffer().get(warnings);
+            buffer.position(buffer.position() + 2 * warningsLength);
+            if (buffer.remaining() != 8L * mapSize) {
+                return null;
+            }
+            int[] lines = new int[mapSize];
+            buffer.asIntBuffer().get(lines);
+            buffer.position(buffer.position() + 4 * mapSize);
+            int[] columns = new int[mapSize];
+            buffer.asIntBuffer().get(columns);
+
+            if (!isValid(code, constantCount, stringCount)) {
+                return null;
+            }
+
+            BananaSourceMap sourceMap = new BananaSourceMap(mapSize);
+            for (int i = 0; i < mapSize; i++) {
+                sourceMap.set(i, lines[i], columns[i]);
+            }
+            return new Entry(new BananaProgram(code, constants, strings, sourceMap), new String(warnings));
+        } catch (IOException | BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks code read from an entry the way the compiler would have built
+     * it: known opcodes, operands inside the code, pool indices inside the
+     * pools, and EQUALS targets that jump forward to the start of an
+     * instruction or to the end. Execution relies on all of these.
+     */
+    static boolean isValid(int[] code, int constantCount, int stringCount) {
+        // Where instructions start, for checking jump targets
+        boolean[] starts = new boolean[code.length + 1];
+        starts[code.length] = true;
+        for (int pc = 0; pc < code.length; pc += BananaOpcodes.length(code[pc])) {
+            int op = code[pc];
+            if (op < BananaOpcodes.PUSH || op > BananaOpcodes.PRINT_STRING
+                    || pc + BananaOpcodes.length(op) > code.length) {
+                return false;
+            }
+            starts[pc] = true;
+            switch (op) {
+                case BananaOpcodes.PUSH:
+                    if (code[pc + 1] < 0 || code[pc + 1] >= constantCount) {
+                        return false;
+                    }
+                    break;
+                case BananaOpcodes.PRINT_STRING:
+                    if (code[pc + 1] < 0 || code[pc + 1] >= stringCount) {
+                        return false;
+                    }
+                    break;
+                case BananaOpcodes.PUSH_FROM_INDEX:
+                    if (code[pc + 1] < 0) {
+                        return false;
+                    }
+                    break;
+                case BananaOpcodes.EQUALS:
+                    if (code[pc + 1] <= pc + 1 || code[pc + 1] > code.length) {
+                        return false;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        for (int pc = 0; pc < code.length; pc += BananaOpcodes.length(code[pc])) {
+            if (code[pc] == BananaOpcodes.EQUALS && !starts[code[pc + 1]]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes a cache entry. The entry is written to a temporary file first and
+     * moved into place, so readers never see a half-written entry.
+     *
+     * @param program the compiled program
+     * @param warnings what compiling it printed as warnings
+     * @param entry the entry path
+     * @throws IOException if the entry cannot be written
+     */
+    static void write(BananaProgram program, String warnings, Path entry) throws IOException {
+        Path parent = entry.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, "entry", ".tmp");
+        try {
+            try (OutputStream file = Files.newOutputStream(temp);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+                int[] code = program.getCode();
+                double[] constants = program.getConstants();
+                String[] strings = program.getStrings();
+                BananaSourceMap sourceMap = program.getSourceMap();
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(code.length);
+                out.writeInt(constants.length);
+                out.writeInt(strings.length);
+                out.writeInt(warnings.length());
+                out.writeInt(sourceMap.size());
+                for (int op : code) {
+                    out.writeInt(op);
+                }
+                for (double constant : constants) {
+                    out.writeDouble(constant);
+                }
+                for (String string : strings) {
+                    out.writeInt(string.length());
+                    out.writeChars(string);
+                }
+                out.writeChars(warnings);
+                for (int i = 0; i < sourceMap.size(); i++) {
+                    out.writeInt(sourceMap.line(i));
+                }
+                for (int i = 0; i < sourceMap.size(); i++) {
+                    out.writeInt(sourceMap.column(i));
+                }
+            }
+            try {
+                Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    static boolean isProgramFile(Path file) {
+        String name = file.getFileName().toString();
+        return name.endsWith(".nana") || name.endsWith(".banana");
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,465 @@
+package bananalang;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Keeps a warmed-up engine running and serves jobs over loopback HTTP, so a
+ * run costs a request instead of a JVM start. Compiled programs stay in
+ * memory, keeping their profile and any bytecode across jobs, and each
+ * request borrows an interpreter from a pool.
+ *
+ * <p>A job is {@code POST /run} with either {@code ?path=<file>}, naming a
+ * program file on the server's machine, and the input lines as the body; or
+ * {@code ?source-length=<n>}, with the first n bytes of the body the program
+ * source and the rest the input. The response body is everything the program
+ * printed, and the {@code X-Banana-Exit} header its exit status: one of the
+ * {@code EXIT_} constants. Bodies over the size limit get 413.
+ */
+public final class BananaServer {
+
+    /** Port the server listens on unless told otherwise. */
+    public static final int DEFAULT_PORT = 8642;
+
+    /** Exit status of a job that ran without errors. */
+    public static final int EXIT_OK = 0;
+    /** Exit status of a job whose program reported runtime errors. */
+    public static final int EXIT_RUNTIME_ERROR = 1;
+    /** Exit status of a job whose program did not compile. */
+    public static final int EXIT_COMPILE_ERROR = 2;
+    /** Exit status of a job whose program file could not be read. */
+    public static final int EXIT_IO_ERROR = 3;
+    /** Exit status of a job stopped for going over its budget. */
+    public static final int EXIT_STOPPED = 5;
+
+    /** Largest request body the server reads unless told otherwise: 64 MB. */
+    public static final int DEFAULT_MAX_BODY_BYTES = 64 * 1024 * 1024;
+
+    // The body is read into one array, which cannot be larger than this
+    private static final int MAX_ARRAY_BYTES = Integer.MAX_VALUE - 8;
+
+    /** Header carrying a job's exit status. */
+    public static final String EXIT_HEADER = "X-Banana-Exit";
+
+    /** Compiled programs kept in memory; the least recently used go first. */
+    private static final int MAX_PROGRAMS = 256;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final BlockingQueue<Worker> workers;
+    private final BananaProgramCache cache;
+    private final Map<String, Compiled> programs = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Compiled> eldest) {
+            return size() > MAX_PROGRAMS;
+        }
+    };
+    private final AtomicLong jobs = new AtomicLong();
+    private volatile int maxBodyBytes = DEFAULT_MAX_BODY_BYTES;
+
+    /**
+     * Creates a server on the loopback interface. It does not accept jobs
+     * until {@link #start()} is called.
+     *
+     * @param port the port to listen on, 0 for any free port
+     * @param concurrency how many jobs may run at the same time
+     * @param cache the cache to load program files through, or null to
+     *     always compile them
+     * @param tierUpThreshold see {@link BananaInterpreter#setTierUpThreshold(long)}
+     * @param compileToClosures see {@link BananaInterpreter#setCompileToClosures(boolean)}
+     * @throws IOException if the port cannot be bound
+     */
+    public BananaServer(int port, int concurrency, BananaProgramCache cache, long tierUpThreshold,
+            boolean compileToClosures) throws IOException {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1: " + concurrency);
+        }
+        this.cache = cache;
+        this.workers = new ArrayBlockingQueue<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            workers.add(new Worker(tierUpThreshold, compileToClosures));
+        }
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newFixedThreadPool(concurrency);
+        server.setExecutor(executor);
+        server.createContext("/run", this::handle);
+    }
+
+    /**
+     * Makes every pooled interpreter add its runs to the given metrics.
+     * Call before {@link #start()}.
+     *
+     * @param stats the metrics, or null to turn them off
+     * @see BananaInterpreter#setStats(BananaStats)
+     */
+    public void setStats(BananaStats stats) {
+        for (Worker worker : workers) {
+            worker.interpreter.setStats(stats);
+        }
+    }
+
+    /**
+     * Limits every job the pooled interpreters run. Call before
+     * {@link #start()}.
+     *
+     * @param budget the limits of each job, or null for none
+     * @see BananaInterpreter#setBudget(BananaBudget)
+     */
+    public void setBudget(BananaBudget budget) {
+        for (Worker worker : workers) {
+            worker.interpreter.setBudget(budget);
+        }
+    }
+
+    /**
+     * Limits the size of a request body, program source and input together.
+     * Larger requests are refused with 413 without running. Call before
+     * {@link #start()}.
+     *
+     * @param maxBodyBytes the largest body in bytes
+     */
+    public void setMaxBodyBytes(int maxBodyBytes) {
+        if (maxBodyBytes < 0) {
+            throw new IllegalArgumentException("The maximum body size must not be negative: " + maxBodyBytes);
+        }
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    /**
+     * Starts accepting jobs.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting jobs, waits up to a second for running ones and shuts
+     * the server down.
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     *
+     * @return the port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Returns how many jobs the server has run.
+     *
+     * @return the job count
+     */
+    public long getJobs() {
+        return jobs.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                respond(exchange, 405, "Jobs must be POSTed" + System.lineSeparator());
+                return;
+            }
+            Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+            int limit = maxBodyBytes;
+            String tooLarge = "Request body is larger than " + limit + " bytes" + System.lineSeparator();
+            String declared = exchange.getRequestHeaders().getFirst("Content-Length");
+            if (declared != null && isLongerThan(declared, limit)) {
+                respond(exchange, 413, tooLarge);
+                return;
+            }
+            byte[] body;
+            try (InputStream in = exchange.getRequestBody()) {
+                // Chunked bodies have no length to check up front; one byte
+                // more than the limit shows the body is too large
+                body = in.readNBytes((int) Math.min(limit + 1L, MAX_ARRAY_BYTES));
+            }
+            if (body.length > limit) {
+                respond(exchange, 413, tooLarge);
+                return;
+            }
+
+            String path = query.get("path");
+            String sourceLength = query.get("source-length");
+            if ((path == null) == (sourceLength == null)) {
+                respond(exchange, 400, "Give either path or source-length" + System.lineSeparator());
+                return;
+            }
+            int inputStart = 0;
+            String source = null;
+            if (sourceLength != null) {
+                try {
+                    inputStart = Integer.parseInt(sourceLength);
+                } catch (NumberFormatException e) {
+                    inputStart = -1;
+                }
+                if (inputStart < 0 || inputStart > body.length) {
+                    respond(exchange, 400, "Invalid source-length: " + sourceLength + System.lineSeparator());
+                    return;
+                }
+                source = new String(body, 0, inputStart, StandardCharsets.UTF_8);
+            }
+            String input = new String(body, inputStart, body.length - inputStart, StandardCharsets.UTF_8);
+
+            Worker worker = workers.take();
+            try {
+                int exit = worker.run(path, source, input);
+                exchange.getResponseHeaders().set(EXIT_HEADER, String.valueOf(exit));
+                respond(exchange, 200, worker.bytes.toByteArray());
+            } finally {
+                workers.add(worker);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 503, "Server is shutting down" + System.lineSeparator());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Returns the compiled program for a job, compiling it on first use.
+     * Program files are keyed by their path, size and modification time, so
+     * editing a file compiles it again, and sources by their SHA-256 hash.
+     * Warnings from compiling go to the job's output, and are printed again
+     * for every later job of the program.
+     */
+    private BananaProgram program(String path, String source, BananaOutput output) throws IOException {
+        String key;
+        if (path != null) {
+            BasicFileAttributes attributes = Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+            key = "path:" + Paths.get(path).toAbsolutePath().normalize() + ":" + attributes.size() + ":"
+                + attributes.lastModifiedTime().toMillis();
+        } else {
+            // A hash keeps large sources out of the map
+            key = "source:" + BananaProgramCache.hash(source);
+        }
+        Compiled compiled;
+        synchronized (programs) {
+            compiled = programs.get(key);
+        }
+        if (compiled != null) {
+            output.print(compiled.warnings);
+            return compiled.program;
+        }
+        // Compiled outside the lock; two jobs racing on a new program both compile it
+        StringBuilder recorded = new StringBuilder();
+        BananaOutput warnings = text -> {
+            recorded.append(text);
+            output.print(text);
+        };
+        BananaProgram program;
+        if (path == null) {
+            BananaCompiler compiler = new BananaCompiler();
+            compiler.setWarnings(warnings);
+            program = compiler.compile(source);
+        } else if (cache != null) {
+            program = cache.load(new File(path), warnings);
+        } else {
+            BananaCompiler compiler = new BananaCompiler();
+            compiler.setWarnings(warnings);
+            program = compiler.compile(new File(path));
+        }
+        synchronized (programs) {
+            Compiled existing = programs.putIfAbsent(key, new Compiled(program, recorded.toString()));
+            return existing != null ? existing.program : program;
+        }
+    }
+
+    /** A program kept in memory, with the warnings compiling it printed. */
+    private static final class Compiled {
+        final BananaProgram program;
+        final String warnings;
+
+        Compiled(BananaProgram program, String warnings) {
+            this.program = program;
+            this.warnings = warnings;
+        }
+    }
+
+    private static boolean isLongerThan(String contentLength, int limit) {
+        try {
+            return Long.parseLong(contentLength.trim()) > limit;
+        } catch (NumberFormatException e) {
+            // Left to the read to find out
+            return false;
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String text) throws IOException {
+        respond(exchange, status, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    private static Map<String, String> query(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+                    URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * An interpreter with input and output that are reset for every job, so
+     * jobs reuse it instead of building a new one.
+     */
+    private final class Worker {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final JobInput input = new JobInput();
+        final JobOutput output = new JobOutput(bytes);
+        final BananaInterpreter interpreter = new BananaInterpreter(input, output);
+
+        Worker(long tierUpThreshold, boolean compileToClosures) {
+            interpreter.setTierUpThreshold(tierUpThreshold);
+            interpreter.setCompileToClosures(compileToClosures);
+        }
+
+        /**
+         * Runs one job, leaving its output in {@link #bytes}.
+         *
+         * @return the job's exit status
+         */
+        int run(String path, String source, String inputText) {
+            bytes.reset();
+            output.errors = 0;
+            input.reset(inputText);
+            interpreter.getStack().clear();
+            jobs.incrementAndGet();
+
+            BananaProgram program;
+            try {
+                program = program(path, source, output);
+            } catch (IOException e) {
+                output.error("Error reading file: " + e.getMessage());
+                output.flush();
+                return EXIT_IO_ERROR;
+            } catch (BananaCompileException e) {
+                output.error("Compile error: " + e.getMessage());
+                output.flush();
+                return EXIT_COMPILE_ERROR;
+            }
+            try {
+                interpreter.run(program);
+            } catch (RuntimeException e) {
+                output.error("Execution error: " + e.getMessage());
+                output.flush();
+            }
+            if (interpreter.getStopReason() != null) {
+                return EXIT_STOPPED;
+            }
+            return output.errors == 0 ? EXIT_OK : EXIT_RUNTIME_ERROR;
+        }
+    }
+
+    /** Input lines of the current job. */
+    private static final class JobInput implements BananaInput {
+        private final List<String> lines = new ArrayList<>();
+        private int next;
+
+        void reset(String text) {
+            lines.clear();
+            next = 0;
+            text.lines().forEach(lines::add);
+        }
+
+        @Override
+        public String readLine() {
+            return next < lines.size() ? lines.get(next++) : null;
+        }
+    }
+
+    /** Output that counts the errors it reports. */
+    private static final class JobOutput extends BufferedOutput {
+        int errors;
+
+        JobOutput(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void error(String message) {
+            errors++;
+            super.error(message);
+        }
+    }
+
+    /**
+     * Runs a server until the JVM is stopped.
+     *
+     * @param port the port to listen on
+     * @param concurrency how many jobs may run at the same time
+     * @param cache the cache to load program files through, or null
+     * @param tierUpThreshold see {@link BananaInterpreter#setTierUpThreshold(long)}
+     * @param compileToClosures see {@link BananaInterpreter#setCompileToClosures(boolean)}
+     * @param stats metrics to collect and print at shutdown, or null
+     * @param budget the limits of each job, or null
+     */
+    static void serve(int port, int concurrency, BananaProgramCache cache, long tierUpThreshold,
+            boolean compileToClosures, BananaStats stats, BananaBudget budget, int maxBodyBytes) {
+        BananaServer server;
+        try {
+            server = new BananaServer(port, concurrency, cache, tierUpThreshold, compileToClosures);
+        } catch (IOException e) {
+            System.err.println("Error starting server: " + e.getMessage());
+            return;
+        }
+        server.setStats(stats);
+        server.setBudget(budget);
+        server.setMaxBodyBytes(maxBodyBytes);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            if (stats != null) {
+                System.err.print(stats.summary());
+            }
+        }));
+        server.start();
+        System.out.println("🍌 Serving on http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":"
+            + server.getPort() + "/run with " + concurrency + " interpreter(s)");
+    }
+}
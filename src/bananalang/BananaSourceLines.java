@@ -0,0 +1,111 @@
+package bananalang;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Banana code kept as lexed lines, for editors. Tokens never span lines, so
+ * after an edit only the changed lines are lexed again; compiling or
+ * diagnosing then parses the kept tokens without reading the code again.
+ *
+ * <p>Not thread-safe: edit it from one thread and hand other threads a
+ * {@link #snapshot()}.
+ */
+public final class BananaSourceLines {
+
+    private final List<List<BananaParser.Token>> lines;
+
+    /**
+     * Creates an empty piece of code, one empty line.
+     */
+    public BananaSourceLines() {
+        lines = new ArrayList<>();
+        lines.add(Collections.emptyList());
+    }
+
+    private BananaSourceLines(List<List<BananaParser.Token>> lines) {
+        this.lines = lines;
+    }
+
+    /**
+     * Replaces all the code.
+     *
+     * @param code the new code, lines separated by '\n'
+     */
+    public void setText(String code) {
+        lines.clear();
+        int start = 0;
+        for (int end = code.indexOf('\n'); end >= 0; end = code.indexOf('\n', start)) {
+            lines.add(BananaParser.lexLine(code.substring(start, end)));
+            start = end + 1;
+        }
+        lines.add(BananaParser.lexLine(code.substring(start)));
+    }
+
+    /**
+     * Replaces the text of one line.
+     *
+     * @param index the 0-based line index
+     * @param text the line's new text, without a line break
+     */
+    public void setLine(int index, String text) {
+        lines.set(index, BananaParser.lexLine(text));
+    }
+
+    /**
+     * Replaces a run of lines with others, for edits that add or remove line
+     * breaks.
+     *
+     * @param first the 0-based index of the first line to replace
+     * @param removed how many lines to remove
+     * @param texts the lines to put in their place, without line breaks
+     */
+    public void replaceLines(int first, int removed, List<String> texts) {
+        List<List<BananaParser.Token>> lexed = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            lexed.add(BananaParser.lexLine(text));
+        }
+        List<List<BananaParser.Token>> range = lines.subList(first, first + removed);
+        range.clear();
+        range.addAll(lexed);
+    }
+
+    /**
+     * Returns how many lines the code has.
+     */
+    public int getLineCount() {
+        return lines.size();
+    }
+
+    /**
+     * Returns a copy that later edits do not change. Lexed lines are shared,
+     * so this only copies one reference per line.
+     *
+     * @return the copy
+     */
+    public BananaSourceLines snapshot() {
+        return new BananaSourceLines(new ArrayList<>(lines));
+    }
+
+    /**
+     * Compiles the code.
+     *
+     * @param compiler the compiler to use
+     * @return the compiled program
+     * @throws BananaCompileException if the code is malformed
+     */
+    public BananaProgram compile(BananaCompiler compiler) {
+        return compiler.compileLines(lines);
+    }
+
+    /**
+     * Finds every problem in the code, not only the first one a compile
+     * would stop at.
+     *
+     * @return the problems, in source order
+     */
+    public List<BananaDiagnostic> diagnose() {
+        return BananaParser.diagnose(lines);
+    }
+}
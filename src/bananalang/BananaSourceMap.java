@@ -0,0 +1,116 @@
+package bananalang;
+
+import java.util.Arrays;
+
+/**
+ * Maps entries (parsed commands or compiled instructions) back to the line and
+ * column of the token they came from. Lines and columns start at 1; columns
+ * count code points, so every emoji is one column.
+ */
+public final class BananaSourceMap {
+
+    private int[] lines;
+    private int[] columns;
+    private int size;
+
+    /**
+     * Creates an empty source map.
+     */
+    public BananaSourceMap() {
+        this(16);
+    }
+
+    /**
+     * Creates an empty source map with room for the given number of entries.
+     * 
+     * @param initialCapacity the initial capacity
+     */
+    public BananaSourceMap(int initialCapacity) {
+        lines = new int[Math.max(initialCapacity, 1)];
+        columns = new int[lines.length];
+    }
+
+    /**
+     * Sets the position of an entry, growing the map if needed.
+     * 
+     * @param index the entry index
+     * @param line the line, starting at 1
+     * @param column the column, starting at 1
+     */
+    public void set(int index, int line, int column) {
+        if (index >= lines.length) {
+            int capacity = Math.max(lines.length * 2, index + 1);
+            lines = Arrays.copyOf(lines, capacity);
+            columns = Arrays.copyOf(columns, capacity);
+        }
+        lines[index] = line;
+        columns[index] = column;
+        size = Math.max(size, index + 1);
+    }
+
+    /**
+     * Appends the position of the next entry.
+     * 
+     * @param line the line, starting at 1
+     * @param column the column, starting at 1
+     */
+    public void add(int line, int column) {
+        set(size, line, column);
+    }
+
+    /**
+     * Returns the line of an entry, or 0 if it is unknown.
+     * 
+     * @param index the entry index
+     * @return the line
+     */
+    public int line(int index) {
+        return index < size ? lines[index] : 0;
+    }
+
+    /**
+     * Returns the column of an entry, or 0 if it is unknown.
+     * 
+     * @param index the entry index
+     * @return the column
+     */
+    public int column(int index) {
+        return index < size ? columns[index] : 0;
+    }
+
+    /**
+     * Returns the number of entries.
+     * 
+     * @return the size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Describes the position of an entry for error messages.
+     * 
+     * @param index the entry index
+     * @return for example "line 3, column 7"
+     */
+    public String describe(int index) {
+        if (line(index) == 0) {
+            return "command " + (index + 1);
+        }
+        return describe(line(index), column(index));
+    }
+
+    /**
+     * Describes a source position for error messages.
+     * 
+     * @param line the line, or 0 if only the command number is known
+     * @param column the column, or the command number if line is 0
+     * @return for example "line 3, column 7" or "command 12"
+     */
+    public static String describe(int line, int column) {
+        if (line == 0) {
+            return "command " + column;
+        }
+        return "line " + line + ", column " + column;
+    }
+}
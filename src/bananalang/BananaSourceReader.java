@@ -0,0 +1,122 @@
+package bananalang;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams the code points of a UTF-8 program file through the preprocessor
+ * whitelist. The file is memory-mapped in windows and decoded incrementally,
+ * so no String is built for the whole file or for individual characters.
+ */
+public final class BananaSourceReader implements Closeable {
+
+    /** Size of each mapped window of the file. */
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    private BananaSourceReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.fileSize = channel.size();
+        map(0);
+    }
+
+    /**
+     * Opens a program file for reading.
+     * 
+     * @param file the file to read
+     * @return a reader positioned at the start of the file
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public static BananaSourceReader open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new BananaSourceReader(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the next code point, already filtered by
+     * {@link BananaPreprocessor#filter(int)}: whitelisted emojis and line
+     * breaks come through, everything else (including malformed UTF-8) reads
+     * as a space.
+     * 
+     * @return the next code point, or -1 at the end of the file
+     * @throws IOException if the next window of the file cannot be mapped
+     */
+    public int read() throws IOException {
+        int b = nextByte();
+        if (b < 0x80) {
+            return b < 0 ? -1 : BananaPreprocessor.filter(b);
+        }
+
+        int length;
+        int codePoint;
+        if ((b & 0xE0) == 0xC0) {
+            length = 1;
+            codePoint = b & 0x1F;
+        } else if ((b & 0xF0) == 0xE0) {
+            length = 2;
+            codePoint = b & 0x0F;
+        } else if ((b & 0xF8) == 0xF0) {
+            length = 3;
+            codePoint = b & 0x07;
+        } else {
+            return ' ';
+        }
+        for (int i = 0; i < length; i++) {
+            int next = peekByte();
+            if ((next & 0xC0) != 0x80) {
+                // Truncated sequence: drop it, but leave the next character alone
+                return ' ';
+            }
+            nextByte();
+            codePoint = (codePoint << 6) | (next & 0x3F);
+        }
+        return BananaPreprocessor.filter(codePoint);
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    private int nextByte() throws IOException {
+        if (!window.hasRemaining() && !advance()) {
+            return -1;
+        }
+        return window.get() & 0xFF;
+    }
+
+    private int peekByte() throws IOException {
+        if (!window.hasRemaining() && !advance()) {
+            return -1;
+        }
+        return window.get(window.position()) & 0xFF;
+    }
+
+    private boolean advance() throws IOException {
+        long next = windowStart + window.limit();
+        if (next >= fileSize) {
+            return false;
+        }
+        map(next);
+        return true;
+    }
+
+    private void map(long start) throws IOException {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, fileSize - start));
+    }
+}
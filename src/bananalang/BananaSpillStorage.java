@@ -0,0 +1,136 @@
+package bananalang;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Where an off-heap {@link BananaStack} keeps its older values: chunks of
+ * direct memory or of a memory-mapped scratch file, added as the list grows
+ * and kept for reuse when it shrinks. Chunks are never moved, so growing
+ * costs no copying.
+ */
+final class BananaSpillStorage {
+
+    // 2^20 values, 8 MB, per chunk
+    private static final int CHUNK_SHIFT = 20;
+    private static final int CHUNK_VALUES = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_VALUES - 1;
+    private static final long CHUNK_BYTES = (long) CHUNK_VALUES * Double.BYTES;
+
+    // The scratch file, or null for direct memory
+    private final FileChannel file;
+    private DoubleBuffer[] chunks = new DoubleBuffer[4];
+    private int chunkCount;
+
+    private BananaSpillStorage(FileChannel file) {
+        this.file = file;
+    }
+
+    /**
+     * Creates a storage in direct memory, limited by
+     * {@code -XX:MaxDirectMemorySize}.
+     */
+    static BananaSpillStorage direct() {
+        return new BananaSpillStorage(null);
+    }
+
+    /**
+     * Creates a storage in a scratch file in the given directory, limited by
+     * disk space. The file is deleted when the storage is closed, or failing
+     * that when the JVM exits.
+     */
+    static BananaSpillStorage mapped(Path directory) throws IOException {
+        Path path = Files.createTempFile(directory, "banana-list", ".bin");
+        return new BananaSpillStorage(FileChannel.open(path, StandardOpenOption.READ,
+            StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE));
+    }
+
+    /**
+     * Returns the value at an index.
+     */
+    double get(int index) {
+        return chunks[index >>> CHUNK_SHIFT].get(index & CHUNK_MASK);
+    }
+
+    /**
+     * Stores values from an array, starting at an index.
+     */
+    void write(int index, double[] source, int offset, int length) {
+        while (length > 0) {
+            DoubleBuffer chunk = chunk(index >>> CHUNK_SHIFT);
+            int at = index & CHUNK_MASK;
+            int count = Math.min(length, CHUNK_VALUES - at);
+            chunk.put(at, source, offset, count);
+            index += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Copies values into an array, starting at an index.
+     */
+    void read(int index, double[] target, int offset, int length) {
+        while (length > 0) {
+            int at = index & CHUNK_MASK;
+            int count = Math.min(length, CHUNK_VALUES - at);
+            chunks[index >>> CHUNK_SHIFT].get(at, target, offset, count);
+            index += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Drops the chunks and closes and deletes the scratch file, if any.
+     * Memory and mappings are released once the chunks are collected.
+     */
+    void close() {
+        chunks = new DoubleBuffer[4];
+        chunkCount = 0;
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Returns a chunk, adding chunks up to it if the list has not been that
+     * large before.
+     */
+    private DoubleBuffer chunk(int number) {
+        while (chunkCount <= number) {
+            if (chunkCount == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunkCount * 2);
+            }
+            chunks[chunkCount] = allocate(chunkCount);
+            chunkCount++;
+        }
+        return chunks[number];
+    }
+
+    private DoubleBuffer allocate(int number) {
+        ByteBuffer bytes;
+        if (file == null) {
+            bytes = ByteBuffer.allocateDirect((int) CHUNK_BYTES);
+        } else {
+            try {
+                bytes = file.map(FileChannel.MapMode.READ_WRITE, number * CHUNK_BYTES, CHUNK_BYTES);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return bytes.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+    }
+}
@@ -0,0 +1,299 @@
+package bananalang;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * The list every Banana program works on, stored as a growable double array
+ * so pushes and pops never box.
+ *
+ * <p>A list from {@link #offHeap()} or {@link #spilling(Path)} keeps only its
+ * top {@link #WINDOW} values in the array and moves older ones to a
+ * {@link BananaSpillStorage} outside the Java heap, so its size is limited by
+ * memory or disk instead of {@code -Xmx}. Values move between the two in
+ * blocks of half a window, so pushes, pops and arithmetic still work on the
+ * array; only PUSH_FROM_INDEX into the older values reads the storage.
+ * Such a list should be closed when it is no longer needed, which releases
+ * its storage and deletes a scratch file right away.
+ */
+public final class BananaStack implements AutoCloseable {
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    /** Values an off-heap list keeps in its array. */
+    public static final int WINDOW = 1 << 16;
+
+    // The values from index base on; older values are in the storage
+    private double[] values;
+    private int top;
+    private int base;
+    private final BananaSpillStorage storage;
+
+    /**
+     * Creates an empty stack.
+     */
+    public BananaStack() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty stack with room for the given number of values.
+     * 
+     * @param initialCapacity the initial capacity
+     */
+    public BananaStack(int initialCapacity) {
+        this(initialCapacity, null);
+    }
+
+    private BananaStack(int initialCapacity, BananaSpillStorage storage) {
+        values = new double[Math.max(initialCapacity, 1)];
+        this.storage = storage;
+    }
+
+    /**
+     * Creates an empty stack that keeps older values in direct memory.
+     * 
+     * @return the stack
+     */
+    public static BananaStack offHeap() {
+        return new BananaStack(DEFAULT_CAPACITY, BananaSpillStorage.direct());
+    }
+
+    /**
+     * Creates an empty stack that keeps older values in a memory-mapped
+     * scratch file, deleted when the stack is closed.
+     * 
+     * @param directory where to create the file
+     * @return the stack
+     * @throws IOException if the file cannot be created
+     */
+    public static BananaStack spilling(Path directory) throws IOException {
+        return new BananaStack(DEFAULT_CAPACITY, BananaSpillStorage.mapped(directory));
+    }
+
+    /**
+     * Pushes a value onto the top of the stack.
+     * 
+     * @param value the value to push
+     */
+    public void push(double value) {
+        if (top == values.length) {
+            makeRoom();
+        }
+        values[top++] = value;
+    }
+
+    /**
+     * Removes and returns the top value. The caller must check the size first.
+     * 
+     * @return the top value
+     */
+    public double pop() {
+        if (top == 0) {
+            refill();
+        }
+        return values[--top];
+    }
+
+    /**
+     * Returns the top value without removing it. The caller must check the size first.
+     * 
+     * @return the top value
+     */
+    public double peek() {
+        if (top == 0) {
+            refill();
+        }
+        return values[top - 1];
+    }
+
+    /**
+     * Returns the value at an index, counted from the bottom of the stack.
+     * 
+     * @param index the index, between 0 and size() - 1
+     * @return the value at the index
+     */
+    public double get(int index) {
+        if (index < 0 || index >= base + top) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + (base + top));
+        }
+        return index < base ? storage.get(index) : values[index - base];
+    }
+
+    /**
+     * Returns the number of values on the stack.
+     * 
+     * @return the size
+     */
+    public int size() {
+        return base + top;
+    }
+
+    /**
+     * Returns whether the stack is empty.
+     * 
+     * @return true if there are no values
+     */
+    public boolean isEmpty() {
+        return base + top == 0;
+    }
+
+    /**
+     * Removes every value. The backing array and storage are kept for reuse.
+     */
+    public void clear() {
+        top = 0;
+        base = 0;
+    }
+
+    /**
+     * Tells whether older values are kept outside the Java heap.
+     * 
+     * @return true for stacks from {@link #offHeap()} or {@link #spilling(Path)}
+     */
+    public boolean isOffHeap() {
+        return storage != null;
+    }
+
+    /**
+     * Empties the stack and releases an off-heap stack's storage, deleting
+     * its scratch file. The stack must not be used afterwards. Does nothing
+     * for a stack kept on the heap.
+     * 
+     * @throws java.io.UncheckedIOException if the scratch file cannot be closed
+     */
+    @Override
+    public void close() {
+        top = 0;
+        base = 0;
+        if (storage != null) {
+            storage.close();
+        }
+    }
+
+    /** Replaces the top two values a, b with a + b. */
+    public void add() {
+        if (top < 2) {
+            refill();
+        }
+        double b = values[--top];
+        values[top - 1] += b;
+    }
+
+    /** Replaces the top two values a, b with a - b. */
+    public void subtract() {
+        if (top < 2) {
+            refill();
+        }
+        double b = values[--top];
+        values[top - 1] -= b;
+    }
+
+    /** Replaces the top two values a, b with a * b. */
+    public void multiply() {
+        if (top < 2) {
+            refill();
+        }
+        double b = values[--top];
+        values[top - 1] *= b;
+    }
+
+    /** Replaces the top two values a, b with a / b. */
+    public void divide() {
+        if (top < 2) {
+            refill();
+        }
+        double b = values[--top];
+        values[top - 1] /= b;
+    }
+
+    /** Replaces the top two values a, b with a % b. */
+    public void modulus() {
+        if (top < 2) {
+            refill();
+        }
+        double b = values[--top];
+        values[top - 1] %= b;
+    }
+
+    /**
+     * Replaces the top two values a, b with 1 if they are equal, otherwise
+     * with b. This is what EQUALS leaves on the stack.
+     * 
+     * @return whether the values were equal
+     */
+    public boolean compareTop() {
+        if (top < 2) {
+            refill();
+        }
+        double b = values[--top];
+        if (values[top - 1] == b) {
+            values[top - 1] = 1.0;
+            return true;
+        }
+        values[top - 1] = b;
+        return false;
+    }
+
+    /**
+     * Returns a copy of the values, bottom first.
+     * 
+     * @return the values
+     */
+    public double[] toArray() {
+        double[] copy = new double[base + top];
+        if (base > 0) {
+            storage.read(0, copy, 0, base);
+        }
+        System.arraycopy(values, 0, copy, base, top);
+        return copy;
+    }
+
+    /**
+     * Makes room for a push: grows the array, or once an off-heap list's
+     * array is a full window, moves its older half to the storage.
+     */
+    private void makeRoom() {
+        if (storage == null || values.length < WINDOW) {
+            values = Arrays.copyOf(values, values.length * 2);
+            return;
+        }
+        if (base + top == Integer.MAX_VALUE) {
+            throw new IllegalStateException("The list cannot hold more than " + Integer.MAX_VALUE + " values");
+        }
+        int moved = values.length / 2;
+        storage.write(base, values, 0, moved);
+        System.arraycopy(values, moved, values, 0, top - moved);
+        base += moved;
+        top -= moved;
+    }
+
+    /**
+     * Brings older values back from the storage into the array after pops
+     * emptied it. Does nothing if there are none; the array access that
+     * follows then fails as it would without storage.
+     */
+    private void refill() {
+        if (base == 0) {
+            return;
+        }
+        int moved = Math.min(base, values.length / 2);
+        System.arraycopy(values, 0, values, moved, top);
+        base -= moved;
+        storage.read(base, values, 0, moved);
+        top += moved;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < base + top; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(get(i));
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,157 @@
+package bananalang;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Execution metrics collected by interpreters that have been given one with
+ * {@link BananaInterpreter#setStats(BananaStats)}: how often each opcode ran,
+ * how EQUALS branched, how deep the list got and how fast instructions ran.
+ * One instance can be shared by several interpreters; each run is added in
+ * one step when it ends.
+ *
+ * <p>Call {@link #register()} to publish the metrics as a platform MBean.
+ */
+public final class BananaStats implements BananaStatsMXBean {
+
+    /** Name the metrics are published under by {@link #register()}. */
+    public static final String OBJECT_NAME = "bananalang:type=Stats";
+
+    private static final int OPCODES = BananaOpcodes.PRINT_STRING + 1;
+
+    private final long[] opcodeCounts = new long[OPCODES];
+    private long runs;
+    private long instructions;
+    private long runNanos;
+    private long branchesTaken;
+    private long branchesNotTaken;
+    private int peakStackDepth;
+
+    /**
+     * Registers these metrics with the platform MBean server under
+     * {@link #OBJECT_NAME}, so JConsole and other JMX clients can read them.
+     *
+     * @return the name they were registered under
+     * @throws JMException if the name is taken or registration fails
+     */
+    public ObjectName register() throws JMException {
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        return name;
+    }
+
+    /**
+     * Adds one run.
+     *
+     * @param code the code that ran
+     * @param counts how often the instruction at each pc ran
+     * @param taken how many EQUALS entered their block
+     * @param notTaken how many EQUALS skipped their block
+     * @param peakDepth the largest list size reached
+     * @param nanos how long the run took
+     */
+    synchronized void record(int[] code, long[] counts, long taken, long notTaken, int peakDepth, long nanos) {
+        for (int pc = 0; pc < code.length; pc += BananaOpcodes.length(code[pc])) {
+            if (counts[pc] != 0) {
+                int opcode = code[pc];
+                if (opcode >= 0 && opcode < OPCODES) {
+                    opcodeCounts[opcode] += counts[pc];
+                }
+                instructions += counts[pc];
+            }
+        }
+        runs++;
+        runNanos += nanos;
+        branchesTaken += taken;
+        branchesNotTaken += notTaken;
+        peakStackDepth = Math.max(peakStackDepth, peakDepth);
+    }
+
+    @Override
+    public synchronized long getRuns() {
+        return runs;
+    }
+
+    @Override
+    public synchronized long getInstructions() {
+        return instructions;
+    }
+
+    @Override
+    public synchronized long getRunNanos() {
+        return runNanos;
+    }
+
+    @Override
+    public synchronized double getInstructionsPerSecond() {
+        return runNanos == 0 ? 0 : instructions * 1e9 / runNanos;
+    }
+
+    @Override
+    public synchronized long getBranchesTaken() {
+        return branchesTaken;
+    }
+
+    @Override
+    public synchronized long getBranchesNotTaken() {
+        return branchesNotTaken;
+    }
+
+    @Override
+    public synchronized int getPeakStackDepth() {
+        return peakStackDepth;
+    }
+
+    @Override
+    public synchronized Map<String, Long> getOpcodeCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (int opcode = 0; opcode < OPCODES; opcode++) {
+            counts.put(BananaOpcodes.name(opcode), opcodeCounts[opcode]);
+        }
+        return counts;
+    }
+
+    @Override
+    public synchronized void reset() {
+        Arrays.fill(opcodeCounts, 0);
+        runs = 0;
+        instructions = 0;
+        runNanos = 0;
+        branchesTaken = 0;
+        branchesNotTaken = 0;
+        peakStackDepth = 0;
+    }
+
+    /**
+     * Returns a human-readable summary: totals, branches, and the opcodes
+     * that ran, most frequent first.
+     *
+     * @return the summary, one item per line
+     */
+    public synchronized String summary() {
+        String newline = System.lineSeparator();
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("🍌 %d instruction(s) in %.3f ms (%.0f/s), peak list depth %d%n",
+            instructions, runNanos / 1e6, getInstructionsPerSecond(), peakStackDepth));
+        text.append("🍌 EQUALS: ").append(branchesTaken).append(" taken, ")
+            .append(branchesNotTaken).append(" not taken").append(newline);
+        Integer[] order = new Integer[OPCODES];
+        for (int i = 0; i < OPCODES; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(opcodeCounts[b], opcodeCounts[a]));
+        for (int opcode : order) {
+            if (opcodeCounts[opcode] == 0) {
+                break;
+            }
+            text.append(String.format("   %-16s %12d %6.2f%%%n", BananaOpcodes.name(opcode),
+                opcodeCounts[opcode], 100.0 * opcodeCounts[opcode] / instructions));
+        }
+        return text.toString();
+    }
+}
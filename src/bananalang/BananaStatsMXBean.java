@@ -0,0 +1,71 @@
+package bananalang;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link BananaStats}, as seen through JMX.
+ */
+public interface BananaStatsMXBean {
+
+    /**
+     * Returns how many runs were recorded.
+     *
+     * @return the run count
+     */
+    long getRuns();
+
+    /**
+     * Returns how many instructions the recorded runs executed.
+     *
+     * @return the instruction count
+     */
+    long getInstructions();
+
+    /**
+     * Returns how long the recorded runs took, input waits included.
+     *
+     * @return the run time in nanoseconds
+     */
+    long getRunNanos();
+
+    /**
+     * Returns the instructions executed per second of run time.
+     *
+     * @return the instruction rate, 0 before the first run
+     */
+    double getInstructionsPerSecond();
+
+    /**
+     * Returns how often EQUALS found its values equal and entered its block.
+     *
+     * @return the taken branch count
+     */
+    long getBranchesTaken();
+
+    /**
+     * Returns how often EQUALS skipped its block, including when it had too
+     * few values.
+     *
+     * @return the not-taken branch count
+     */
+    long getBranchesNotTaken();
+
+    /**
+     * Returns the largest list size any recorded run reached.
+     *
+     * @return the peak list depth
+     */
+    int getPeakStackDepth();
+
+    /**
+     * Returns how often each instruction ran, by mnemonic.
+     *
+     * @return the execution count of every opcode
+     */
+    Map<String, Long> getOpcodeCounts();
+
+    /**
+     * Forgets all recorded runs.
+     */
+    void reset();
+}
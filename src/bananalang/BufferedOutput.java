@@ -0,0 +1,153 @@
+package bananalang;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Output that encodes characters and numbers straight into a reusable UTF-8
+ * byte buffer and writes it to the underlying stream in bulk. The buffer is
+ * written out once it holds {@code flushThreshold} bytes, and whenever the
+ * engine calls {@link #flush()} (before reading input and when a program ends).
+ */
+public class BufferedOutput implements BananaOutput {
+
+    /** Default number of buffered bytes that triggers a write. */
+    public static final int DEFAULT_FLUSH_THRESHOLD = 8192;
+
+    private final OutputStream out;
+    private final int flushThreshold;
+    private final byte[] buffer;
+    private int count;
+
+    /**
+     * Creates an output with the default flush threshold.
+     * 
+     * @param out the stream to write UTF-8 bytes to
+     */
+    public BufferedOutput(OutputStream out) {
+        this(out, DEFAULT_FLUSH_THRESHOLD);
+    }
+
+    /**
+     * Creates an output.
+     * 
+     * @param out the stream to write UTF-8 bytes to
+     * @param flushThreshold how many bytes to collect before writing them out;
+     *     1 writes after every print
+     */
+    public BufferedOutput(OutputStream out, int flushThreshold) {
+        if (flushThreshold < 1) {
+            throw new IllegalArgumentException("flushThreshold must be at least 1: " + flushThreshold);
+        }
+        this.out = out;
+        this.flushThreshold = flushThreshold;
+        // Room for the threshold plus the longest thing a single print adds at once
+        this.buffer = new byte[flushThreshold + 32];
+    }
+
+    @Override
+    public void print(String text) {
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            writeCodePoint(codePoint);
+            i += Character.charCount(codePoint);
+            if (count >= flushThreshold) {
+                writeBuffer();
+            }
+        }
+        if (count >= flushThreshold) {
+            writeBuffer();
+        }
+    }
+
+    @Override
+    public void printNumber(double value) {
+        if (BananaOutput.printsAsInt(value)) {
+            writeInt((int) value);
+        } else {
+            String text = String.valueOf(value);
+            for (int i = 0; i < text.length(); i++) {
+                buffer[count++] = (byte) text.charAt(i);
+            }
+        }
+        if (count >= flushThreshold) {
+            writeBuffer();
+        }
+    }
+
+    @Override
+    public void printChar(int value) {
+        writeCodePoint(value);
+        if (count >= flushThreshold) {
+            writeBuffer();
+        }
+    }
+
+    @Override
+    public void flush() {
+        writeBuffer();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Encodes one code point as UTF-8. Surrogates and values that are not
+     * code points are written as '?'.
+     */
+    private void writeCodePoint(int codePoint) {
+        if (codePoint < 0x80 && codePoint >= 0) {
+            buffer[count++] = (byte) codePoint;
+        } else if (codePoint < 0x800 && codePoint > 0) {
+            buffer[count++] = (byte) (0xC0 | (codePoint >> 6));
+            buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else if (codePoint < 0x10000 && codePoint > 0
+                && !Character.isSurrogate((char) codePoint)) {
+            buffer[count++] = (byte) (0xE0 | (codePoint >> 12));
+            buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else if (codePoint >= 0x10000 && codePoint <= Character.MAX_CODE_POINT) {
+            buffer[count++] = (byte) (0xF0 | (codePoint >> 18));
+            buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else {
+            buffer[count++] = '?';
+        }
+    }
+
+    /**
+     * Writes the decimal digits of an int without going through a String.
+     */
+    private void writeInt(int value) {
+        long v = value;
+        if (v < 0) {
+            buffer[count++] = '-';
+            v = -v;
+        }
+        int digits = 1;
+        for (long p = 10; p <= v; p *= 10) {
+            digits++;
+        }
+        for (int i = count + digits - 1; i >= count; i--) {
+            buffer[i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        count += digits;
+    }
+
+    private void writeBuffer() {
+        if (count == 0) {
+            return;
+        }
+        try {
+            out.write(buffer, 0, count);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        count = 0;
+    }
+}
@@ -0,0 +1,30 @@
+package bananalang;
+
+import java.io.PrintStream;
+
+/**
+ * Writes program output to a {@link PrintStream}, such as {@code System.out}.
+ */
+public class PrintStreamOutput implements BananaOutput {
+
+    private final PrintStream out;
+
+    /**
+     * Creates an output that writes to the given stream.
+     * 
+     * @param out the stream to write to
+     */
+    public PrintStreamOutput(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void print(String text) {
+        out.print(text);
+    }
+
+    @Override
+    public void flush() {
+        out.flush();
+    }
+}
@@ -0,0 +1,44 @@
+package bananalang;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+
+/**
+ * Reads program input line by line from a {@link Reader}, such as standard input.
+ */
+public class ReaderInput implements BananaInput {
+
+    private final BufferedReader reader;
+
+    /**
+     * Creates an input that reads from a stream using the default charset.
+     * 
+     * @param in the stream to read from
+     */
+    public ReaderInput(InputStream in) {
+        this(new InputStreamReader(in));
+    }
+
+    /**
+     * Creates an input that reads from the given reader.
+     * 
+     * @param reader the reader to read from
+     */
+    public ReaderInput(Reader reader) {
+        this.reader = reader instanceof BufferedReader
+            ? (BufferedReader) reader : new BufferedReader(reader);
+    }
+
+    @Override
+    public String readLine() {
+        try {
+            return reader.readLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}